@@ -61,6 +61,11 @@ public class AndroidCursor implements ICursor {
 		return cur.getInt(columnIndex);
 	}
 
+	@Override
+	public long getLong(int columnIndex) {
+		return cur.getLong(columnIndex);
+	}
+
 	@Override
 	public int getColumnCount() {
 		return cur.getColumnCount();
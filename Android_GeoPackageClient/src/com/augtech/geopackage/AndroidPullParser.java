@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geopackage;
+
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.util.Xml;
+
+import com.augtech.geoapi.geotools.gml.IPullParser;
+/** An Android specific implementation of {@link IPullParser} using
+ * the platform XmlPullParser, as Android does not include StAX.
+ *
+ *
+ */
+public class AndroidPullParser implements IPullParser {
+	private XmlPullParser parser = null;
+	private InputStream stream = null;
+	private int[] textBounds = new int[2];
+	private char[] text = null;
+
+	public AndroidPullParser(InputStream stream) throws XmlPullParserException {
+		this.stream = stream;
+		parser = Xml.newPullParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		parser.setInput(stream, null);
+	}
+
+	@Override
+	public int next() throws Exception {
+		text = null;
+
+		switch (parser.next()) {
+		case XmlPullParser.START_TAG:
+			return START_ELEMENT;
+		case XmlPullParser.END_TAG:
+			return END_ELEMENT;
+		case XmlPullParser.TEXT:
+			text = parser.getTextCharacters(textBounds);
+			return CHARACTERS;
+		case XmlPullParser.END_DOCUMENT:
+			return END_DOCUMENT;
+		default:
+			return OTHER;
+		}
+	}
+
+	@Override
+	public String getNamespaceURI() {
+		return parser.getNamespace();
+	}
+
+	@Override
+	public String getLocalName() {
+		return parser.getName();
+	}
+
+	@Override
+	public String getPrefix() {
+		return parser.getPrefix();
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return parser.getAttributeCount();
+	}
+
+	@Override
+	public String getAttributeLocalName(int index) {
+		return parser.getAttributeName(index);
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return parser.getAttributeValue(index);
+	}
+
+	@Override
+	public char[] getTextCharacters() {
+		return text;
+	}
+
+	@Override
+	public int getTextStart() {
+		return textBounds[0];
+	}
+
+	@Override
+	public int getTextLength() {
+		return textBounds[1];
+	}
+
+	@Override
+	public void close() {
+		try {
+			stream.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -77,6 +77,29 @@ public class AndroidSQLDatabase extends SQLiteOpenHelper implements ISQLDatabase
 		getDatabase(false);
 		return new AndroidCursor( sqlDB.rawQuery(sql, null) );
 	}
+	/** {@inheritDoc}<p>
+	 * Android only binds String arguments, so each value is converted to a String 
+	 * (Boolean's as 1 or 0). SQLite applies the column affinity when comparing. 
+	 * byte[] values are not supported.
+	 */
+	@Override
+	public ICursor doRawQuery(String sql, Object[] args) {
+		getDatabase(false);
+		String[] strArgs = null;
+		if (args!=null) {
+			strArgs = new String[args.length];
+			for (int i=0; i<args.length; i++) {
+				if (args[i] instanceof byte[])
+					throw new IllegalArgumentException("byte[] arguments are not supported");
+				if (args[i] instanceof Boolean) {
+					strArgs[i] = ((Boolean)args[i]).booleanValue() ? "1" : "0";
+				} else {
+					strArgs[i] = String.valueOf(args[i]);
+				}
+			}
+		}
+		return new AndroidCursor( sqlDB.rawQuery(sql, strArgs) );
+	}
 	
 	
 	@Override
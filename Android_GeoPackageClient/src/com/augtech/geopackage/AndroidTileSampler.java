@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geopackage;
+
+import java.io.ByteArrayOutputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.augtech.geoapi.geopackage.ITileSampler;
+/** An Android specific implementation of {@link ITileSampler} using
+ * the standard Bitmap and Canvas classes.
+ *
+ *
+ */
+public class AndroidTileSampler implements ITileSampler {
+	private Bitmap.CompressFormat format = Bitmap.CompressFormat.PNG;
+
+	public AndroidTileSampler() {
+	}
+
+	public AndroidTileSampler(Bitmap.CompressFormat format) {
+		this.format = format;
+	}
+
+	@Override
+	public byte[] downsample(byte[][] children, int tileWidth, int tileHeight) {
+
+		Bitmap parent = Bitmap.createBitmap(tileWidth, tileHeight, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(parent);
+		Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+		int halfW = tileWidth / 2;
+		int halfH = tileHeight / 2;
+		boolean drawn = false;
+
+		for (int i=0; i<4; i++) {
+			if (children[i]==null) continue;
+
+			Bitmap child = BitmapFactory.decodeByteArray(children[i], 0, children[i].length);
+			if (child==null) continue;
+
+			int left = (i % 2) * halfW;
+			int top = (i / 2) * halfH;
+			canvas.drawBitmap(child, null, new Rect(left, top, left+halfW, top+halfH), paint);
+			child.recycle();
+			drawn = true;
+		}
+
+		if (!drawn) {
+			parent.recycle();
+			return null;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		parent.compress(format, 90, out);
+		parent.recycle();
+
+		return out.toByteArray();
+	}
+
+}
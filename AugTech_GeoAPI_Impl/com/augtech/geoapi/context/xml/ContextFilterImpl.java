@@ -51,6 +51,7 @@ import com.augtech.geoapi.context.ContextURIImpl;
 import com.augtech.geoapi.context.ContextValueImpl;
 import com.augtech.geoapi.context.CreatorApplicationImpl;
 import com.augtech.geoapi.context.CreatorDisplayImpl;
+import com.augtech.geoapi.utils.ValueClassifier;
 import com.vividsolutions.jts.geom.Geometry;
 
 /** A SAX Parser implementation for processing a Context document in
@@ -308,17 +309,7 @@ public class ContextFilterImpl extends XMLFilterImpl implements ContextFilter {
 				collectedValues.put(localName, eleValue);
 			} else { // All other standard feed values
 				// Try to decode at least String or number classes for the feed value
-				Class<?> clazz = String.class;
-			    try {
-			    	Integer.valueOf(eleValue);
-			    	clazz = Integer.class;
-			    } catch (NumberFormatException e1) {
-			        try {
-			        	Double.valueOf(eleValue);
-			        	clazz = Double.class;
-			        } catch (NumberFormatException e2) {/* Will use default of String */ }
-
-			    }
+				Class<?> clazz = ValueClassifier.classifyClass(eleValue);
 			    feedValues.put(localName, new ContextValueImpl(eleValue, currDataType, clazz) );
 
 			}
@@ -44,6 +44,7 @@ import com.augtech.geoapi.context.OfferingImpl;
 import com.augtech.geoapi.context.OperationImpl;
 import com.augtech.geoapi.context.ResourceImpl;
 import com.augtech.geoapi.context.StyleSetImpl;
+import com.augtech.geoapi.utils.ValueClassifier;
 /** A SAX XMLFilterImpl specifically for Context Document <Entry>'s
  * 
  * @author Augmented Technologies Ltd.
@@ -306,17 +307,7 @@ public class EntryFilter extends XMLFilterImpl {
 			
 		} else {
 			// All other standard feed values
-			Class<?> clazz = String.class;
-		    try {
-		    	Integer.valueOf(rawData);
-		    	clazz = Integer.class;
-		    } catch (NumberFormatException e1) {
-		        try {
-		        	Double.valueOf(rawData);
-		        	clazz = Double.class;
-		        } catch (NumberFormatException e2) {/* Will use default of String */ }
-
-		    }
+			Class<?> clazz = ValueClassifier.classifyClass(rawData);
 			entryValues.put(localName, new ContextValueImpl(rawAttribute, currentType, clazz) );
 
 		}
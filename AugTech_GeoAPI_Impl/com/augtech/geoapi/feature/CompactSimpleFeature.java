@@ -0,0 +1,426 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.feature;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.IllegalAttributeException;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.identity.FeatureId;
+import org.opengis.geometry.BoundingBox;
+
+import com.augtech.geoapi.geometry.BoundingBoxImpl;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/** A SimpleFeature that uses less memory than {@link SimpleFeatureImpl}, for holding
+ * large numbers of features in memory.<p>
+ * Values are held in a single array sized to the feature type. Integer, Long, Short,
+ * Float and Double values are held unboxed in a primitive array, with a byte recording
+ * their class so they are boxed back to the same class when read. User data is only created
+ * when first requested, and the envelope of the geometry is held as four doubles so
+ * {@link #intersects(Envelope)} needs no objects. {@link #getBounds()} creates a new
+ * BoundingBox on each call.<p>
+ * Name lookups are resolved to an index by the feature type.
+ * The list returned by {@link #getAttributes()} is a live view of the values.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class CompactSimpleFeature implements SimpleFeature {
+	private String featureID;
+	private SimpleFeatureType featureType;
+	private Geometry defaultGeom;
+	/** Object values, or <code>Null</code> where the value is primitive or null */
+	private Object[] values;
+	/** Primitive values (as long bits for floating point types), created on first use */
+	private long[] primitives = null;
+	/** The class of each value held in {@link #primitives}, or zero for an Object value */
+	private byte[] kinds = null;
+	private Map<Object, Object> userdata = null;
+	private double minX = Double.NaN, minY = Double.NaN, maxX = Double.NaN, maxY = Double.NaN;
+
+	private static final Object[] NO_VALUES = new Object[0];
+	private static final byte KIND_INTEGER = 1;
+	private static final byte KIND_LONG = 2;
+	private static final byte KIND_SHORT = 3;
+	private static final byte KIND_FLOAT = 4;
+	private static final byte KIND_DOUBLE = 5;
+
+	/** Create a new feature
+	 *
+	 * @param fid The unique feature ID
+	 * @param attrValues The attribute values, in the order of the feature type, or
+	 * <code>Null</code> to set them afterwards.
+	 * @param fType The {@link SimpleFeatureType} this feature belongs to
+	 * @param defaultGeom The feature's geometry
+	 */
+	public CompactSimpleFeature(String fid, List<Object> attrValues, SimpleFeatureType fType, Geometry defaultGeom) {
+		this(fid, attrValues==null ? null : attrValues.toArray(), fType, defaultGeom);
+	}
+	/** Create a new feature
+	 *
+	 * @param fid The unique feature ID
+	 * @param attrValues The attribute values, in the order of the feature type, or
+	 * <code>Null</code> to set them afterwards. The array is not kept.
+	 * @param fType The {@link SimpleFeatureType} this feature belongs to
+	 * @param defaultGeom The feature's geometry
+	 */
+	public CompactSimpleFeature(String fid, Object[] attrValues, SimpleFeatureType fType, Geometry defaultGeom) {
+		this.featureID = fid;
+		this.featureType = fType;
+		setDefaultGeometry(defaultGeom);
+		setAttributes(attrValues);
+	}
+	/** Create a compact copy of another feature. The user data is copied
+	 * if it has any entries.
+	 *
+	 * @param feature
+	 */
+	public CompactSimpleFeature(SimpleFeature feature) {
+		this(feature.getID(), feature.getAttributes(), feature.getType(), (Geometry) feature.getDefaultGeometry());
+		Map<Object, Object> ud = feature.getUserData();
+		if (ud!=null && !ud.isEmpty()) getUserData().putAll(ud);
+	}
+	/** Get Bounding box of this feature's geometry
+	 *
+	 * @return A new {@link BoundingBox}
+	 */
+	@Override
+	public BoundingBox getBounds() {
+		if (defaultGeom==null) return new BoundingBoxImpl("4326");
+		return new BoundingBoxImpl(getEnvelope(), ""+defaultGeom.getSRID());
+	}
+	/** Get the envelope of this feature's geometry
+	 *
+	 * @return A new Envelope, which is null (see {@link Envelope#isNull()}) if there is
+	 * no geometry
+	 */
+	public Envelope getEnvelope() {
+		if (Double.isNaN(minX)) return new Envelope();
+		return new Envelope(minX, maxX, minY, maxY);
+	}
+	/** Does this feature's envelope intersect another?
+	 *
+	 * @param env
+	 * @return False if there is no geometry
+	 */
+	public boolean intersects(Envelope env) {
+		if (Double.isNaN(minX) || env.isNull()) return false;
+		return !(env.getMinX() > maxX || env.getMaxX() < minX || env.getMinY() > maxY || env.getMaxY() < minY);
+	}
+	@Override
+	public Name getName() {
+		return new NameImpl(featureID);
+	}
+	/** Get the user data for this feature, creating it if required
+	 *
+	 */
+	@Override
+	public Map<Object, Object> getUserData() {
+		if (userdata==null) userdata = new HashMap<Object, Object>(4);
+		return userdata;
+	}
+	/** Get a single user data value without creating the user data
+	 *
+	 * @param key
+	 * @return The value, or <code>Null</code>
+	 */
+	public Object getUserData(Object key) {
+		return userdata==null ? null : userdata.get(key);
+	}
+	/** Returns false */
+	@Override
+	public boolean isNillable() {
+		return false;
+	}
+	/** Get an attribute value based on the local part name. This is
+	 * case sensitive.
+	 *
+	 * @param name The name String to search for.
+	 * @return The value as an Object, or Null if not found
+	 */
+	@Override
+	public Object getAttribute(String name) {
+		if (name==null) return null;
+		int idx = featureType.indexOf(name);
+		return idx>-1 && idx<values.length ? getValue(idx) : null;
+	}
+	@Override
+	public Object getAttribute(Name name) {
+		if (name==null) return null;
+		int idx = featureType.indexOf(name);
+		return idx>-1 && idx<values.length ? getValue(idx) : null;
+	}
+	@Override
+	public Object getAttribute(int idx) throws IndexOutOfBoundsException {
+		if (idx<0 || idx>=values.length) throw new IndexOutOfBoundsException("Index: "+idx);
+		return getValue(idx);
+	}
+	@Override
+	public int getAttributeCount() {
+		return values.length;
+	}
+	/** Get a live view of the attribute values for this feature. Setting a
+	 * value in the list sets it on the feature.
+	 *
+	 */
+	@Override
+	public List<Object> getAttributes() {
+		return new AbstractList<Object>() {
+			@Override
+			public Object get(int index) {
+				return getAttribute(index);
+			}
+			@Override
+			public Object set(int index, Object element) {
+				Object prev = getAttribute(index);
+				setValue(index, element);
+				return prev;
+			}
+			@Override
+			public int size() {
+				return values.length;
+			}
+		};
+	}
+	/** Get a numeric attribute without boxing it
+	 *
+	 * @param idx
+	 * @return The value, or <code>Double.NaN</code> if it is null or not a Number
+	 */
+	public double getDouble(int idx) {
+		byte kind = getKind(idx);
+		if (kind==KIND_DOUBLE) return Double.longBitsToDouble(primitives[idx]);
+		if (kind==KIND_FLOAT) return Float.intBitsToFloat((int) primitives[idx]);
+		if (kind!=0) return primitives[idx];
+
+		Object v = idx>=0 && idx<values.length ? values[idx] : null;
+		return v instanceof Number ? ((Number) v).doubleValue() : Double.NaN;
+	}
+	@Override
+	public void setDefaultGeometry(Object geom) {
+		defaultGeom = (Geometry) geom;
+		Envelope env = defaultGeom==null ? null : defaultGeom.getEnvelopeInternal();
+		if (env==null || env.isNull()) {
+			minX = minY = maxX = maxY = Double.NaN;
+		} else {
+			minX = env.getMinX();
+			minY = env.getMinY();
+			maxX = env.getMaxX();
+			maxY = env.getMaxY();
+		}
+	}
+	@Override
+	public Geometry getDefaultGeometry() {
+		return defaultGeom;
+	}
+	@Override
+	public SimpleFeatureType getFeatureType() {
+		return featureType;
+	}
+	@Override
+	public SimpleFeatureType getType() {
+		return featureType;
+	}
+	/** Set the features parent {@link SimpleFeatureType}
+	 *
+	 * @param fType
+	 */
+	public void setType(SimpleFeatureType fType) {
+		this.featureType = fType;
+	}
+	/** The ID of this feature. The ID is only unique within the featureCollection
+	 *
+	 */
+	@Override
+	public String getID() {
+		return featureID;
+	}
+	/** Set the named attribute to the passed value.
+	 * If the passed name does not exist on the FeatureType, it is not added.
+	 *
+	 */
+	@Override
+	public void setAttribute(String name, Object value) {
+		setValue(featureType.indexOf(name), value);
+	}
+	@Override
+	public void setAttribute(Name name, Object value) {
+		setValue(featureType.indexOf(name), value);
+	}
+	@Override
+	public void setAttribute(int idx, Object value) throws IndexOutOfBoundsException {
+		setValue(idx, value);
+	}
+	/** Overwrites all current values, therefore ensure they are in the correct
+	 * order (from the FeatureType) before passing.
+	 *
+	 */
+	@Override
+	public void setAttributes(List<Object> values) {
+		setAttributes(values==null ? null : values.toArray());
+	}
+	@Override
+	public void setAttributes(Object[] newValues) {
+		int size = newValues==null ? 0 : newValues.length;
+		values = size==0 ? NO_VALUES : new Object[size];
+		primitives = null;
+		kinds = null;
+		for (int i=0; i<size; i++) {
+			setValue(i, newValues[i]);
+		}
+	}
+
+	/** Get a value, boxing it if held as a primitive
+	 *
+	 * @param idx
+	 * @return
+	 */
+	private Object getValue(int idx) {
+		switch (getKind(idx)) {
+		case KIND_INTEGER:
+			return Integer.valueOf((int) primitives[idx]);
+		case KIND_LONG:
+			return Long.valueOf(primitives[idx]);
+		case KIND_SHORT:
+			return Short.valueOf((short) primitives[idx]);
+		case KIND_FLOAT:
+			return Float.valueOf(Float.intBitsToFloat((int) primitives[idx]));
+		case KIND_DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(primitives[idx]));
+		default:
+			return values[idx];
+		}
+	}
+	/** Store a value, unboxing it if it is a primitive wrapper. The arrays are
+	 * expanded if the type has been widened since the feature was created.
+	 *
+	 * @param idx
+	 * @param value
+	 */
+	private void setValue(int idx, Object value) {
+		if (idx<0) return;
+		if (idx>=values.length) {
+			values = Arrays.copyOf(values, Math.max(idx+1, featureType.getAttributeCount()));
+			if (primitives!=null) {
+				primitives = Arrays.copyOf(primitives, values.length);
+				kinds = Arrays.copyOf(kinds, values.length);
+			}
+		}
+
+		byte kind = 0;
+		long bits = 0;
+		if (value instanceof Integer) {
+			kind = KIND_INTEGER;
+			bits = ((Integer) value).longValue();
+		} else if (value instanceof Long) {
+			kind = KIND_LONG;
+			bits = ((Long) value).longValue();
+		} else if (value instanceof Double) {
+			kind = KIND_DOUBLE;
+			bits = Double.doubleToRawLongBits( ((Double) value).doubleValue() );
+		} else if (value instanceof Float) {
+			kind = KIND_FLOAT;
+			bits = Float.floatToRawIntBits( ((Float) value).floatValue() );
+		} else if (value instanceof Short) {
+			kind = KIND_SHORT;
+			bits = ((Short) value).longValue();
+		}
+
+		if (kind!=0) {
+			if (primitives==null) {
+				primitives = new long[values.length];
+				kinds = new byte[values.length];
+			}
+			primitives[idx] = bits;
+			kinds[idx] = kind;
+			values[idx] = null;
+		} else {
+			if (kinds!=null) kinds[idx] = 0;
+			values[idx] = value;
+		}
+	}
+
+	private byte getKind(int idx) {
+		return kinds==null || idx<0 || idx>=kinds.length ? 0 : kinds[idx];
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		// Attribute values can change, so are not part of the hash
+		result = prime * result + ((featureID == null) ? 0 : featureID.hashCode());
+		result = prime * result + ((featureType == null) ? 0 : featureType.hashCode());
+		return result;
+	}
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CompactSimpleFeature))
+			return false;
+		CompactSimpleFeature other = (CompactSimpleFeature) obj;
+		if (featureID == null ? other.featureID != null : !featureID.equals(other.featureID))
+			return false;
+		if (featureType == null ? other.featureType != null : !featureType.equals(other.featureType))
+			return false;
+		return true;
+	}
+	@Override
+	public String toString() {
+		return featureID;
+	}
+
+	/** Not Implemented. Use attributes */
+	public Collection<Property> getProperties() {return null;}
+	/** Not Implemented. Use attributes */
+	public Collection<Property> getProperties(Name arg0) {return null;}
+	/** Not Implemented. Use attributes */
+	public Collection<Property> getProperties(String arg0) {return null;}
+	/** Not Implemented. Use attributes */
+	public Property getProperty(Name arg0) {return null;}
+	/** Not Implemented. Use attributes */
+	public Property getProperty(String arg0) {return null;}
+	/** Not Implemented. Use Attributes */
+	public GeometryAttribute getDefaultGeometryProperty() {return null;}
+	/** Not Implemented. Use Attributes */
+	public void setDefaultGeometryProperty(GeometryAttribute arg0) {}
+	/** Not Implemented. Use attributes */
+	public Collection<? extends Property> getValue() {return null;}
+	/** Not Implemented. Use attributes */
+	public void setValue(Collection<Property> arg0) {}
+	/** Not Implemented */
+	public void validate() throws IllegalAttributeException {}
+	/** Not Implemented */
+	public AttributeDescriptor getDescriptor() {return null;}
+	/** Not Implemented Use getID() */
+	public FeatureId getIdentifier() {return null;}
+	/** Not implemented. Use Attributes */
+	public void setValue(Object arg0) {}
+
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.feature;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.geometry.BoundingBox;
+
+import com.augtech.geoapi.geometry.BoundingBoxImpl;
+import com.augtech.geoapi.geometry.OSMTile;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+
+/** A thread-safe alternative to {@link FeatureCollection} for when features are
+ * loaded on several threads while others (i.e. the renderer) query them.<p>
+ * Features are keyed by their ID, which must not be null; adding a feature whose ID
+ * is already in the collection does nothing. The ID, type and tile indexes are concurrent
+ * maps, so queries on them never block. The spatial index is split in to stripes, each with
+ * its own read/write lock. A feature goes in to the stripe whose extent it enlarges least,
+ * so a bounding box query only locks and searches the stripes whose extent it overlaps.
+ * All the indexes for a feature are updated while holding its stripe's write lock, so an
+ * add and a remove of the same feature can never leave a stale entry behind.<p>
+ * Iteration walks the live ID index, so readers can go through the features while loaders
+ * keep adding to it; a feature added or removed during the walk may or may not be seen.
+ * Nothing is copied unless {@link #snapshot()} is called, and {@link #getBounds()} is only
+ * worked out again after the collection has changed.<p>
+ * Updates to the separate indexes are not atomic as a whole: a feature being added
+ * may briefly be returned by one query but not another. There is no ordering of the
+ * features.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class ConcurrentFeatureCollection extends AbstractCollection<SimpleFeature> {
+	private final ConcurrentMap<String, SimpleFeature> idIndex = new ConcurrentHashMap<String, SimpleFeature>();
+	private final ConcurrentMap<Name, Set<SimpleFeature>> typeNameIndex = new ConcurrentHashMap<Name, Set<SimpleFeature>>();
+	/** Tile features by their packed tile key */
+	private final ConcurrentMap<Long, Set<SimpleFeature>> tileIndex = new ConcurrentHashMap<Long, Set<SimpleFeature>>();
+	private final SpatialStripe[] stripes;
+	/** Holds the features without a geometry. It is never queried */
+	private final SpatialStripe unindexed = new SpatialStripe();
+	/** The stripe each feature was added to */
+	private final ConcurrentMap<String, SpatialStripe> stripeIndex = new ConcurrentHashMap<String, SpatialStripe>();
+	/** Incremented after every change, to tell if the snapshot is current */
+	private final AtomicLong version = new AtomicLong();
+	private volatile Cached<List<SimpleFeature>> snapshot = null;
+	private volatile Cached<BoundingBox> bounds = null;
+
+	/** Create a new collection with 16 spatial index stripes
+	 *
+	 */
+	public ConcurrentFeatureCollection() {
+		this(16);
+	}
+	/** Create a new collection
+	 *
+	 * @param concurrency The number of spatial index stripes. This is rounded up to a
+	 * power of two and should be around the number of threads adding features to
+	 * different areas.
+	 */
+	public ConcurrentFeatureCollection(int concurrency) {
+		int n = 1;
+		while (n < concurrency) n <<= 1;
+		stripes = new SpatialStripe[n];
+		for (int i=0; i<n; i++) stripes[i] = new SpatialStripe();
+	}
+	/** Get a specific feature
+	 *
+	 * @param featureID
+	 * @return The SimpleFeature, or <code>Null</code>
+	 */
+	public SimpleFeature get(String featureID) {
+		return featureID==null ? null : idIndex.get(featureID);
+	}
+	/** Does this collection have this feature
+	 *
+	 * @param featureID
+	 * @return True if feature exists
+	 */
+	public boolean hasFeature(String featureID) {
+		return featureID!=null && idIndex.containsKey(featureID);
+	}
+	/** Does the collection contain this feature?
+	 *
+	 * @param feature
+	 * @return True if it does
+	 */
+	public boolean hasFeature(SimpleFeature feature) {
+		return hasFeature(feature.getID());
+	}
+	/** Get all the features in this collection that intersect or are contained
+	 * by the passed {@link BoundingBox}. Features without a geometry are never returned.
+	 *
+	 * @param extent The bounding box to test against. This must be in the same
+	 * CRS as the features in order to return the correct features.
+	 * @return A new ArrayList<SimpleFeature> containing the relevant features
+	 */
+	public ArrayList<SimpleFeature> getFeatures(BoundingBox extent) {
+		Envelope search = new Envelope(extent.getMinX(), extent.getMaxX(), extent.getMinY(), extent.getMaxY());
+		ArrayList<SimpleFeature> tmp = new ArrayList<SimpleFeature>();
+		for (SpatialStripe s : stripes) {
+			Envelope ext = s.extent;
+			if (ext!=null && ext.intersects(search)) s.query(search, tmp);
+		}
+		return tmp;
+	}
+	/** Gets all the features for a specific type name.
+	 *
+	 * @param name The Name to look for
+	 * @return A live, thread-safe Set of Feature's
+	 * @throws Exception If the NameImpl is not found in the index.
+	 */
+	public Set<SimpleFeature> getFeatures(Name name) throws Exception {
+		Set<SimpleFeature> ret = typeNameIndex.get(name);
+		if (ret==null) throw new Exception("Type not found");
+		return ret;
+	}
+	/** Get a list of all SimpleFeatureType's from the SimpleFeature's currently
+	 * stored.
+	 *
+	 * @return
+	 */
+	public List<SimpleFeatureType> getCurrentTypes() {
+		List<SimpleFeatureType> ret = new ArrayList<SimpleFeatureType>();
+		for (Set<SimpleFeature> s : typeNameIndex.values()) {
+			Iterator<SimpleFeature> it = s.iterator();
+			if (it.hasNext()) ret.add( it.next().getFeatureType() );
+		}
+		return ret;
+	}
+	/** Get a list of FeatureType Names from the features currently loaded into this collection.
+	 *
+	 * @param sort	Sort the list by Name. This is a bit slower, so don't use it if not required
+	 *
+	 * @return	FeatureType Names
+	 */
+	public List<Name> getNames(boolean sort) {
+		List<Name> ret = new ArrayList<Name>();
+		for (Entry<Name, Set<SimpleFeature>> e : typeNameIndex.entrySet()) {
+			if (!e.getValue().isEmpty()) ret.add(e.getKey());
+		}
+
+		if (sort) {
+			Collections.sort(ret, new Comparator<Name>() {
+				@Override
+				public int compare(Name n1, Name n2) {
+					return n1.getLocalPart().compareTo(n2.getLocalPart());
+				}
+			});
+		}
+		return ret;
+	}
+	/** Get all features associated with an OSM tile reference.
+	 *
+	 * @param tileIdx The tile reference as zoom, XRef, YRef
+	 * @return A live, thread-safe Set, or <code>Null</code> if there are no features
+	 * for the tile
+	 */
+	public Set<SimpleFeature> getFeaturesForTile(OSMTile tileIdx) {
+		return tileIndex.get( tileIdx.getKey() );
+	}
+	/** Get all features associated with a specific zoom level.
+	 *
+	 * @param zoomLevel The level (generally 0-18)
+	 * @return A new Set of the features
+	 */
+	public Set<SimpleFeature> getFeaturesForZoom(int zoomLevel) {
+		Set<SimpleFeature> ret = new HashSet<SimpleFeature>();
+		for (Entry<Long, Set<SimpleFeature>> val : tileIndex.entrySet()) {
+			if (OSMTile.keyZoom(val.getKey())==zoomLevel) ret.addAll( val.getValue() );
+		}
+		return ret;
+	}
+	/** Get an immutable copy of the features currently in the collection. The copy
+	 * is shared between callers until the collection next changes. Use {@link #iterator()}
+	 * to just walk the features, as this copies the whole collection after every change.
+	 *
+	 * @return
+	 */
+	public List<SimpleFeature> snapshot() {
+		long v = version.get();
+		Cached<List<SimpleFeature>> s = snapshot;
+		if (s!=null && s.version==v) return s.value;
+
+		List<SimpleFeature> features = Collections.unmodifiableList( new ArrayList<SimpleFeature>(idIndex.values()) );
+		// Only keep it if nothing changed while it was being copied
+		if (version.get()==v) snapshot = new Cached<List<SimpleFeature>>(v, features);
+		return features;
+	}
+	/** Get the bounding envelope for all features within this collection.<p>
+	 * Its assumed that all features in the collection have the same CoordinateReferenceSystem,
+	 * therefore the BoundingBox has its SRSID set to the first feature's SRSID. Features
+	 * without a geometry are skipped.
+	 *
+	 * @return The bounds, or <code>Null</code> if no feature in the collection has a geometry
+	 */
+	public BoundingBox getBounds() {
+		long v = version.get();
+		Cached<BoundingBox> b = bounds;
+		if (b!=null && b.version==v) return b.value;
+
+		BoundingBoxImpl re = null;
+		for (SimpleFeature f : idIndex.values()) {
+			Envelope env = FeatureCollection.getEnvelope(f);
+			if (env==null) continue;
+			if (re==null) {
+				Object geom = f.getDefaultGeometry();
+				int srsID = geom instanceof Geometry ? ((Geometry) geom).getSRID() : 0;
+				re = new BoundingBoxImpl(""+srsID);
+			}
+			re.expandToInclude(env);
+		}
+		if (re==null) return null;
+
+		if (version.get()==v) bounds = new Cached<BoundingBox>(v, re);
+		return re;
+	}
+
+	//---------------- Collection methods -----------------------//
+
+	/** Add a feature, unless a feature with the same ID is already in the collection
+	 *
+	 * @return True if the feature was added
+	 * @throws IllegalArgumentException If the feature has no ID
+	 */
+	@Override
+	public boolean add(SimpleFeature feature) {
+		String id = feature.getID();
+		if (id==null) throw new IllegalArgumentException("Feature has no ID");
+
+		Envelope env = FeatureCollection.getEnvelope(feature);
+		SpatialStripe stripe = env==null ? unindexed : chooseStripe(id, env);
+
+		stripe.lock.writeLock().lock();
+		try {
+			// Claim the ID first, so a remove waits on this stripe until we're done
+			if (stripeIndex.putIfAbsent(id, stripe)!=null) return false;
+			idIndex.put(id, feature);
+
+			// Type name index
+			getOrCreate(typeNameIndex, feature.getType().getName()).add(feature);
+
+			// Tile Index
+			long tileKey = FeatureCollection.getTileKey(feature);
+			if (tileKey!=OSMTile.INVALID_KEY) {
+				getOrCreate(tileIndex, tileKey).add(feature);
+			}
+
+			// Spatial index
+			if (env!=null) stripe.insert(feature, env);
+
+			version.incrementAndGet();
+		} finally {
+			stripe.lock.writeLock().unlock();
+		}
+		return true;
+	}
+	@Override
+	public boolean addAll(Collection<? extends SimpleFeature> collection) {
+		boolean ret = false;
+		for (SimpleFeature f : collection) {
+			ret |= add(f);
+		}
+		return ret;
+	}
+	/** Remove a feature, either by the feature or its ID
+	 *
+	 */
+	@Override
+	public boolean remove(Object object) {
+		SimpleFeature f = null;
+		if (object instanceof String) {
+			f = idIndex.get(object);
+		} else if (object instanceof SimpleFeature) {
+			f = (SimpleFeature) object;
+		}
+		if (f==null || f.getID()==null) return false;
+
+		String id = f.getID();
+		SpatialStripe stripe = stripeIndex.get(id);
+		if (stripe==null) return false;
+
+		stripe.lock.writeLock().lock();
+		try {
+			if (stripeIndex.get(id)!=stripe || !idIndex.remove(id, f)) return false;
+			stripeIndex.remove(id);
+
+			// Empty sets are left in place, as another thread may be adding to them
+			Set<SimpleFeature> prev = typeNameIndex.get( f.getType().getName() );
+			if (prev!=null) prev.remove(f);
+
+			long tileKey = FeatureCollection.getTileKey(f);
+			if (tileKey!=OSMTile.INVALID_KEY) {
+				prev = tileIndex.get(tileKey);
+				if (prev!=null) prev.remove(f);
+			}
+
+			stripe.remove(f);
+
+			version.incrementAndGet();
+		} finally {
+			stripe.lock.writeLock().unlock();
+		}
+		return true;
+	}
+	@Override
+	public boolean contains(Object object) {
+		if (object instanceof String) return idIndex.containsKey(object);
+		if (object instanceof SimpleFeature) {
+			String id = ((SimpleFeature) object).getID();
+			return id!=null && idIndex.get(id)==object;
+		}
+		return false;
+	}
+	/** Iterates over the live ID index without copying it, so never throws a
+	 * ConcurrentModificationException. Removing through the iterator removes the
+	 * feature from the collection.
+	 *
+	 */
+	@Override
+	public Iterator<SimpleFeature> iterator() {
+		final Iterator<SimpleFeature> it = idIndex.values().iterator();
+		return new Iterator<SimpleFeature>() {
+			private SimpleFeature current = null;
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+			@Override
+			public SimpleFeature next() {
+				current = it.next();
+				return current;
+			}
+			@Override
+			public void remove() {
+				if (current==null) throw new IllegalStateException();
+				ConcurrentFeatureCollection.this.remove(current);
+				current = null;
+			}
+		};
+	}
+	@Override
+	public int size() {
+		return idIndex.size();
+	}
+	@Override
+	public boolean isEmpty() {
+		return idIndex.isEmpty();
+	}
+	/** Remove all features. Features being added by other threads at the
+	 * same time may remain.
+	 */
+	@Override
+	public void clear() {
+		for (SimpleFeature f : new ArrayList<SimpleFeature>(idIndex.values())) {
+			remove(f);
+		}
+	}
+
+	//---------------- Helpers -----------------------//
+
+	/** Get the set for a key, creating it if required
+	 *
+	 * @param map
+	 * @param key
+	 * @return
+	 */
+	private static <K> Set<SimpleFeature> getOrCreate(ConcurrentMap<K, Set<SimpleFeature>> map, K key) {
+		Set<SimpleFeature> set = map.get(key);
+		if (set==null) {
+			set = Collections.newSetFromMap( new ConcurrentHashMap<SimpleFeature, Boolean>() );
+			Set<SimpleFeature> prev = map.putIfAbsent(key, set);
+			if (prev!=null) set = prev;
+		}
+		return set;
+	}
+	/** Choose the spatial index stripe for a feature: the one whose extent grows least
+	 * (by half its perimeter) to take in the feature, then the smallest. Empty stripes are
+	 * taken first, so features spread out over the stripes before the stripes grow. The 
+	 * search starts from a stripe picked by the ID so loaders adding to the same area don't
+	 * all pick the first of several equal stripes.
+	 *
+	 * @param id The feature ID
+	 * @param env The feature's envelope
+	 * @return
+	 */
+	private SpatialStripe chooseStripe(String id, Envelope env) {
+		int h = id.hashCode();
+		h ^= (h >>> 16);
+		int mask = stripes.length-1;
+
+		SpatialStripe best = null;
+		double bestGrowth = 0, bestSize = 0;
+		for (int i=0; i<stripes.length; i++) {
+			SpatialStripe s = stripes[(h+i) & mask];
+			Envelope ext = s.extent;
+			double size = ext==null ? 0 : ext.getWidth() + ext.getHeight();
+			double growth;
+			if (ext==null) {
+				growth = env.getWidth() + env.getHeight();
+			} else {
+				growth = Math.max(ext.getMaxX(), env.getMaxX()) - Math.min(ext.getMinX(), env.getMinX())
+						+ Math.max(ext.getMaxY(), env.getMaxY()) - Math.min(ext.getMinY(), env.getMinY())
+						- size;
+			}
+			if (best==null || growth<bestGrowth || (growth==bestGrowth && size<bestSize)) {
+				best = s;
+				bestGrowth = growth;
+				bestSize = size;
+			}
+		}
+		return best;
+	}
+	/** A value worked out from the collection at a version */
+	private static class Cached<T> {
+		final long version;
+		final T value;
+
+		Cached(long version, T value) {
+			this.version = version;
+			this.value = value;
+		}
+	}
+
+	/** One part of the spatial index, with its own lock. The caller must hold
+	 * the write lock to insert or remove. */
+	private static class SpatialStripe {
+		final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private final Quadtree tree = new Quadtree();
+		/** The envelope each feature was indexed with */
+		private final Map<SimpleFeature, Envelope> envelopes = new IdentityHashMap<SimpleFeature, Envelope>();
+		/** Covers every feature ever inserted. It is replaced rather than changed,
+		 * and doesn't shrink when features are removed */
+		volatile Envelope extent = null;
+
+		void insert(SimpleFeature feature, Envelope env) {
+			envelopes.put(feature, env);
+			tree.insert(env, feature);
+
+			Envelope ext = extent;
+			if (ext==null || !ext.contains(env)) {
+				ext = ext==null ? new Envelope(env) : new Envelope(ext);
+				ext.expandToInclude(env);
+				extent = ext;
+			}
+		}
+
+		void remove(SimpleFeature feature) {
+			Envelope env = envelopes.remove(feature);
+			if (env!=null) tree.remove(env, feature);
+		}
+
+		void query(Envelope search, List<SimpleFeature> results) {
+			lock.readLock().lock();
+			try {
+				for (Object o : tree.query(search)) {
+					Envelope env = envelopes.get(o);
+					if (env!=null && search.intersects(env)) results.add( (SimpleFeature) o );
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+}
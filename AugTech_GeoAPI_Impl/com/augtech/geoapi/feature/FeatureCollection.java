@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -37,12 +38,17 @@ import com.augtech.geoapi.feature.type.AttributeTypeImpl;
 import com.augtech.geoapi.feature.type.SimpleFeatureTypeImpl;
 import com.augtech.geoapi.geometry.BoundingBoxImpl;
 import com.augtech.geoapi.geometry.OSMTile;
+import com.augtech.geoapi.utils.LongHashMap;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
 
 /** The base collection for storing all of awila's geographically
  * based features. Uses a {@link CopyOnWriteArrayList} to ensure their is no
  * clash with the rendering engined when items are added or removed from the collection.<p>
- * Use {@link #addAll(Collection)} to maintain speed where possible.
+ * Use {@link #addAll(Collection)} to maintain speed where possible.<p>
+ * This collection is not thread-safe; use {@link ConcurrentFeatureCollection} when
+ * features are added on one thread while being queried on another.
  * 
  * @author Augmented Technologies Ltd
  *
@@ -54,7 +60,13 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 	protected Map<Name, Set<SimpleFeature>> typeNameIndex = new HashMap<Name, Set<SimpleFeature>>();
 	protected Map<String, SimpleFeature> idIndex = new HashMap<String, SimpleFeature>();
 	protected BoundingBox bounds;
-	private Map<OSMTile, Set<SimpleFeature>> tileIndex = new HashMap<OSMTile, Set<SimpleFeature>>();
+	/** Tile features by their packed tile key */
+	private final LongHashMap<Set<SimpleFeature>> tileIndex = new LongHashMap<Set<SimpleFeature>>();
+	/** Features by the envelope of their default geometry */
+	private Quadtree spatialIndex = new Quadtree();
+	/** The envelope each feature was indexed with, so it can be removed again
+	 * even if its geometry has since changed */
+	private Map<SimpleFeature, Envelope> indexedEnvelopes = new IdentityHashMap<SimpleFeature, Envelope>();
 	
 	
 	/** Create a new feature collection, with the specified types available to
@@ -87,22 +99,23 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 	}
 
     /** Get all the features in this collection that intersect or are contained
-     * by the passed {@link BoundingBox}.
+     * by the passed {@link BoundingBox}. The spatial index is used, so only features
+     * near the extent are tested.<p>
+     * Features without a geometry are never returned.
      * 
      * @param extent The bounding box to test against. This must be in the same
      * CRS as the features in order to return the correct features.
      * @return A new ArrayList<SimpleFeature> containing the relevant features
      */
     public ArrayList<SimpleFeature> getFeatures(BoundingBox extent) {
+    	Envelope search = new Envelope(extent.getMinX(), extent.getMaxX(), extent.getMinY(), extent.getMaxY());
     	ArrayList<SimpleFeature> tmp = new ArrayList<SimpleFeature>();
     	
-    	Iterator<SimpleFeature> iterator = iterator();
-    	while (iterator.hasNext()) {
-    		SimpleFeature f = iterator.next();
-    		if (extent.contains( f.getBounds() ) || 
-    			extent.intersects( f.getBounds() )) {
-    			tmp.add(f);
-    		}
+    	// The quadtree returns candidates from every node touching the extent
+    	for (Object o : spatialIndex.query(search)) {
+    		SimpleFeature f = (SimpleFeature) o;
+    		Envelope env = indexedEnvelopes.get(f);
+    		if (env!=null && search.intersects(env)) tmp.add(f);
     	}
     	return tmp;
     }
@@ -233,7 +246,11 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 			
 			newValues.trimToSize();
 			newFeature.setAttributes(newValues);
-			((SimpleFeatureImpl)newFeature).setType(definedType);
+			if (newFeature instanceof CompactSimpleFeature) {
+				((CompactSimpleFeature)newFeature).setType(definedType);
+			} else {
+				((SimpleFeatureImpl)newFeature).setType(definedType);
+			}
 			tmpColl.add( newFeature );
 			
 			featsMerged.add( newFeature.getID() );
@@ -269,13 +286,16 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 		typeNameIndex.put(type, prev);
 		
 		// Tile Index
-		// Image features are separated by - and last parts are xref-yref-zoom
-		if (feature.getID().matches(".*-[0-9]+-[0-9]+-[0-9]+")) {
-			OSMTile tile = new OSMTile(feature.getID());
-			prev = tileIndex.get( tile );
-			if (prev==null) prev = new HashSet<SimpleFeature>();
-			prev.add(feature);
-			tileIndex.put(tile, prev);
+		long tileKey = getTileKey(feature);
+		if (tileKey!=OSMTile.INVALID_KEY) {
+			synchronized (tileIndex) {
+				prev = tileIndex.get( tileKey );
+				if (prev==null) {
+					prev = new HashSet<SimpleFeature>();
+					tileIndex.put(tileKey, prev);
+				}
+				prev.add(feature);
+			}
 			
 		} else {
 			/* TODO Something for features..?
@@ -283,6 +303,59 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 			 * This would then also work for removal...	 */
 		}
 		
+		// Spatial index
+		Envelope env = getEnvelope(feature);
+		if (env!=null) {
+			Envelope old = indexedEnvelopes.put(feature, env);
+			if (old!=null) spatialIndex.remove(old, feature);
+			spatialIndex.insert(env, feature);
+		}
+	}
+	/** Get the envelope of a feature's default geometry without creating
+	 * a BoundingBox for it. Also used by {@link ConcurrentFeatureCollection}
+	 * 
+	 * @param feature
+	 * @return The envelope, or <code>Null</code> if the feature has no geometry
+	 */
+	static Envelope getEnvelope(SimpleFeature feature) {
+		Envelope env = null;
+		if (feature instanceof SimpleFeatureImpl) {
+			// Allows GeoPackage features to use their header without decoding
+			env = ((SimpleFeatureImpl) feature).getEnvelope();
+			return env==null || env.isNull() ? null : env;
+		} else if (feature instanceof CompactSimpleFeature) {
+			env = ((CompactSimpleFeature) feature).getEnvelope();
+			return env.isNull() ? null : env;
+		}
+		
+		Object geom = feature.getDefaultGeometry();
+		if (geom instanceof Geometry) {
+			env = ((Geometry) geom).getEnvelopeInternal();
+		} else if (geom instanceof Envelope) {
+			env = (Envelope) geom;
+		} else if (geom instanceof BoundingBox) {
+			BoundingBox bb = (BoundingBox) geom;
+			env = new Envelope(bb.getMinX(), bb.getMaxX(), bb.getMinY(), bb.getMaxY());
+		}
+		return env==null || env.isNull() ? null : env;
+	}
+	/** Get the packed tile key for a feature. This is read from the feature's user data
+	 * ({@link OSMTile#USER_DATA_KEY}) if set, otherwise from the end of the feature ID.
+	 * Image features are separated by - and last parts are xref-yref-zoom
+	 * 
+	 * @param feature
+	 * @return The key, or {@link OSMTile#INVALID_KEY} if the feature is not a tile
+	 */
+	static long getTileKey(SimpleFeature feature) {
+		Object key = null;
+		if (feature instanceof CompactSimpleFeature) {
+			// Don't create the user data just to look in it
+			key = ((CompactSimpleFeature) feature).getUserData(OSMTile.USER_DATA_KEY);
+		} else if (feature.getUserData()!=null) {
+			key = feature.getUserData().get(OSMTile.USER_DATA_KEY);
+		}
+		if (key instanceof Long) return ((Long) key).longValue();
+		return OSMTile.parseKey( feature.getID() );
 	}
 	/** Get all features associated with an OSM tile reference.
 	 * 
@@ -290,8 +363,16 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 	 * @return
 	 */
 	public Set<SimpleFeature> getFeaturesForTile(OSMTile tileIdx) {
+		return getFeaturesForTile( tileIdx.getKey() );
+	}
+	/** Get all features associated with a packed tile key.
+	 * 
+	 * @param tileKey The key from {@link OSMTile#toKey(int, int, int)}
+	 * @return
+	 */
+	public Set<SimpleFeature> getFeaturesForTile(long tileKey) {
 		synchronized (tileIndex) {
-			return tileIndex.get( tileIdx );
+			return tileIndex.get( tileKey );
 		}
 	}
 	/** Get all features associated with a specific zoom level.
@@ -304,8 +385,8 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 	public Set<SimpleFeature> getFeaturesForZoom(int zoomLevel) {
 		Set<SimpleFeature> ret = new HashSet<SimpleFeature>();
 		synchronized (tileIndex) {
-			for (Entry<OSMTile, Set<SimpleFeature>>  val : tileIndex.entrySet()) {
-				if (val.getKey().getZoom()==zoomLevel) ret.addAll( val.getValue() );
+			for (long key : tileIndex.keys()) {
+				if (OSMTile.keyZoom(key)==zoomLevel) ret.addAll( tileIndex.get(key) );
 			}
 		}
 		return ret;
@@ -332,19 +413,21 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 		}
 		
 		// Tile Index
-		if (feature.getID().matches(".*-[0-9]+-[0-9]+-[0-9]+")) {
-			OSMTile tile = new OSMTile(feature.getID());
-			prev = tileIndex.get( tile );
-			if ( prev.remove( feature ) ) {
-				if (prev.size()>0) {
-					tileIndex.put(tile, prev);
-				} else {
-					tileIndex.remove(type);
+		long tileKey = getTileKey(feature);
+		if (tileKey!=OSMTile.INVALID_KEY) {
+			synchronized (tileIndex) {
+				prev = tileIndex.get( tileKey );
+				if (prev!=null && prev.remove( feature ) && prev.size()==0) {
+					tileIndex.remove(tileKey);
 				}
 			}
 		} else {
 			// Whatever for features
 		}
+		
+		// Spatial index
+		Envelope env = indexedEnvelopes.remove(feature);
+		if (env!=null) spatialIndex.remove(env, feature);
 	}
 
 
@@ -399,6 +482,7 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 	}
 	@Override
 	public SimpleFeature set(int index, SimpleFeature feature) {
+		removeFromIndex( get(index) );
 		addToIndex(feature);
 		return super.set(index, feature);
 	}
@@ -444,7 +528,11 @@ public class FeatureCollection extends ArrayList<SimpleFeature> {
 		super.clear();
 		idIndex = new HashMap<String, SimpleFeature>();
 		typeNameIndex = new HashMap<Name, Set<SimpleFeature>>();
-		tileIndex = new HashMap<OSMTile, Set<SimpleFeature>>();
+		synchronized (tileIndex) {
+			tileIndex.clear();
+		}
+		spatialIndex = new Quadtree();
+		indexedEnvelopes = new IdentityHashMap<SimpleFeature, Envelope>();
 	}
 
 }
\ No newline at end of file
@@ -130,7 +130,6 @@ public abstract class FeatureLoader extends ArrayList<SimpleFeature> {
 		try {
 			featuresInserted += geoPackage.insertFeatures( this );
 			this.clear();
-			System.gc();
 			featCounter = 0;
 			
 		} catch (Exception e) {
@@ -155,7 +154,6 @@ public abstract class FeatureLoader extends ArrayList<SimpleFeature> {
 		try {
 			featuresInserted += geoPackage.insertFeatures( this );
 			this.clear();
-			System.gc();
 			featCounter = 0;
 			
 		} catch (Exception e) {
@@ -90,7 +90,7 @@ public class SimpleFeatureImpl implements SimpleFeature {
 	 * 
 	 * @return An implementation of {@link BoundingBox}
 	 */
-	public final BoundingBox getBounds() {
+	public BoundingBox getBounds() {
 		if (bounds!=null) return bounds;
 		
 		Name geomName = featureType.getGeometryDescriptor().getName();
@@ -124,6 +124,16 @@ public class SimpleFeatureImpl implements SimpleFeature {
 		
 		return this.bounds;
 	}
+	/** Get the envelope of this feature's geometry, without creating
+	 * a BoundingBox for it
+	 * 
+	 * @return The Geometry's internal envelope, or <code>Null</code> if
+	 * there is no geometry
+	 */
+	public Envelope getEnvelope() {
+		Geometry g = getDefaultGeometry();
+		return g==null ? null : g.getEnvelopeInternal();
+	}
 	/** Get the feature's ID as a {@link NameImpl}
 	 * 
 	 */
@@ -154,7 +164,7 @@ public class SimpleFeatureImpl implements SimpleFeature {
 	public Object getAttribute(String name) {
 		if (name==null) return null;
 		int idx = featureType.indexOf(name);
-		if (attrValues!=null && idx>-1) {
+		if (attrValues!=null && idx>-1 && idx<attrValues.size()) {
 			return attrValues.get( idx );
 		} else {
 			return null;
@@ -169,17 +179,20 @@ public class SimpleFeatureImpl implements SimpleFeature {
 	public final Object getAttribute(Name name) {
 		if (name==null || attrValues==null) return null;
 		int idx = featureType.indexOf(name);
-		if (idx>-1) {
+		if (idx>-1 && idx<attrValues.size()) {
 			return attrValues.get( idx );
 		} else {
 			return null;
 		}
 	}
-	/** Get an attribute value based on its index in the value list
+	/** Get an attribute value based on its index in the value list.<p>
+	 * The feature's type may have been widened after this feature was built, so
+	 * an index past the end of the value list returns Null.
 	 * 
 	 */
 	@Override
 	public final Object getAttribute(int idx) throws IndexOutOfBoundsException {
+		if (attrValues==null || idx>=attrValues.size()) return null;
 		return attrValues.get( idx );
 	}
 	/** Get the count of attribute values on this feature. This may not
@@ -210,7 +223,7 @@ public class SimpleFeatureImpl implements SimpleFeature {
 	 * @see {@link GeometryFactory} to build the geometry
 	 */
 	@Override
-	public final void setDefaultGeometry(Object geom) {
+	public void setDefaultGeometry(Object geom) {
 		defaultGeom = (Geometry)geom;
 		// 26/03/15 - Switch to static geom attribute
 //		int idx = featureType.indexOf( featureType.getGeometryDescriptor().getName() );
@@ -230,7 +243,7 @@ public class SimpleFeatureImpl implements SimpleFeature {
 //		}
 	}
 	@Override
-	public final Geometry getDefaultGeometry() {
+	public Geometry getDefaultGeometry() {
 		// 26/03/15 - Switch to static geom attribute
 		return defaultGeom;
 		
@@ -363,8 +376,7 @@ public class SimpleFeatureImpl implements SimpleFeature {
 	public final int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result
-				+ ((attrValues == null) ? 0 : attrValues.hashCode());
+		// Attribute values can change, so are not part of the hash
 		result = prime * result
 				+ ((featureID == null) ? 0 : featureID.hashCode());
 		result = prime * result
@@ -17,6 +17,7 @@ package com.augtech.geoapi.feature.type;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -107,11 +108,13 @@ import com.vividsolutions.jts.geom.Geometry;
  */
 public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 
-	private List<AttributeType> attributeTypes;
+	private volatile List<AttributeType> attributeTypes;
 	private int id;
 	private Name name;
 	protected Map<Object, Object> userdata = new HashMap<Object, Object>();
 	private GeometryDescriptor defaultGeometry;
+	/** Lookup of attribute indexes by name, replaced whenever the attribute list changes */
+	private volatile AttributeIndex attributeIndex = null;
 	
 	/** A specific value stored in this type's 'user-data' */
 	public enum USER_DATA {
@@ -195,6 +198,7 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 		} else {
 			this.attributeTypes = attributeTypes;
 		}
+		this.attributeIndex = new AttributeIndex(this.attributeTypes);
 
 		
 
@@ -236,12 +240,7 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 	@Override
 	public GeometryDescriptor getGeometryDescriptor() {
 	    if (defaultGeometry == null) {
-            for (AttributeType at : attributeTypes) {
-                if (at instanceof GeometryDescriptor ) {
-                    defaultGeometry = (GeometryDescriptor) at; 
-                    break;
-                }
-            }
+            defaultGeometry = getIndex().geometry;
         }
         return defaultGeometry;
 	}
@@ -331,26 +330,98 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 	 * @param overwrite If False then the existing set of values is preserved,
 	 * otherwise they are replaced with the new set
 	 */
-	public void addAttributeTypes(List<AttributeType> newTypes, boolean overwrite) {
+	public synchronized void addAttributeTypes(List<AttributeType> newTypes, boolean overwrite) {
 		if (newTypes==null) return;
 
 		// If our list is blank, copy them all
 		if (attributeTypes==null || overwrite==true) {
-			attributeTypes = newTypes;
+			setAttributeTypes(newTypes);
 			return;
 		} else if (attributeTypes.size()==0) {
-			attributeTypes = newTypes;
+			setAttributeTypes(newTypes);
 			return;
 		}
 		
-		// Add only the new values
+		// Add only the new values, to a copy so readers never see a part built list
+		AttributeIndex current = getIndex();
+		List<AttributeType> widened = null;
 		for (AttributeType nt : newTypes) {
-			if ( getType(nt.getName().getLocalPart())==null ) {
-				attributeTypes.add(nt);
+			String local = nt.getName().getLocalPart();
+			if ( current.byLocalName.containsKey(local) ) continue;
+			if (widened==null) {
+				widened = new ArrayList<AttributeType>(attributeTypes.size() + newTypes.size());
+				widened.addAll(attributeTypes);
+			} else if (findLocalName(widened, local, current.size) > -1) {
+				continue;
 			}
+			widened.add(nt);
 		}
+		if (widened!=null) setAttributeTypes(widened);
 		
 	}
+	/** Replace one attribute type, for example to widen its binding, keeping
+	 * its position in the type.
+	 * 
+	 * @param idx The index of the attribute to replace
+	 * @param type The new AttributeType
+	 * @throws IndexOutOfBoundsException If there is no attribute at idx
+	 */
+	public synchronized void setAttributeType(int idx, AttributeType type) {
+		List<AttributeType> replaced = new ArrayList<AttributeType>(attributeTypes);
+		replaced.set(idx, type);
+		setAttributeTypes(replaced);
+	}
+	/** Replace the attribute list and its name index together
+	 * 
+	 * @param types
+	 */
+	private synchronized void setAttributeTypes(List<AttributeType> types) {
+		AttributeIndex idx = new AttributeIndex(types);
+		attributeTypes = types;
+		attributeIndex = idx;
+	}
+	/** Find a local name in the part of a list after the indexed attributes
+	 * 
+	 * @param types
+	 * @param localName
+	 * @param from
+	 * @return
+	 */
+	private static int findLocalName(List<AttributeType> types, String localName, int from) {
+		for (int i=from; i<types.size(); i++) {
+			if (types.get(i).getName().getLocalPart().equals(localName)) return i;
+		}
+		return -1;
+	}
+	/** Get the name index for the current attribute list, building it if the
+	 * list has been replaced or changed in size since it was built.
+	 * 
+	 * @return
+	 */
+	private AttributeIndex getIndex() {
+		AttributeIndex idx = attributeIndex;
+		if (isCurrent(idx, attributeTypes)) return idx;
+
+		// Rebuild under the same lock as the list is replaced, so a stale index can't win
+		synchronized (this) {
+			idx = attributeIndex;
+			List<AttributeType> types = attributeTypes;
+			if (!isCurrent(idx, types)) {
+				idx = new AttributeIndex(types);
+				attributeIndex = idx;
+			}
+			return idx;
+		}
+	}
+	/** Is an index built from, and the same size as, the attribute list?
+	 * 
+	 * @param idx
+	 * @param types
+	 * @return
+	 */
+	private static boolean isCurrent(AttributeIndex idx, List<AttributeType> types) {
+		return idx!=null && idx.types==types && (types==null || idx.size==types.size());
+	}
 
 	/** Add a specific user data setting
 	 * 
@@ -377,20 +448,16 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 	 */
 	@Override
 	public AttributeType getType(String name) {
-		if (attributeTypes==null) return null;
-		for (AttributeType at : this.attributeTypes) {
-			if (at.getName().getLocalPart().equals(name)) return at;
-		}
-		return null;
+		AttributeIndex idx = getIndex();
+		Integer i = idx.byLocalName.get(name);
+		return i==null ? null : idx.types.get(i.intValue());
 	}
 
 	@Override
 	public AttributeType getType(Name name) {
-		if (this.attributeTypes==null) return null;
-		for (AttributeType at : this.attributeTypes) {
-			if (at.getName().equals(name)) return at;
-		}
-		return null;
+		AttributeIndex idx = getIndex();
+		Integer i = idx.byName.get(name);
+		return i==null ? null : idx.types.get(i.intValue());
 	}
 	/** Get a specific AttributeType
 	 * 
@@ -419,14 +486,8 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 	 */
 	@Override
 	public int indexOf(String name) {
-		if (attributeTypes==null) return -1;
-		try {
-			for (int i=0;i<attributeTypes.size(); i++) {
-				if (attributeTypes.get(i).getName().getLocalPart().equals(name))
-					return i;
-			}
-		} catch (Exception e) {}
-		return -1;
+		Integer i = getIndex().byLocalName.get(name);
+		return i==null ? -1 : i.intValue();
 	}
 
 	/** Get the index of an AttributeType based on its name
@@ -435,18 +496,13 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 	 */
 	@Override
 	public int indexOf(Name name) {
-		if (attributeTypes==null) return -1;
-		int idx = -1;
-		for (int i=0;i<attributeTypes.size(); i++) {
-			if (attributeTypes.get(i).getName().equals(name)) idx = i;
-		}
+		if (name==null) return -1;
+		AttributeIndex idx = getIndex();
+		Integer i = idx.byName.get(name);
 		
 		// Second attempt to match on local part only
-		if (idx==-1) {
-			return indexOf(name.getLocalPart());
-		} else {
-			return idx;
-		}
+		if (i==null) i = idx.byLocalName.get(name.getLocalPart());
+		return i==null ? -1 : i.intValue();
 	}
 
 	@Override
@@ -458,8 +514,7 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result
-				+ ((attributeTypes == null) ? 0 : attributeTypes.hashCode());
+		// Attribute types can be added or widened, so are not part of the hash
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		return result;
 	}
@@ -564,6 +619,38 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 			return 0;
 		}
 	}
+	/** An immutable lookup of attribute indexes by local and qualified name for
+	 * one attribute list. Where names are repeated the first attribute is used.
+	 */
+	private static class AttributeIndex {
+		final List<AttributeType> types;
+		final int size;
+		final Map<String, Integer> byLocalName;
+		final Map<Name, Integer> byName;
+		final GeometryDescriptor geometry;
+		
+		AttributeIndex(List<AttributeType> types) {
+			this.types = types;
+			this.size = types==null ? 0 : types.size();
+			Map<String, Integer> local = new HashMap<String, Integer>(size * 2);
+			Map<Name, Integer> qualified = new HashMap<Name, Integer>(size * 2);
+			GeometryDescriptor geom = null;
+			
+			for (int i=0; i<size; i++) {
+				AttributeType at = types.get(i);
+				Integer idx = Integer.valueOf(i);
+				Name n = at.getName();
+				if (n!=null) {
+					if (!qualified.containsKey(n)) qualified.put(n, idx);
+					if (!local.containsKey(n.getLocalPart())) local.put(n.getLocalPart(), idx);
+				}
+				if (geom==null && at instanceof GeometryDescriptor) geom = (GeometryDescriptor) at;
+			}
+			this.byLocalName = Collections.unmodifiableMap(local);
+			this.byName = Collections.unmodifiableMap(qualified);
+			this.geometry = geom;
+		}
+	}
 	//--------- GeoAPI unimplemented functions ------------- 
 	
 
@@ -584,9 +671,9 @@ public class SimpleFeatureTypeImpl implements SimpleFeatureType {
 	/** Not implemented.*/
 	@Override
 	public AttributeType getSuper() {return null;}
-	/** Not implemented. Use attributes */
+	/** No restrictions are defined on feature types, so this is always empty */
 	@Override
-	public List<Filter> getRestrictions() {return null;}
+	public List<Filter> getRestrictions() {return Collections.emptyList();}
 	/** Not implemented. */
 	@Override
 	public List<AttributeDescriptor> getAttributeDescriptors() {return null;}
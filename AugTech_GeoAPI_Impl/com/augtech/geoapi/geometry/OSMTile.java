@@ -25,6 +25,21 @@ public class OSMTile {
 	private static final double WGS84_CONV = 20037508.34;
 	private static final double OSMOriginShift = 2 * Math.PI * WGS84_EQUATOR / 2.0;
 	
+	/** Returned by {@link #parseKey(CharSequence)} when a String is not a valid tile reference */
+	public static final long INVALID_KEY = -1;
+	/** The key in a feature's user data that holds its packed tile key (as a Long),
+	 * for features that represent a tile */
+	public static final String USER_DATA_KEY = "osmTileKey";
+	/** The highest zoom level that can be held in a packed key */
+	public static final int MAX_KEY_ZOOM = 29;
+	private static final int KEY_BITS = 29;
+	private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+	/** The maximum latitude covered by the EPSG:3857 tile matrix */
+	public static final double MAX_LATITUDE = 85.0511287798066;
+	/** The most tiles returned by {@link #getOSMTileKeysForArea(BoundingBox, int)} or
+	 * {@link #getOSMTilesForArea(BoundingBox, int)} */
+	public static final int MAX_AREA_TILES = 1 << 24;
+	
 	int xRef;
 	int yRef;
 	int zoom;
@@ -46,12 +61,107 @@ public class OSMTile {
 	 * @param tileKey [xRef-yRef-zoom]
 	 */
 	public OSMTile(String tileKey) {
-		if (!tileKey.matches(".*[0-9]+-[0-9]+-[0-9]+")) return;
+		long key = parseKey(tileKey);
+		if (key==INVALID_KEY) return;
 		
-		String[] id = tileKey.split("-");
-		xRef = Integer.valueOf(id[id.length-3]);
-		yRef = Integer.valueOf(id[id.length-2]);
-		zoom = Integer.valueOf(id[id.length-1]);
+		xRef = keyX(key);
+		yRef = keyY(key);
+		zoom = keyZoom(key);
+	}
+	/** Get this tile as a packed key
+	 * 
+	 * @return
+	 * @see #toKey(int, int, int)
+	 */
+	public long getKey() {
+		return toKey(xRef, yRef, zoom);
+	}
+	/** Create a new OSMTile from a packed key
+	 * 
+	 * @param key A key created by {@link #toKey(int, int, int)}
+	 * @return
+	 */
+	public static OSMTile fromKey(long key) {
+		return new OSMTile(keyX(key), keyY(key), keyZoom(key));
+	}
+	/** Pack a tile reference in to a single long. The zoom is held in the top
+	 * 5 bits, followed by 29 bits each for x and y, therefore zoom levels up to 29
+	 * are supported. Keys sort by zoom, then x, then y.
+	 * 
+	 * @param xRef
+	 * @param yRef
+	 * @param zoom
+	 * @return The packed key
+	 */
+	public static long toKey(int xRef, int yRef, int zoom) {
+		return ((long)zoom << (KEY_BITS*2)) | ((long)xRef << KEY_BITS) | yRef;
+	}
+	/** Get the x reference from a packed key
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int keyX(long key) {
+		return (int) ((key >>> KEY_BITS) & KEY_MASK);
+	}
+	/** Get the y reference from a packed key
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int keyY(long key) {
+		return (int) (key & KEY_MASK);
+	}
+	/** Get the zoom level from a packed key
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int keyZoom(long key) {
+		return (int) (key >>> (KEY_BITS*2));
+	}
+	/** Parse a tile key of the form [anything-]xRef-yRef-zoom in to a packed key
+	 * without creating any intermediate objects. Only the last three parts of the
+	 * String are used.
+	 * 
+	 * @param tileKey
+	 * @return The packed key or {@link #INVALID_KEY} if the String does not end 
+	 * with a valid tile reference
+	 */
+	public static long parseKey(CharSequence tileKey) {
+		if (tileKey==null) return INVALID_KEY;
+		
+		int x = 0, y = 0, z = 0;
+		int pos = tileKey.length()-1;
+		
+		// Read back from the end; zoom, then y, then x
+		for (int part=2; part>=0; part--) {
+			int value = 0, mult = 1, digits = 0;
+			while (pos >= 0) {
+				char c = tileKey.charAt(pos);
+				if (c < '0' || c > '9') break;
+				if (digits==9) return INVALID_KEY;
+				value += (c - '0') * mult;
+				mult *= 10;
+				digits++;
+				pos--;
+			}
+			if (digits==0) return INVALID_KEY;
+			if (part>0) {
+				if (pos < 0 || tileKey.charAt(pos)!='-') return INVALID_KEY;
+				pos--;
+			}
+			if (part==2) {
+				z = value;
+			} else if (part==1) {
+				y = value;
+			} else {
+				x = value;
+			}
+		}
+		if (z > MAX_KEY_ZOOM || x > KEY_MASK || y > KEY_MASK) return INVALID_KEY;
+
+		return toKey(x, y, z);
 	}
 	/** Get the zoom level of this tile
 	 * 
@@ -213,6 +323,178 @@ public class OSMTile {
 	public static int getOSMYTile(double lat, int zoom) {
 		return (int)Math.floor( (1 - Math.log(Math.tan(Math.toRadians(lat)) + 1 / Math.cos(Math.toRadians(lat))) / Math.PI) / 2 * (1<<zoom) ) ;
 	}
+	/** Get the X tile reference for many longitudes at once, clamped to the tile matrix.
+	 * 
+	 * @param lons Longitude positions
+	 * @param zoom The required zoom level
+	 * @param out The array to populate with X tile numbers (at least the length of lons)
+	 */
+	public static void getOSMXTiles(double[] lons, int zoom, int[] out) {
+		int n = 1 << zoom;
+		double scale = n / 360d;
+		for (int i=0; i<lons.length; i++) {
+			out[i] = clampTile( (int)Math.floor( (lons[i] + 180d) * scale ), n);
+		}
+	}
+	/** Get the Y tile reference for many latitudes at once, clamped to the tile matrix.
+	 * 
+	 * @param lats Latitude positions
+	 * @param zoom The required zoom level
+	 * @param out The array to populate with Y tile numbers (at least the length of lats)
+	 */
+	public static void getOSMYTiles(double[] lats, int zoom, int[] out) {
+		int n = 1 << zoom;
+		for (int i=0; i<lats.length; i++) {
+			out[i] = clampTile( yTileFloor(lats[i], n), n );
+		}
+	}
+	/** Get packed tile keys for many latitude/ longitude positions at once.
+	 * 
+	 * @param lats Latitude positions
+	 * @param lons Longitude positions (the same length as lats)
+	 * @param zoom The required zoom level
+	 * @param out The array to populate with packed keys (at least the length of lats)
+	 * @see #toKey(int, int, int)
+	 */
+	public static void getTileKeys(double[] lats, double[] lons, int zoom, long[] out) {
+		int n = 1 << zoom;
+		double scale = n / 360d;
+		long zKey = (long)zoom << (KEY_BITS*2);
+		for (int i=0; i<lats.length; i++) {
+			int x = clampTile( (int)Math.floor( (lons[i] + 180d) * scale ), n);
+			int y = clampTile( yTileFloor(lats[i], n), n );
+			out[i] = zKey | ((long)x << KEY_BITS) | y;
+		}
+	}
+	/** Get the range of tiles covering a latitude/ longitude area without
+	 * walking each tile.
+	 * 
+	 * @param minLon
+	 * @param minLat
+	 * @param maxLon
+	 * @param maxLat
+	 * @param zoom
+	 * @param out An int[4] to populate as minX, minY, maxX, maxY (inclusive)
+	 * @return The populated out array
+	 */
+	public static int[] getTileRange(double minLon, double minLat, double maxLon, double maxLat, int zoom, int[] out) {
+		int n = 1 << zoom;
+		double scale = n / 360d;
+		out[0] = clampTile( (int)Math.floor( (minLon + 180d) * scale ), n);
+		out[2] = clampTile( (int)Math.floor( (maxLon + 180d) * scale ), n);
+		// Tile rows run north to south
+		out[1] = clampTile( yTileFloor(maxLat, n), n);
+		out[3] = clampTile( yTileFloor(minLat, n), n);
+		return out;
+	}
+	/** Get the range of tiles covering a WGS84 BoundingBox without walking
+	 * each tile.
+	 * 
+	 * @param re The BoundingBox in latitude/ longitude
+	 * @param zoom
+	 * @return int[] as minX, minY, maxX, maxY (inclusive)
+	 */
+	public static int[] getTileRange(BoundingBox re, int zoom) {
+		return getTileRange(re.getMinX(), re.getMinY(), re.getMaxX(), re.getMaxY(), zoom, new int[4]);
+	}
+	/** Get the packed keys for all tiles covering a WGS84 BoundingBox. For large
+	 * areas use {@link #getTileRange(BoundingBox, int)} and walk the range instead.
+	 * 
+	 * @param re The BoundingBox in latitude/ longitude
+	 * @param zoom
+	 * @return The keys, ordered by x then y
+	 * @throws IllegalArgumentException If there are too many tiles to hold in an array
+	 */
+	public static long[] getOSMTileKeysForArea(BoundingBox re, int zoom) {
+		int[] r = getTileRange(re, zoom);
+		long[] keys = new long[ checkTileCount(r) ];
+		int i = 0;
+		for (int x=r[0]; x<=r[2]; x++) {
+			for (int y=r[1]; y<=r[3]; y++) keys[i++] = toKey(x, y, zoom);
+		}
+		return keys;
+	}
+	/** Get the number of tiles in a tile range, checking it is small enough
+	 * to be held in an array or collection.
+	 * 
+	 * @param range The tile range as minX, minY, maxX, maxY (inclusive)
+	 * @return The number of tiles
+	 * @throws IllegalArgumentException If there are too many tiles
+	 */
+	private static int checkTileCount(int[] range) {
+		long count = (long)(range[2]-range[0]+1) * (range[3]-range[1]+1);
+		if (count > MAX_AREA_TILES)
+			throw new IllegalArgumentException("Too many tiles for area ("+count+")");
+		return (int)count;
+	}
+	/** Get the position of a tile along the quadkey (Z-order) curve for its zoom level.
+	 * This is the quadkey digits read as a base 4 number.
+	 *
+	 * @param xRef
+	 * @param yRef
+	 * @return A value between 0 and 4^zoom-1
+	 */
+	public static long getQuadKeyIndex(int xRef, int yRef) {
+		return spreadBits(xRef) | (spreadBits(yRef) << 1);
+	}
+	/** Get the position of a tile along the Hilbert curve for its zoom level. Tiles
+	 * that are adjacent on the curve are always adjacent in the matrix.
+	 *
+	 * @param xRef
+	 * @param yRef
+	 * @param zoom
+	 * @return A value between 0 and 4^zoom-1
+	 */
+	public static long getHilbertIndex(int xRef, int yRef, int zoom) {
+		int n = 1 << zoom;
+		long d = 0;
+		for (int s=n/2; s>0; s/=2) {
+			int rx = (xRef & s) > 0 ? 1 : 0;
+			int ry = (yRef & s) > 0 ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+
+			// Rotate the quadrant
+			if (ry==0) {
+				if (rx==1) {
+					xRef = n-1 - xRef;
+					yRef = n-1 - yRef;
+				}
+				int t = xRef;
+				xRef = yRef;
+				yRef = t;
+			}
+		}
+		return d;
+	}
+	/** Spread the lower 32 bits of a value to the even bits of a long
+	 *
+	 * @param v
+	 * @return
+	 */
+	private static long spreadBits(int v) {
+		long x = v & 0xFFFFFFFFL;
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+	/** Un-clamped tile row for a latitude using one log and one sin
+	 * 
+	 * @param lat
+	 * @param n The number of tiles across the matrix
+	 * @return
+	 */
+	private static int yTileFloor(double lat, int n) {
+		if (lat > MAX_LATITUDE) lat = MAX_LATITUDE;
+		if (lat < -MAX_LATITUDE) lat = -MAX_LATITUDE;
+		double sin = Math.sin(Math.toRadians(lat));
+		return (int)Math.floor( (0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * n );
+	}
+	private static int clampTile(int t, int n) {
+		return t < 0 ? 0 : (t >= n ? n-1 : t);
+	}
 	/** Get a lon/ lat Coordinate from native coordinates
 	 * 
 	 * @param x
@@ -251,40 +533,14 @@ public class OSMTile {
 	 * @param re The BoundingBox to test against
 	 * @param zoom The zoom level to build the tiles for
 	 * @return An array of tiles
+	 * @throws IllegalArgumentException If there are too many tiles to hold in a Set
 	 */
 	public static Set<OSMTile> getOSMTilesForArea(BoundingBox re, int zoom) {
-		Set<OSMTile> allTiles = new HashSet<OSMTile>();
-		
-		OSMTile origin = getTile(re.getMinY(), re.getMinX(), zoom);
-		OSMTile currPos = null;
-		
-		boolean doneX = false;
-		boolean doneY = false;
-		int x = origin.xRef;
-		int y = origin.yRef;
-		BoundingBox curr = null;
+		int[] r = getTileRange(re, zoom);
+		Set<OSMTile> allTiles = new HashSet<OSMTile>( checkTileCount(r) * 2 );
 		
-		while(!doneY) {
-			while (!doneX) {
-				currPos = new OSMTile(x, y, zoom);
-				curr = currPos.getLatLongBounds(256);
-				if (re.contains(curr) || re.intersects(curr)) {
-					allTiles.add( currPos );
-				} else {
-					doneX = true;
-				}
-				x+=1;
-			}
-			// Increment Y and reset X
-			
-			y-=1;
-			x = origin.xRef;
-			doneX = false;
-			
-			// Check Y movement still in range
-			curr = new OSMTile(x, y, zoom).getLatLongBounds(256);
-			if (!re.contains(curr) && !re.intersects(curr)) doneY = true;
-			
+		for (int x=r[0]; x<=r[2]; x++) {
+			for (int y=r[1]; y<=r[3]; y++) allTiles.add( new OSMTile(x, y, zoom) );
 		}
 		
 		return allTiles;
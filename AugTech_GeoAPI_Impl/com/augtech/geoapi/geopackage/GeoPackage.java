@@ -37,11 +37,13 @@ import org.opengis.feature.type.AttributeType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.augtech.geoapi.feature.SimpleFeatureImpl;
 import com.augtech.geoapi.geometry.BoundingBoxImpl;
+import com.augtech.geoapi.geometry.OSMTile;
 import com.augtech.geoapi.geopackage.geometry.GeometryDecoder;
 import com.augtech.geoapi.geopackage.geometry.OGCWKBWriter;
 import com.augtech.geoapi.geopackage.geometry.StandardGeometryDecoder;
@@ -94,6 +96,8 @@ public class GeoPackage {
 	private Map<String, GpkgTable> sysTables = new HashMap<String,  GpkgTable>();
 	private Map<String, GpkgView> sysViews = new HashMap<String, GpkgView>();
 	private Map<String, GpkgTable> userTables = new HashMap<String, GpkgTable>();
+	/** Held while a {@link GpkgFilter} is compiled and run, as its temporary tables are shared */
+	private final Object filterLock = new Object();
 	
 	/** The name to create (if required) and test for use as a FeatureID within the GeoPackage */
 	public static String FEATURE_ID_FIELD_NAME = "feature_id";
@@ -450,9 +454,8 @@ public class GeoPackage {
 		int minY =  (int) Math.round( (tmsBox.getMaxY() - bbox.getMaxY() ) / (tmHeight * pixY) );
 		int maxY =  (int) Math.round( (tmsBox.getMaxY() - bbox.getMinY() ) / (tmHeight * pixY) );
 		
-		String strWhere = String.format(
-				"zoom_level=%s AND tile_column >= %s AND tile_column <= %s AND tile_row >=%s AND tile_row <=%s", 
-				zoomLevel, minX, maxX, minY, maxY);
+		// Tables stored in curve order are read as a set of contiguous id ranges
+		String strWhere = ((TilesTable)tilesTable).getKeyRangeWhere(minX, minY, maxX, maxY, zoomLevel);
 
 		return getTiles(tableName, strWhere);
 		
@@ -524,7 +527,12 @@ public class GeoPackage {
 					);
 			
 			// Create the feature and add to list of all features
-			allFeats.add( new SimpleFeatureImpl(fid, attrValues, featureType, bbox ) );
+			SimpleFeature tile = new SimpleFeatureImpl(fid, attrValues, featureType, bbox );
+			tile.getUserData().put(OSMTile.USER_DATA_KEY, OSMTile.toKey(
+					featRecords.getFieldInt(rIdx, "tile_column"),
+					featRecords.getFieldInt(rIdx, "tile_row"),
+					featRecords.getFieldInt(rIdx, "zoom_level")) );
+			allFeats.add( tile );
 		}
 		
 		return allFeats;
@@ -571,6 +579,17 @@ public class GeoPackage {
 		FeaturesTable featTable = (FeaturesTable)getUserTable( tableName, GpkgTable.TABLE_TYPE_FEATURES );
 		return getFeatures("SELECT * FROM ["+tableName+"]", featTable, new StandardGeometryDecoder() );
 	}
+	/** Get all the features from the supplied table name, only reading the requested columns.
+	 * 
+	 * @param tableName
+	 * @param columns The column names to read, or <code>Null</code> for all columns
+	 * @return
+	 * @throws Exception
+	 * @see #getFeatures(String, String, String[], GeometryDecoder)
+	 */
+	public List<SimpleFeature> getFeatures(final String tableName, String[] columns) throws Exception {
+		return getFeatures(tableName, (String)null, columns, new StandardGeometryDecoder() );
+	}
 	/** Get a list of {@link SimpleFeature} from the GeoPackage by specifying a where clause
 	 * (for example {@code featureId='pipe.1234'} or {@code id=1234} )
 	 * 
@@ -586,13 +605,33 @@ public class GeoPackage {
 	 */
 	public List<SimpleFeature> getFeatures(String tableName, String whereClause, GeometryDecoder geomDecoder) 
 			throws Exception {
+		return getFeatures(tableName, whereClause, null, geomDecoder);
+	}
+	/** Get a list of {@link SimpleFeature} from the GeoPackage by specifying a where clause,
+	 * only reading the requested columns from the table.<p>
+	 * The features are built against a {@link SimpleFeatureType} holding just those columns
+	 * (see {@link FeaturesTable#getSchema(String[])}). If the geometry column is not requested
+	 * it is not read at all and the features will have no geometry.
+	 * 
+	 * @param tableName The <i>case sensitive</i> table name that holds the feature
+	 * @param whereClause The 'Where' clause, less the where. Passing Null will return 
+	 * all records from the table, which is discouraged.
+	 * @param columns The column names to read, or <code>Null</code> for all columns
+	 * @param geomDecoder The type of {@linkplain GeometryDecoder} to use.
+	 * @return A list of SimpleFeature's or an empty list if none were found in the specified table
+	 * matching the the filter
+	 * @throws Exception If a requested column does not exist on the table
+	 */
+	public List<SimpleFeature> getFeatures(String tableName, String whereClause, String[] columns, 
+			GeometryDecoder geomDecoder) throws Exception {
 		
 		FeaturesTable featTable = (FeaturesTable)getUserTable( tableName, GpkgTable.TABLE_TYPE_FEATURES );
+		SimpleFeatureType featureType = featTable.getSchema(columns);
 		
-		String stmt = "SELECT * FROM ["+tableName+"]";
-		if (whereClause!=null && !whereClause.equals("")) stmt+=" WHERE "+whereClause;
+		String stmt = "SELECT "+getSelectColumns(featTable, featureType, columns!=null)+" FROM ["+tableName+"] WHERE ";
+		if (whereClause!=null && !whereClause.equals("")) stmt+="("+whereClause+") AND ";
 		
-		return getFeatures(stmt, featTable, geomDecoder);
+		return buildFeatures(stmt, new ArrayList<Object>(), featTable, featureType, geomDecoder);
 		
 	}
 	/** Get a list of all SimpleFeature's within, or intersecting with, the supplied BoundingBox.
@@ -610,54 +649,118 @@ public class GeoPackage {
 	 */
 	public List<SimpleFeature> getFeatures(final String tableName, final BoundingBox bbox, boolean includeIntersect, 
 			boolean testExtents, GeometryDecoder geomDecoder) throws Exception {
+		return getFeatures(tableName, bbox, includeIntersect, testExtents, null, geomDecoder);
+	}
+	/** Get a list of all SimpleFeature's within, or intersecting with, the supplied BoundingBox,
+	 * only reading the requested columns from the table for the matching features.
+	 * 
+	 * @param tableName The <i>case sensitive</i> table name in this GeoPackage to query.
+	 * @param bbox The {@link BoundingBox} to find features in, or intersecting with.
+	 * @param includeIntersect Should feature's intersecting with the supplied box be returned?
+	 * @param testExtents Should the bbox be tested against the data extents in gpkg_contents before
+	 * issuing the query?
+	 * @param columns The column names to read, or <code>Null</code> for all columns. If the
+	 * geometry column is not included the features will have no geometry.
+	 * @param geomDecoder The {@link GeometryDecoder} to use for reading feature geometries.
+	 * @return A list of {@linkplain SimpleFeature}'s
+	 * @throws Exception If the SRS of the supplied {@link BoundingBox} does not match the SRS of
+	 * the table being queried, or a requested column does not exist on the table.
+	 */
+	public List<SimpleFeature> getFeatures(final String tableName, final BoundingBox bbox, boolean includeIntersect, 
+			boolean testExtents, String[] columns, GeometryDecoder geomDecoder) throws Exception {
 		log.log(Level.INFO, "BBOX query for features in "+tableName);
 		
-		List<SimpleFeature> allFeats = new ArrayList<SimpleFeature>();
-
 		FeaturesTable featTable = (FeaturesTable)getUserTable( tableName, GpkgTable.TABLE_TYPE_FEATURES );
 		
 		// Is BBOX valid against the table?
-		if ( !checkBBOXAgainstLast(featTable, bbox, includeIntersect, testExtents)) return allFeats;
+		if ( !checkBBOXAgainstLast(featTable, bbox, includeIntersect, testExtents)) return new ArrayList<SimpleFeature>();
 		
-		GeometryInfo gi = featTable.getGeometryInfo();
+		/* The filter uses the spatial index if there is one, otherwise the 
+		 * geometry header of each record is checked */
+		return getFeatures(tableName, GpkgFilter.bbox(bbox, includeIntersect), columns, geomDecoder);
 		
-		StringBuffer sqlStmt = new StringBuffer();
-		String pk = featTable.getPrimaryKey(this);
+	}
+	/** Get a list of {@link SimpleFeature} from the GeoPackage matching a {@link GpkgFilter}, 
+	 * only reading the requested columns from the table.<p>
+	 * The filter is compiled to SQL with '?' parameters, so the statement text is the same
+	 * each time a filter of the same shape is used and the database can re-use the 
+	 * compiled statement. Any bounding box in the filter uses the table's spatial index
+	 * if the GeoPackage is R-Tree enabled, otherwise a temporary table of matching keys.
+	 * As these tables are shared, filtered queries on one GeoPackage are run one at a time.
+	 * 
+	 * @param tableName The <i>case sensitive</i> table name that holds the feature
+	 * @param filter The filter to apply, or <code>Null</code> for all records
+	 * @param columns The column names to read, or <code>Null</code> for all columns
+	 * @param geomDecoder The type of {@linkplain GeometryDecoder} to use.
+	 * @return A list of SimpleFeature's or an empty list if none were found
+	 * @throws Exception If the filter or a requested column references a column that
+	 * does not exist on the table
+	 */
+	public List<SimpleFeature> getFeatures(String tableName, GpkgFilter filter, String[] columns, 
+			GeometryDecoder geomDecoder) throws Exception {
 		
-		if (MODE_STRICT) {
-			if (pk.equals("rowid"))
-				throw new Exception("Primary key not defined on table "+featTable.getTableName() );
+		FeaturesTable featTable = (FeaturesTable)getUserTable( tableName, GpkgTable.TABLE_TYPE_FEATURES );
+		SimpleFeatureType featureType = featTable.getSchema(columns);
+		
+		List<Object> args = new ArrayList<Object>();
+		List<String> tempTables = new ArrayList<String>();
+		StringBuffer stmt = new StringBuffer("SELECT ");
+		stmt.append( getSelectColumns(featTable, featureType, columns!=null) );
+		stmt.append(" FROM [").append(tableName).append("] WHERE ");
+		
+		synchronized (filterLock) {
+			try {
+				if (filter!=null) stmt.append("(").append( filter.toSQL(this, featTable, args, tempTables) ).append(") AND ");
+				return buildFeatures(stmt.toString(), args, featTable, featureType, geomDecoder);
+			} finally {
+				GpkgFilter.clearTempTables(this, tempTables);
+			}
 		}
 		
-		// If this GeoPackage is RTREE enabled, use the spatial index
-		if (sqlDB.hasRTreeEnabled() && gi.hasSpatialIndex()) {
-
-			String idxTable = "[rtree_"+tableName+"_"+gi.getColumnName()+"]";
-
-			sqlStmt.append("SELECT [").append(tableName).append("].* FROM [").append(tableName).append("], ");
-			sqlStmt.append(idxTable).append(" WHERE [");
-			sqlStmt.append(tableName).append("].").append(pk).append("=");
-			sqlStmt.append(idxTable).append(".id");
-			sqlStmt.append(" AND MinX>=").append( bbox.getMinX() );
-			sqlStmt.append(" AND MaxX<=").append( bbox.getMaxX() );
-			sqlStmt.append(" AND MinY>=").append( bbox.getMinY() );
-			sqlStmt.append(" AND MaxY<=").append( bbox.getMaxY() );
-			
-			return getFeatures(sqlStmt.toString(), featTable, geomDecoder);
-			
-		}
-
-		/* Query all records in the feature table and check the header envelope
-		 * for matching/ intersecting bounds. If the envelope is null, then the full
-		 * geometry is read and checked */
+	}
+	/** Get a list of {@link SimpleFeature} from the GeoPackage matching a GeoAPI {@link Filter}.<p>
+	 * As much of the filter as possible is run in SQL, using the R-Tree, feature ID index or a 
+	 * table scan depending on which is estimated to read the fewest records. The rest is
+	 * evaluated in Java on the returned features. See {@link GpkgFilterEvaluator}.
+	 * 
+	 * @param tableName The <i>case sensitive</i> table name that holds the feature
+	 * @param filter The filter to apply. <code>Null</code> returns all features
+	 * @param columns The column names to read, or <code>Null</code> for all columns. Any
+	 * columns needed to evaluate part of the filter in Java are also read.
+	 * @param geomDecoder The type of {@linkplain GeometryDecoder} to use.
+	 * @return A list of SimpleFeature's or an empty list if none were found
+	 * @throws Exception
+	 */
+	public List<SimpleFeature> getFeatures(String tableName, Filter filter, String[] columns, 
+			GeometryDecoder geomDecoder) throws Exception {
 		
-		sqlStmt.append("SELECT * FROM [").append(tableName).append("] WHERE id IN(");
+		FeaturesTable featTable = (FeaturesTable)getUserTable( tableName, GpkgTable.TABLE_TYPE_FEATURES );
+		return new GpkgFilterEvaluator(this, featTable).getFeatures(filter, columns, geomDecoder);
+		
+	}
+	/** Get the primary key of each record in a feature table whose geometry is within, 
+	 * or intersects with, the supplied bounds. The envelope in each geometry header is 
+	 * tested, or if the header has no envelope the full geometry is read and checked.
+	 * 
+	 * @param featTable The table to query
+	 * @param bbox The bounds to test against
+	 * @param includeIntersect Should records intersecting the bounds be included?
+	 * @param geomDecoder The {@link GeometryDecoder} to read the geometry headers with
+	 * @return A list of primary key values, which may be empty
+	 * @throws Exception
+	 */
+	List<Integer> getFeatureIDs(FeaturesTable featTable, BoundingBox bbox, boolean includeIntersect, 
+			GeometryDecoder geomDecoder) throws Exception {
+		
+		List<Integer> ids = new ArrayList<Integer>();
+		GeometryInfo gi = featTable.getGeometryInfo();
+		String pk = featTable.getPrimaryKey(this);
+		String tableName = featTable.getTableName();
 		
 		// Query only for feature geometry and test that before getting all attributes
-		long startTime = System.currentTimeMillis();
 		int totalRecs = featTable.getCount(this);
 		
-		int lastPK = 0, recCount = 0, hitCount = 0;
+		int lastPK = 0, recCount = 0;
 		boolean hit = false;
 		Envelope headerEnv = null;
 		Envelope query = new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox.getMaxY());
@@ -688,10 +791,7 @@ public class GeoPackage {
 	
 				// Test bounds
 				hit = (includeIntersect ? query.intersects( headerEnv ) : false) ||  query.contains( headerEnv ) || headerEnv.contains( query );
-				if (hit) {
-					sqlStmt.append(cPage.getInt(0)).append(",");
-					hitCount++;
-				}
+				if (hit) ids.add( cPage.getInt(0) );
 				
 				// Store the last key we saw for the next page query
 				lastPK = cPage.getInt(0);
@@ -701,19 +801,37 @@ public class GeoPackage {
 			cPage.close();
 			if (hasRecords==false) break;
 		}
-
-		//log.log(Level.INFO, recCount+" geometries checked in "+(System.currentTimeMillis()-startTime)/1000+" seconds");
 		
+		log.log(Level.INFO, "Found "+ids.size()+" features in "+tableName);
+		return ids;
 		
-		// Didn't find anything
-		if (hitCount==0) return allFeats;
+	}
+	/** Build the column list for a feature query. This always includes the primary key
+	 * and feature ID columns (needed for paging and feature ID's) followed by the
+	 * attribute columns of the supplied type.
+	 * 
+	 * @param featTable The table being queried
+	 * @param featureType The (possibly narrowed) type the features will be built against
+	 * @param projected If <code>False</code> all columns are selected using [table].*
+	 * @return The columns, each qualified with the table name
+	 * @throws Exception
+	 */
+	private String getSelectColumns(FeaturesTable featTable, SimpleFeatureType featureType, boolean projected) 
+			throws Exception {
+		String table = "["+featTable.getTableName()+"].";
+		if (!projected) return table+"*";
 		
-		sqlStmt.setLength(sqlStmt.length()-1);// How many id's can the DB handle??
-		sqlStmt.append(");");
-
-		log.log(Level.INFO, "Found "+hitCount+" features in "+tableName+" - Building SimpleFeature(s)...");
-		return getFeatures(sqlStmt.toString(), featTable, geomDecoder );
+		String pk = featTable.getPrimaryKey(this);
+		String featureFieldName = featTable.getFeatureIDField();
 		
+		StringBuffer cols = new StringBuffer(table).append(pk);
+		if (!featureFieldName.equals("id") && !featureFieldName.equals(pk)) {
+			cols.append(",").append(table).append("[").append(featureFieldName).append("]");
+		}
+		for (AttributeType at : featureType.getTypes()) {
+			cols.append(",").append(table).append("[").append(at.getName().getLocalPart()).append("]");
+		}
+		return cols.toString();
 	}
 	
 	/** Get a list of {@link SimpleFeature} from the GeoPackage by specifying a full SQL statement.
@@ -727,6 +845,45 @@ public class GeoPackage {
 	 */
 	protected List<SimpleFeature> getFeatures(String sqlStatement, FeaturesTable featTable, GeometryDecoder geomDecoder)
 			throws Exception {
+		return getFeatures(sqlStatement, featTable, featTable.getSchema(), geomDecoder);
+	}
+	/** Get a list of {@link SimpleFeature} from the GeoPackage by specifying a full SQL statement
+	 * that selects the columns of the supplied feature type.
+	 * 
+	 * @param sqlStatement The query, which must select the primary key, the feature ID column 
+	 * and every attribute of the featureType.
+	 * @param featTable
+	 * @param featureType The type to build the features against. Only these attributes are read
+	 * from the query results.
+	 * @param geomDecoder The type of {@linkplain GeometryDecoder} to use.
+	 * @return A list of SimpleFeature's or an empty list if none were found in the specified table
+	 * matching the the filter
+	 * @throws Exception
+	 */
+	protected List<SimpleFeature> getFeatures(String sqlStatement, FeaturesTable featTable, 
+			SimpleFeatureType featureType, GeometryDecoder geomDecoder) throws Exception {
+		
+		sqlStatement = sqlStatement.endsWith(";") ? sqlStatement.substring(0, sqlStatement.length()-1) : sqlStatement;
+		int whereIdx = sqlStatement.toLowerCase().indexOf("where");
+		sqlStatement = whereIdx>0 ? sqlStatement+" AND " : sqlStatement+" WHERE ";
+		
+		return buildFeatures(sqlStatement, new ArrayList<Object>(), featTable, featureType, geomDecoder);
+	}
+	/** Build features from a query, reading the table in pages of {@link #MAX_RECORDS_PER_CURSOR}
+	 * records. The page condition on the primary key is bound as the last parameter, so 
+	 * each page uses the same statement.
+	 * 
+	 * @param sqlPrefix The query up to and including 'WHERE ' or 'AND ', to which the
+	 * page condition is appended
+	 * @param args The values for any '?' parameters in the sqlPrefix
+	 * @param featTable
+	 * @param featureType The type to build the features against
+	 * @param geomDecoder The type of {@linkplain GeometryDecoder} to use.
+	 * @return A list of SimpleFeature's or an empty list if none were found
+	 * @throws Exception
+	 */
+	private List<SimpleFeature> buildFeatures(String sqlPrefix, List<Object> args, FeaturesTable featTable, 
+			SimpleFeatureType featureType, GeometryDecoder geomDecoder) throws Exception {
 		
 		List<SimpleFeature> allFeats = new ArrayList<SimpleFeature>();
 
@@ -734,7 +891,6 @@ public class GeoPackage {
 
 		if (totalRecs==0) return allFeats;
 		
-		SimpleFeatureType featureType = featTable.getSchema();
 		List<AttributeType> attrTypes = featureType.getTypes();
 		GeometryInfo geomInfo = featTable.getGeometryInfo();
 		
@@ -752,22 +908,20 @@ public class GeoPackage {
 		}
 		
 		int lastPK = 0, recCount = 0;
-		sqlStatement = sqlStatement.endsWith(";") ? sqlStatement.substring(0, sqlStatement.length()-1) : sqlStatement;
-		int whereIdx = sqlStatement.toLowerCase().indexOf("where");
-		sqlStatement = whereIdx>0 ? sqlStatement+" AND " : sqlStatement+" WHERE ";
+		String pkColumn = "["+featTable.getTableName()+"].["+pk+"]";
+		String sql = sqlPrefix+pkColumn+" > ? ORDER BY "+pkColumn+" LIMIT "+MAX_RECORDS_PER_CURSOR;
+		Object[] sqlArgs = args.toArray( new Object[args.size()+1] );
 		ArrayList<Object> attrValues = new ArrayList<Object>();
 		Object value = null;
 		String fid;
 		GpkgRecords featRecords = null;
-		String sql = ""; 
 		String fieldName = null;
 		
 		// While we have less records than total for table..
 		while (recCount < totalRecs) {
 
-			sql = String.format(sqlStatement+"%s > %s ORDER BY %s LIMIT %s",
-					pk, lastPK, pk, MAX_RECORDS_PER_CURSOR);
-			featRecords = featTable.rawQuery(this, sql );
+			sqlArgs[sqlArgs.length-1] = lastPK;
+			featRecords = featTable.rawQuery(this, sql, sqlArgs );
 
 			if (featRecords.size()==0) break;
 
@@ -785,6 +939,7 @@ public class GeoPackage {
 				}
 				
 				Geometry theGeom = null;
+				byte[] geomBlob = null;
 				
 				/* For each type definition, get the value, ensuring the 
 				 * correct order is maintained on the value list*/
@@ -794,8 +949,14 @@ public class GeoPackage {
 					value = featRecords.get(rIdx).get( featRecords.getFieldIdx(fieldName) );
 					
 					if (fieldName.equals(geomInfo.getColumnName())) {
-						// If geometry column, decode to actual Geometry
-						theGeom = geomDecoder.setGeometryData( (byte[])value ).getGeometry();
+						// If geometry column, decode to actual Geometry or just its header if lazy
+						if (lazyGeometry && value!=null) {
+							geomBlob = (byte[])value;
+						} else {
+							synchronized (geomDecoder) {
+								theGeom = geomDecoder.setGeometryData( (byte[])value ).getGeometry();
+							}
+						}
 					} else {
 						attrValues.add(value);
 					}
@@ -804,7 +965,15 @@ public class GeoPackage {
 				attrValues.trimToSize();
 
 				// Create the feature and add to list of all features
-				allFeats.add( new SimpleFeatureImpl(fid, attrValues, featureType, theGeom ) );
+				if (geomBlob!=null) {
+					// Lazy features decode with this decoder on other threads
+					synchronized (geomDecoder) {
+						geomDecoder.setGeometryData( geomBlob );
+						allFeats.add( new GpkgFeature(fid, attrValues, featureType, geomBlob, geomDecoder) );
+					}
+				} else {
+					allFeats.add( new SimpleFeatureImpl(fid, attrValues, featureType, theGeom ) );
+				}
 
 				// Store the last key we saw for the next page query
 				lastPK = featRecords.getFieldInt(rIdx, pk );
@@ -813,7 +982,9 @@ public class GeoPackage {
 		}
 
 		featRecords = null;
-		geomDecoder.clear();
+		synchronized (geomDecoder) {
+			geomDecoder.clear();
+		}
 		
 		log.log(Level.INFO,
 				String.format("%s %s feature(s) built in %s seconds",
@@ -836,7 +1007,7 @@ public class GeoPackage {
 	 * table and/ or tile matrix set extents are tested as well.
 	 * @return True if checks pass
 	 */
-	private boolean checkBBOXAgainstLast(GpkgTable checkTable, BoundingBox queryBBox, boolean includeIntersect, boolean shortTest) {
+	boolean checkBBOXAgainstLast(GpkgTable checkTable, BoundingBox queryBBox, boolean includeIntersect, boolean shortTest) {
 		
 		// Check the SRS's are the same (Projection beyond scope of implementation)
 		BoundingBox tableBbox = checkTable.getBounds();
@@ -1293,7 +1464,7 @@ public class GeoPackage {
 				int idx = type.indexOf( field.getFieldName().toLowerCase().equals("__id") ? "id" : field.getFieldName() );
 				/* If the field is not available on the type, set to null to ensure
 				 * the value list matches the table definition */
-				if (idx==-1 || idx > type.getAttributeCount()) {
+				if (idx==-1 || idx >= feature.getAttributeCount()) {
 					value = null; 
 				} else {
 					value = feature.getAttribute(idx);
@@ -1344,6 +1515,20 @@ public class GeoPackage {
 		simpleTolerance = tolerance;
 	}
 	private double simpleTolerance = 1;
+	/** Should features hold their encoded geometry until it is needed? */
+	private boolean lazyGeometry = false;
+	/** Set whether features read from feature tables decode their geometry straight
+	 * away, or hold the encoded geometry and only decode it when
+	 * {@link SimpleFeature#getDefaultGeometry()} is first called (see {@link GpkgFeature}).
+	 * The envelope from the geometry header is always available straight away.<p>
+	 * Lazy decoding saves time when only attributes or bounds are required, such as for
+	 * reports or label placement. Default is False.
+	 * 
+	 * @param lazyGeometry
+	 */
+	public void setLazyGeometry(boolean lazyGeometry) {
+		this.lazyGeometry = lazyGeometry;
+	}
 	/** Encode a JTS {@link Geometry} to standard GeoPackage geometry blob
 	 * 
 	 * @param geom The Geometry to encode
@@ -1437,7 +1622,7 @@ public class GeoPackage {
 	 * @param tableName
 	 * @param tableType
 	 */
-	private void updateLastChange(String tableName, String tableType) {
+	public void updateLastChange(String tableName, String tableType) {
 		Map<String, Object> values = new HashMap<String, Object>();
 		values.put("last_change", DateUtil.serializeDateTime(System.currentTimeMillis(), true) );
 		String where = String.format("table_name='%s' and data_type='%s'", tableName, tableType);
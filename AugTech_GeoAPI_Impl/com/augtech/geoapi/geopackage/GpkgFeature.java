@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geopackage;
+
+import java.util.List;
+
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.geometry.BoundingBox;
+
+import com.augtech.geoapi.feature.SimpleFeatureImpl;
+import com.augtech.geoapi.geometry.BoundingBoxImpl;
+import com.augtech.geoapi.geopackage.geometry.GeometryDecoder;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/** A SimpleFeature read from a GeoPackage that holds its GeoPackageBinary geometry
+ * blob and only decodes it to a JTS Geometry when {@link #getDefaultGeometry()} is
+ * first called. The decoded Geometry is kept and the blob released.<p>
+ * The envelope and SRS ID from the geometry header are available straight away through
+ * {@link #getEnvelope()} and {@link #getBounds()}, so features can be tested
+ * against an area without decoding them. If the header has no envelope (as is
+ * common for points) these decode the geometry instead.<p>
+ * The geometry is decoded with the same {@link GeometryDecoder} instance the feature
+ * was read with, holding its lock while it does so.
+ *
+ * @author Augmented Technologies Ltd.
+ * @see GeoPackage#setLazyGeometry(boolean)
+ */
+public class GpkgFeature extends SimpleFeatureImpl {
+	private volatile byte[] geomBlob;
+	private final GeometryDecoder decoder;
+	private Envelope headerEnvelope;
+	private int srsID;
+
+	/** Create a new feature with an encoded geometry
+	 *
+	 * @param fid The unique feature ID
+	 * @param attrValues The list of attribute values for this feature
+	 * @param fType The {@link SimpleFeatureType} this feature belongs to
+	 * @param geomBlob The GeoPackageBinary geometry
+	 * @param header A decoder that has already read the header of the geometry blob
+	 * (using {@link GeometryDecoder#setGeometryData(byte[])}). The same decoder is used
+	 * to decode the geometry later on, so anything else using it must synchronize on it.
+	 */
+	public GpkgFeature(String fid, List<Object> attrValues, SimpleFeatureType fType,
+			byte[] geomBlob, GeometryDecoder header) {
+		super(fid, attrValues, fType, null);
+		this.geomBlob = geomBlob;
+		this.decoder = header;
+		this.headerEnvelope = header.getEnvelope().isNull() ? null : new Envelope(header.getEnvelope());
+		this.srsID = header.getSRSID();
+	}
+	/** Has the geometry been decoded yet?
+	 *
+	 * @return
+	 */
+	public boolean isGeometryDecoded() {
+		return geomBlob==null;
+	}
+	/** Get the encoded geometry, if it has not yet been decoded
+	 *
+	 * @return The GeoPackageBinary blob, or <code>Null</code> once decoded
+	 */
+	public byte[] getGeometryData() {
+		return geomBlob;
+	}
+	/** Get the geometry, decoding it on the first call
+	 *
+	 * @throws IllegalStateException If the geometry blob can not be decoded
+	 */
+	@Override
+	public Geometry getDefaultGeometry() {
+		if (geomBlob!=null) decodeGeometry();
+		return super.getDefaultGeometry();
+	}
+	@Override
+	public void setDefaultGeometry(Object geom) {
+		synchronized (this) {
+			geomBlob = null;
+			super.setDefaultGeometry(geom);
+		}
+	}
+	/** Get the envelope from the geometry header, without decoding the geometry
+	 * if possible.
+	 *
+	 */
+	@Override
+	public Envelope getEnvelope() {
+		if (geomBlob!=null && headerEnvelope!=null) return headerEnvelope;
+		return super.getEnvelope();
+	}
+	/** Get the bounding box from the geometry header, without decoding the geometry
+	 * if possible.
+	 *
+	 */
+	@Override
+	public BoundingBox getBounds() {
+		if (bounds==null && geomBlob!=null && headerEnvelope!=null) {
+			bounds = new BoundingBoxImpl(headerEnvelope, ""+srsID);
+		}
+		return bounds!=null ? bounds : super.getBounds();
+	}
+	/** Decode the blob and keep the Geometry. The blob is kept if it can't be decoded.
+	 *
+	 * @throws IllegalStateException If the geometry blob can not be decoded
+	 */
+	private synchronized void decodeGeometry() {
+		if (geomBlob==null) return;
+		Geometry geom = null;
+		synchronized (decoder) {
+			try {
+				geom = decoder.setGeometryData(geomBlob).getGeometry();
+			} catch (Exception e) {
+				throw new IllegalStateException("Unable to decode the geometry of feature "+getID(), e);
+			} finally {
+				decoder.clear();
+			}
+		}
+		super.setDefaultGeometry(geom);
+		geomBlob = null;
+	}
+}
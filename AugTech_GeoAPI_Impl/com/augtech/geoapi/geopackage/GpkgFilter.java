@@ -0,0 +1,409 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geopackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opengis.geometry.BoundingBox;
+
+import com.augtech.geoapi.geopackage.geometry.StandardGeometryDecoder;
+import com.augtech.geoapi.geopackage.table.FeaturesTable;
+import com.augtech.geoapi.geopackage.table.FeaturesTable.GeometryInfo;
+
+/** A filter on the records of a feature table, built from comparisons, IN, LIKE and
+ * bounding box tests combined with AND/ OR, that compiles to an SQL where clause
+ * with '?' parameters.<p>
+ * The SQL text only depends on the shape of the filter (not the values) so the
+ * database can re-use the compiled statement. Column names are checked against the
+ * table definition when compiled. A bounding box test uses the table's R-Tree spatial
+ * index if there is one, otherwise the geometry header of each record is checked first
+ * and the matching records are selected by primary key from a temporary table. Each 
+ * bounding box test in a filter has its own temporary table, named by its position in 
+ * the filter, which is emptied and re-filled each time the filter is compiled.
+ * For example;<p>
+ * <code>GpkgFilter filter = GpkgFilter.and(<br>
+ * &nbsp;&nbsp;GpkgFilter.bbox(bbox, true),<br>
+ * &nbsp;&nbsp;GpkgFilter.compare("type", GpkgFilter.EQ, "pipe") );<br>
+ * geoPackage.getFeatures("pipes", filter, null, new StandardGeometryDecoder());</code>
+ *
+ * @author Augmented Technologies Ltd.
+ * @see GeoPackage#getFeatures(String, GpkgFilter, String[], com.augtech.geoapi.geopackage.geometry.GeometryDecoder)
+ */
+public abstract class GpkgFilter {
+	public static final String EQ = "=";
+	public static final String NE = "<>";
+	public static final String LT = "<";
+	public static final String LE = "<=";
+	public static final String GT = ">";
+	public static final String GE = ">=";
+
+	/** The prefix of the temporary tables holding the primary keys matched by a bounding 
+	 * box test without a spatial index */
+	static final String ID_TABLE = "gpkg_filter_ids_";
+
+	private static final List<String> OPERATORS = Arrays.asList(EQ, NE, LT, LE, GT, GE);
+
+	GpkgFilter() {}
+
+	/** Compare a column against a value. Comparing to <code>Null</code> with {@link #EQ}
+	 * or {@link #NE} tests for IS NULL or IS NOT NULL.
+	 *
+	 * @param column The column name
+	 * @param operator One of {@link #EQ}, {@link #NE}, {@link #LT}, {@link #LE}, {@link #GT}
+	 * or {@link #GE}
+	 * @param value The value to compare with
+	 * @return
+	 */
+	public static GpkgFilter compare(String column, String operator, Object value) {
+		if ("!=".equals(operator)) operator = NE;
+		if (!OPERATORS.contains(operator))
+			throw new IllegalArgumentException("Unsupported operator "+operator);
+		if (value==null && !operator.equals(EQ) && !operator.equals(NE))
+			throw new IllegalArgumentException("Null can only be compared with EQ or NE");
+		return new Comparison(column, operator, value);
+	}
+	/** Test a column is equal to a value
+	 *
+	 * @param column The column name
+	 * @param value
+	 * @return
+	 */
+	public static GpkgFilter equal(String column, Object value) {
+		return compare(column, EQ, value);
+	}
+	/** Test a column is one of a set of values
+	 *
+	 * @param column The column name
+	 * @param values The values, which must not include <code>Null</code>
+	 * @return
+	 */
+	public static GpkgFilter in(String column, Object... values) {
+		return new In(column, Arrays.asList(values));
+	}
+	/** Test a column matches an SQL LIKE pattern, using % and _ as wildcards.
+	 * SQLite's LIKE is not case sensitive for ASCII characters.
+	 *
+	 * @param column The column name
+	 * @param pattern The pattern to match
+	 * @return
+	 */
+	public static GpkgFilter like(String column, String pattern) {
+		if (pattern==null) throw new IllegalArgumentException("Null pattern");
+		return new Like(column, pattern);
+	}
+	/** Test a feature's geometry is within, or intersects with, a bounding box.
+	 * The box must be in the same SRS as the table.
+	 *
+	 * @param bbox The bounding box
+	 * @param includeIntersect Should features intersecting the box match?
+	 * @return
+	 */
+	public static GpkgFilter bbox(BoundingBox bbox, boolean includeIntersect) {
+		if (bbox==null) throw new IllegalArgumentException("Null bounding box");
+		return new BBox(bbox, includeIntersect);
+	}
+	/** Match records that pass all of the supplied filters
+	 *
+	 * @param filters
+	 * @return
+	 */
+	public static GpkgFilter and(GpkgFilter... filters) {
+		return new Logical("AND", Arrays.asList(filters));
+	}
+	/** Match records that pass any of the supplied filters
+	 *
+	 * @param filters
+	 * @return
+	 */
+	public static GpkgFilter or(GpkgFilter... filters) {
+		return new Logical("OR", Arrays.asList(filters));
+	}
+
+	/** Compile this filter to an SQL where clause (without the 'where') for a table.
+	 * Any temporary tables filled for the clause keep their rows until the filter is next
+	 * compiled, or the database is closed.
+	 *
+	 * @param geoPackage The GeoPackage holding the table
+	 * @param featTable The table the filter will be applied to
+	 * @param args A list to add the parameter values to, in the order of the '?'
+	 * parameters in the returned SQL
+	 * @return The where clause
+	 * @throws Exception If the filter references a column that is not on the table
+	 * @see #toSQL(GeoPackage, FeaturesTable, List, List)
+	 */
+	public String toSQL(GeoPackage geoPackage, FeaturesTable featTable, List<Object> args) throws Exception {
+		return toSQL(geoPackage, featTable, args, null);
+	}
+	/** Compile this filter to an SQL where clause (without the 'where') for a table.<p>
+	 * The temporary tables are shared by every filter of the same shape on the database, 
+	 * so the clause must be run before the same shape of filter is compiled again.
+	 *
+	 * @param geoPackage The GeoPackage holding the table
+	 * @param featTable The table the filter will be applied to
+	 * @param args A list to add the parameter values to, in the order of the '?'
+	 * parameters in the returned SQL
+	 * @param tempTables A list to add the name of any temporary table the clause selects
+	 * from, so they can be emptied with {@link #clearTempTables(GeoPackage, List)} once 
+	 * the query is complete. May be <code>Null</code>
+	 * @return The where clause
+	 * @throws Exception If the filter references a column that is not on the table
+	 */
+	public String toSQL(GeoPackage geoPackage, FeaturesTable featTable, List<Object> args, 
+			List<String> tempTables) throws Exception {
+		StringBuffer sql = new StringBuffer();
+		append(new Context(geoPackage, featTable, tempTables), sql, args);
+		return sql.toString();
+	}
+	/** Empty the temporary tables filled by {@link #toSQL(GeoPackage, FeaturesTable, List, List)}.
+	 * The tables themselves are kept, so cached statements selecting from them stay valid.
+	 * 
+	 * @param geoPackage
+	 * @param tempTables The table names. The list is cleared.
+	 */
+	public static void clearTempTables(GeoPackage geoPackage, List<String> tempTables) {
+		if (tempTables==null) return;
+		for (String t : tempTables) geoPackage.getDatabase().execSQL("DELETE FROM temp.["+t+"]");
+		tempTables.clear();
+	}
+	/** Append the SQL for this filter
+	 *
+	 * @param ctx The table being compiled against
+	 * @param sql
+	 * @param args
+	 * @throws Exception
+	 */
+	abstract void append(Context ctx, StringBuffer sql, List<Object> args) throws Exception;
+
+	/** Convert a value to a type that all {@link ISQLDatabase} implementations can bind
+	 *
+	 * @param value
+	 * @return An Integer, Long, Double, String, Boolean or byte[]
+	 */
+	static Object toSQLValue(Object value) {
+		if (value==null) throw new IllegalArgumentException("Null values can not be bound");
+
+		if (value instanceof Integer || value instanceof Long || value instanceof Double ||
+				value instanceof String || value instanceof Boolean || value instanceof byte[]) {
+			return value;
+		} else if (value instanceof Short || value instanceof Byte) {
+			return ((Number)value).intValue();
+		} else if (value instanceof Number) {
+			return ((Number)value).doubleValue();
+		} else if (value instanceof Date) {
+			return DateUtil.serializeDateTime( ((Date)value).getTime(), true );
+		}
+		return String.valueOf(value);
+	}
+
+	/** The table a filter is being compiled against */
+	static class Context {
+		final GeoPackage geoPackage;
+		final FeaturesTable featTable;
+		final String table;
+		final String pk;
+		final List<String> tempTables;
+		/** The number of temporary tables used so far by this compile */
+		int idTables = 0;
+
+		Context(GeoPackage geoPackage, FeaturesTable featTable, List<String> tempTables) throws Exception {
+			this.geoPackage = geoPackage;
+			this.featTable = featTable;
+			this.table = featTable.getTableName();
+			this.pk = featTable.getPrimaryKey(geoPackage);
+			this.tempTables = tempTables;
+		}
+		/** Get a column name qualified with the table name
+		 *
+		 * @param column
+		 * @return
+		 * @throws Exception If the column is not on the table
+		 */
+		String column(String column) throws Exception {
+			if (column==null || featTable.getField(column)==null)
+				throw new Exception("Column "+column+" does not exist on table "+table );
+			return "["+table+"].["+column+"]";
+		}
+		/** The qualified primary key column */
+		String primaryKey() {
+			return "["+table+"].["+pk+"]";
+		}
+		/** Fill the next temporary table with a set of primary keys. The table is
+		 * created if it does not exist, and emptied if it does.
+		 * 
+		 * @param ids
+		 * @return The qualified name of the table, which has a single 'id' column
+		 */
+		String createIdTable(List<Integer> ids) {
+			String name = ID_TABLE+(idTables++);
+			geoPackage.getDatabase().execSQL("CREATE TEMP TABLE IF NOT EXISTS ["+name+"] (id INTEGER PRIMARY KEY)");
+			geoPackage.getDatabase().execSQL("DELETE FROM temp.["+name+"]");
+			if (tempTables!=null) tempTables.add(name);
+			if (ids.size()==0) return "temp.["+name+"]";
+
+			List<Map<String, Object>> values = new ArrayList<Map<String, Object>>(ids.size());
+			for (Integer id : ids) {
+				Map<String, Object> v = new HashMap<String, Object>();
+				v.put("id", id);
+				values.add(v);
+			}
+			geoPackage.getDatabase().doInsert("temp.["+name+"]", values);
+			return "temp.["+name+"]";
+		}
+	}
+
+	static class Comparison extends GpkgFilter {
+		final String column;
+		final String operator;
+		final Object value;
+
+		Comparison(String column, String operator, Object value) {
+			this.column = column;
+			this.operator = operator;
+			this.value = value;
+		}
+		@Override
+		void append(Context ctx, StringBuffer sql, List<Object> args) throws Exception {
+			sql.append(ctx.column(column));
+			if (value==null) {
+				sql.append(operator.equals(EQ) ? " IS NULL" : " IS NOT NULL");
+			} else {
+				sql.append(" ").append(operator).append(" ?");
+				args.add( toSQLValue(value) );
+			}
+		}
+	}
+
+	static class In extends GpkgFilter {
+		final String column;
+		final List<Object> values;
+
+		In(String column, List<Object> values) {
+			this.column = column;
+			this.values = Collections.unmodifiableList( new ArrayList<Object>(values) );
+		}
+		@Override
+		void append(Context ctx, StringBuffer sql, List<Object> args) throws Exception {
+			String col = ctx.column(column);
+			if (values.size()==0) {
+				sql.append("1=0");
+				return;
+			}
+			sql.append(col).append(" IN (");
+			for (Object v : values) {
+				sql.append("?,");
+				args.add( toSQLValue(v) );
+			}
+			sql.setCharAt(sql.length()-1, ')');
+		}
+	}
+
+	static class Like extends GpkgFilter {
+		final String column;
+		final String pattern;
+
+		Like(String column, String pattern) {
+			this.column = column;
+			this.pattern = pattern;
+		}
+		@Override
+		void append(Context ctx, StringBuffer sql, List<Object> args) throws Exception {
+			sql.append(ctx.column(column)).append(" LIKE ?");
+			args.add(pattern);
+		}
+	}
+
+	static class BBox extends GpkgFilter {
+		final BoundingBox bbox;
+		final boolean includeIntersect;
+
+		BBox(BoundingBox bbox, boolean includeIntersect) {
+			this.bbox = bbox;
+			this.includeIntersect = includeIntersect;
+		}
+		@Override
+		void append(Context ctx, StringBuffer sql, List<Object> args) throws Exception {
+
+			// A different SRS would never match (and is logged)
+			if (!ctx.geoPackage.checkBBOXAgainstLast(ctx.featTable, bbox, includeIntersect, true)) {
+				sql.append("1=0");
+				return;
+			}
+
+			GeometryInfo gi = ctx.featTable.getGeometryInfo();
+
+			if (ctx.geoPackage.getDatabase().hasRTreeEnabled() && gi.hasSpatialIndex()) {
+
+				sql.append(ctx.primaryKey()).append(" IN (SELECT id FROM [rtree_");
+				sql.append(ctx.table).append("_").append(gi.getColumnName()).append("] WHERE ");
+				if (includeIntersect) {
+					sql.append("minx<=? AND maxx>=? AND miny<=? AND maxy>=?)");
+					args.add(bbox.getMaxX());
+					args.add(bbox.getMinX());
+					args.add(bbox.getMaxY());
+					args.add(bbox.getMinY());
+				} else {
+					// Within the box, or containing it
+					sql.append("(minx>=? AND maxx<=? AND miny>=? AND maxy<=?) OR ");
+					sql.append("(minx<=? AND maxx>=? AND miny<=? AND maxy>=?))");
+					for (int i=0; i<2; i++) {
+						args.add(bbox.getMinX());
+						args.add(bbox.getMaxX());
+						args.add(bbox.getMinY());
+						args.add(bbox.getMaxY());
+					}
+				}
+				return;
+			}
+
+			/* No spatial index, so test each geometry header and select the matching 
+			 * records by primary key. The keys always go through a temporary table so 
+			 * the SQL does not depend on how many there are */
+			List<Integer> ids = ctx.geoPackage.getFeatureIDs(ctx.featTable, bbox, includeIntersect,
+					new StandardGeometryDecoder() );
+			sql.append(ctx.primaryKey()).append(" IN (SELECT id FROM ");
+			sql.append( ctx.createIdTable(ids) ).append(")");
+		}
+	}
+
+	static class Logical extends GpkgFilter {
+		final String operator;
+		final List<GpkgFilter> filters;
+
+		Logical(String operator, List<GpkgFilter> filters) {
+			this.operator = operator;
+			this.filters = Collections.unmodifiableList( new ArrayList<GpkgFilter>(filters) );
+		}
+		@Override
+		void append(Context ctx, StringBuffer sql, List<Object> args) throws Exception {
+			if (filters.size()==0) {
+				sql.append(operator.equals("AND") ? "1=1" : "1=0");
+				return;
+			}
+			for (int i=0; i<filters.size(); i++) {
+				if (i>0) sql.append(" ").append(operator).append(" ");
+				sql.append("(");
+				filters.get(i).append(ctx, sql, args);
+				sql.append(")");
+			}
+		}
+	}
+}
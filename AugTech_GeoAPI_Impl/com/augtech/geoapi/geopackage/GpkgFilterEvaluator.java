@@ -0,0 +1,710 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geopackage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Id;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsBetween;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.augtech.geoapi.feature.SimpleFeatureImpl;
+import com.augtech.geoapi.geometry.BoundingBoxImpl;
+import com.augtech.geoapi.geopackage.geometry.GeometryDecoder;
+import com.augtech.geoapi.geopackage.table.FeaturesTable;
+import com.augtech.geoapi.geopackage.table.FeaturesTable.GeometryInfo;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/** Evaluates GeoAPI {@link Filter}'s against a GeoPackage feature table.<p>
+ * The filter is split in to a part that can be run in SQL (as a {@link GpkgFilter}) and
+ * a residual part that is evaluated in Java on the features the query returns. Attribute
+ * comparisons, IS NULL, BETWEEN, LIKE, feature ID's and BBOX's are run in SQL. Anything
+ * else, such as NOT, other spatial operators or functions, is left to the Filter's own
+ * {@link Filter#evaluate(Object)}, other than BBOX which is tested against the feature's
+ * envelope.<p>
+ * When the top level of the filter has both a BBOX and a feature ID filter, the one
+ * estimated to match the fewest records drives the query:<ul>
+ * <li>{@link Access#FID} - the feature ID's are selected using the primary key or the
+ * unique <code>&lt;table&gt;_fid</code> index and any BBOX is tested in Java.
+ * <li>{@link Access#RTREE} - the BBOX uses the table's R-Tree spatial index.
+ * <li>{@link Access#SCAN} - the table is read in full. A selective BBOX is tested
+ * against each geometry header first, otherwise it is tested in Java.
+ * </ul>
+ * The BBOX estimate is the proportion of the table extent (from gpkg_contents) covered
+ * by the box, and the feature ID estimate is the number of ID's over the record count.<p>
+ * Each BBOX's SRS is checked against the table's once, when the filter is planned. A
+ * BBOX without an SRS is taken to be in the table's SRS, and one in a different SRS never
+ * matches (re-projection is not supported), whether it is run in SQL or in Java.
+ *
+ * @author Augmented Technologies Ltd.
+ * @see GeoPackage#getFeatures(String, Filter, String[], GeometryDecoder)
+ */
+public class GpkgFilterEvaluator {
+	/** The default for {@link #setHeaderScanSelectivity(double)} */
+	public static final double DEFAULT_HEADER_SCAN_SELECTIVITY = 0.5;
+
+	/** How the feature table is accessed for a query */
+	public enum Access {
+		/** Read the whole table */
+		SCAN,
+		/** Select by feature ID */
+		FID,
+		/** Use the R-Tree spatial index */
+		RTREE
+	}
+
+	private GeoPackage geoPackage;
+	private FeaturesTable featTable;
+	private GeometryInfo geomInfo;
+	private String featureIDField;
+	private String pk;
+	private double headerScanSelectivity = DEFAULT_HEADER_SCAN_SELECTIVITY;
+
+	/** Create a new evaluator for a feature table
+	 *
+	 * @param geoPackage The GeoPackage holding the table
+	 * @param featTable The table to query
+	 * @throws Exception
+	 */
+	public GpkgFilterEvaluator(GeoPackage geoPackage, FeaturesTable featTable) throws Exception {
+		this.geoPackage = geoPackage;
+		this.featTable = featTable;
+		this.geomInfo = featTable.getGeometryInfo();
+		this.featureIDField = featTable.getFeatureIDField();
+		this.pk = featTable.getPrimaryKey(geoPackage);
+	}
+	/** Set the proportion of a table without a spatial index that a BBOX can cover
+	 * and still be tested against each geometry header before the features are read.
+	 * A BBOX covering more is tested in Java on the features instead. 
+	 * Default is {@link #DEFAULT_HEADER_SCAN_SELECTIVITY}
+	 *
+	 * @param selectivity Between 0 and 1
+	 */
+	public void setHeaderScanSelectivity(double selectivity) {
+		if (selectivity<0 || selectivity>1) throw new IllegalArgumentException("Selectivity must be between 0 and 1");
+		this.headerScanSelectivity = selectivity;
+	}
+	/** Get the features matching a filter
+	 *
+	 * @param filter The filter to apply. <code>Null</code> is the same as {@link Filter#INCLUDE}
+	 * @param columns The column names to read, or <code>Null</code> for all columns. Any
+	 * columns needed to evaluate the residual filter are also read.
+	 * @param geomDecoder The type of {@linkplain GeometryDecoder} to use.
+	 * @return A list of SimpleFeature's or an empty list if none were found
+	 * @throws Exception
+	 */
+	public List<SimpleFeature> getFeatures(Filter filter, String[] columns, GeometryDecoder geomDecoder)
+			throws Exception {
+
+		Plan plan = plan(filter);
+		geoPackage.log.log(Level.INFO, "Filter plan for "+featTable.getTableName()+": "+plan);
+
+		if (plan.isExclude()) return new ArrayList<SimpleFeature>();
+
+		List<SimpleFeature> feats = geoPackage.getFeatures(featTable.getTableName(), plan.getSQLFilter(),
+				getColumns(columns, plan.getResidual()), geomDecoder);
+		if (plan.getResidual().size()==0) return feats;
+
+		// Test the residual filters in Java
+		List<SimpleFeature> matched = new ArrayList<SimpleFeature>();
+		for (SimpleFeature sf : feats) {
+			if (plan.evaluate(sf)) matched.add(sf);
+		}
+		return matched;
+	}
+	/** Split a filter in to the SQL and residual parts and choose how the table
+	 * is accessed.
+	 *
+	 * @param filter The filter. <code>Null</code> is the same as {@link Filter#INCLUDE}
+	 * @return The {@link Plan}
+	 * @throws Exception
+	 */
+	public Plan plan(Filter filter) throws Exception {
+		Plan plan = new Plan();
+
+		List<Filter> conjuncts = new ArrayList<Filter>();
+		if (filter!=null) addConjuncts(filter, conjuncts);
+		for (Filter f : conjuncts) resolveBounds(f, plan);
+
+		List<GpkgFilter> sql = new ArrayList<GpkgFilter>();
+		List<BBOX> bboxes = new ArrayList<BBOX>();
+		List<GpkgFilter> fids = new ArrayList<GpkgFilter>();
+		int fidCount = Integer.MAX_VALUE;
+
+		for (Filter f : conjuncts) {
+
+			if (f==Filter.INCLUDE) continue;
+			if (f==Filter.EXCLUDE) {
+				plan.exclude = true;
+				return plan;
+			}
+
+			if (f instanceof BBOX && plan.bboxBounds.containsKey(f)) {
+				if (plan.bboxBounds.get(f)==null) {
+					plan.exclude = true;
+					return plan;
+				}
+				bboxes.add((BBOX) f);
+				continue;
+			}
+
+			if (f instanceof Id) {
+				GpkgFilter fidFilter = toSQL(f, plan);
+				if (fidFilter!=null) {
+					fids.add(fidFilter);
+					fidCount = Math.min(fidCount, ((Id)f).getIDs().size());
+					continue;
+				}
+			}
+
+			GpkgFilter gf = toSQL(f, plan);
+			if (gf!=null) {
+				sql.add(gf);
+			} else if (f instanceof PropertyIsLike && ((PropertyIsLike)f).isMatchingCase()) {
+				// SQLite's LIKE ignores case, so use it to narrow the query and check the case in Java
+				gf = likeToSQL((PropertyIsLike) f);
+				if (gf!=null) sql.add(gf);
+				plan.residual.add(f);
+			} else {
+				plan.residual.add(f);
+			}
+		}
+
+		sql.addAll(fids);
+
+		// Estimate the proportion of the table each access path would return
+		double fidSelectivity = 1.0;
+		if (fids.size()>0) {
+			int count = featTable.getCount(geoPackage);
+			fidSelectivity = count>0 ? Math.min(1.0, (double)fidCount / count) : 0.0;
+		}
+		double bboxSelectivity = 1.0;
+		for (BBOX b : bboxes) bboxSelectivity = Math.min(bboxSelectivity, getSelectivity(plan.bboxBounds.get(b)));
+
+		if (fids.size()>0 && (bboxes.size()==0 || fidSelectivity <= bboxSelectivity)) {
+
+			plan.access = Access.FID;
+			plan.selectivity = fidSelectivity;
+			plan.residual.addAll(bboxes);
+
+		} else if (bboxes.size()>0) {
+
+			plan.selectivity = bboxSelectivity;
+			if (geoPackage.getDatabase().hasRTreeEnabled() && geomInfo.hasSpatialIndex()) {
+				plan.access = Access.RTREE;
+				for (BBOX b : bboxes) sql.add( toSQL(b, plan) );
+			} else if (bboxSelectivity <= headerScanSelectivity) {
+				for (BBOX b : bboxes) sql.add( toSQL(b, plan) );
+			} else {
+				plan.residual.addAll(bboxes);
+			}
+
+		} else {
+			plan.selectivity = fidSelectivity;
+		}
+
+		if (sql.size()==1) {
+			plan.sqlFilter = sql.get(0);
+		} else if (sql.size()>1) {
+			plan.sqlFilter = GpkgFilter.and( sql.toArray(new GpkgFilter[sql.size()]) );
+		}
+
+		return plan;
+	}
+	/** Flatten nested And's in to a list of filters that must all pass
+	 *
+	 * @param filter
+	 * @param conjuncts
+	 */
+	private static void addConjuncts(Filter filter, List<Filter> conjuncts) {
+		if (filter instanceof And) {
+			for (Filter f : ((And)filter).getChildren()) addConjuncts(f, conjuncts);
+		} else {
+			conjuncts.add(filter);
+		}
+	}
+	/** Check the SRS of each BBOX on the geometry within a filter against the table,
+	 * recording the bounds to use in the table's SRS or <code>Null</code> if the BBOX
+	 * can never match. A BBOX without bounds is not recorded and is left to its own
+	 * {@link Filter#evaluate(Object)}.
+	 *
+	 * @param filter
+	 * @param plan The plan to record the bounds on
+	 */
+	private void resolveBounds(Filter filter, Plan plan) {
+		if (filter instanceof BinaryLogicOperator) {
+			for (Filter f : ((BinaryLogicOperator)filter).getChildren()) resolveBounds(f, plan);
+		} else if (filter instanceof Not) {
+			resolveBounds( ((Not)filter).getFilter(), plan );
+		} else if (filter instanceof BBOX && isGeometry( ((BBOX)filter).getExpression1() )) {
+			BBOX bbox = (BBOX) filter;
+			if (plan.bboxBounds.containsKey(bbox)) return;
+			BoundingBox bounds = getBounds(bbox);
+			if (bounds!=null) plan.bboxBounds.put(bbox, toTableSRS(bounds));
+		}
+	}
+	/** Convert a filter to a GpkgFilter that matches exactly the same records
+	 *
+	 * @param filter
+	 * @param plan The plan holding the resolved BBOX bounds
+	 * @return The GpkgFilter or <code>Null</code> if the filter can not be run in SQL
+	 * @throws Exception
+	 */
+	GpkgFilter toSQL(Filter filter, Plan plan) throws Exception {
+
+		if (filter==Filter.INCLUDE) return GpkgFilter.and();
+		if (filter==Filter.EXCLUDE) return GpkgFilter.or();
+
+		if (filter instanceof And || filter instanceof Or) {
+			List<Filter> children = ((BinaryLogicOperator)filter).getChildren();
+			GpkgFilter[] sql = new GpkgFilter[children.size()];
+			for (int i=0; i<sql.length; i++) {
+				sql[i] = toSQL(children.get(i), plan);
+				if (sql[i]==null) return null;
+			}
+			return filter instanceof And ? GpkgFilter.and(sql) : GpkgFilter.or(sql);
+		}
+
+		if (filter instanceof BinaryComparisonOperator) {
+			BinaryComparisonOperator bco = (BinaryComparisonOperator) filter;
+			String op = getOperator(bco);
+			if (op==null) return null;
+
+			// Property on the left, or swap the operator
+			String column = getColumn(bco.getExpression1());
+			Object value = getValue(bco.getExpression2());
+			if (column==null) {
+				column = getColumn(bco.getExpression2());
+				value = getValue(bco.getExpression1());
+				op = op.equals(GpkgFilter.LT) ? GpkgFilter.GT
+						: op.equals(GpkgFilter.GT) ? GpkgFilter.LT
+						: op.equals(GpkgFilter.LE) ? GpkgFilter.GE
+						: op.equals(GpkgFilter.GE) ? GpkgFilter.LE : op;
+			}
+			if (column==null || value==null) return null;
+
+			// SQLite compares text with case
+			if (value instanceof String && !bco.isMatchingCase()) return null;
+
+			// A Null property is not equal to the value, but SQL's <> would drop it
+			if (op.equals(GpkgFilter.NE)) {
+				return GpkgFilter.or( GpkgFilter.compare(column, op, value), GpkgFilter.equal(column, null) );
+			}
+			return GpkgFilter.compare(column, op, value);
+		}
+
+		if (filter instanceof PropertyIsNull) {
+			String column = getColumn( ((PropertyIsNull)filter).getExpression() );
+			return column==null ? null : GpkgFilter.equal(column, null);
+		}
+
+		if (filter instanceof PropertyIsBetween) {
+			PropertyIsBetween pib = (PropertyIsBetween) filter;
+			String column = getColumn( pib.getExpression() );
+			Object lower = getValue( pib.getLowerBoundary() );
+			Object upper = getValue( pib.getUpperBoundary() );
+			if (column==null || lower==null || upper==null) return null;
+			return GpkgFilter.and(
+					GpkgFilter.compare(column, GpkgFilter.GE, lower),
+					GpkgFilter.compare(column, GpkgFilter.LE, upper) );
+		}
+
+		if (filter instanceof PropertyIsLike) {
+			PropertyIsLike pil = (PropertyIsLike) filter;
+			return pil.isMatchingCase() ? null : likeToSQL(pil);
+		}
+
+		if (filter instanceof BBOX) {
+			if (!plan.bboxBounds.containsKey(filter)) return null;
+			BoundingBox bounds = plan.bboxBounds.get(filter);
+			return bounds==null ? GpkgFilter.or() : GpkgFilter.bbox(bounds, true);
+		}
+
+		if (filter instanceof Id) {
+			return idToSQL( (Id)filter );
+		}
+
+		return null;
+	}
+	/** Convert a LIKE filter to an SQL LIKE, which ignores case
+	 *
+	 * @param pil
+	 * @return The GpkgFilter or <code>Null</code> if the pattern can not be converted
+	 * @throws Exception
+	 */
+	private GpkgFilter likeToSQL(PropertyIsLike pil) throws Exception {
+		String column = getColumn( pil.getExpression() );
+		String pattern = pil.getLiteral();
+		String wild = pil.getWildCard();
+		String single = pil.getSingleChar();
+		String escape = pil.getEscape();
+		if (column==null || pattern==null || wild==null || single==null || escape==null ||
+				wild.length()!=1 || single.length()!=1 || escape.length()!=1) return null;
+
+		StringBuffer like = new StringBuffer();
+		for (int i=0; i<pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c==escape.charAt(0)) {
+				if (++i==pattern.length()) return null;
+				c = pattern.charAt(i);
+				// A literal % or _ would need an SQL escape
+				if (c=='%' || c=='_') return null;
+				like.append(c);
+			} else if (c==wild.charAt(0)) {
+				like.append('%');
+			} else if (c==single.charAt(0)) {
+				like.append('_');
+			} else if (c=='%' || c=='_') {
+				return null;
+			} else {
+				like.append(c);
+			}
+		}
+		return GpkgFilter.like(column, like.toString());
+	}
+	/** Convert feature ID's to a primary key or feature ID column IN
+	 *
+	 * @param id
+	 * @return The GpkgFilter or <code>Null</code> if there is no primary key
+	 */
+	private GpkgFilter idToSQL(Id id) {
+
+		if (featureIDField.equals("id")) {
+
+			// Feature ID's are built as tableName.pk
+			if (pk.equals("rowid")) return null;
+			String prefix = featTable.getTableName()+".";
+			List<Object> keys = new ArrayList<Object>();
+			for (Object fid : id.getIDs()) {
+				String s = String.valueOf(fid);
+				if (!s.startsWith(prefix)) continue;
+				try {
+					keys.add( Integer.valueOf( s.substring(prefix.length()) ) );
+				} catch (NumberFormatException e) {
+					// Can't match any record
+				}
+			}
+			return GpkgFilter.in(pk, keys.toArray());
+		}
+
+		List<Object> fids = new ArrayList<Object>();
+		for (Object fid : id.getIDs()) fids.add( String.valueOf(fid) );
+		return GpkgFilter.in(featureIDField, fids.toArray());
+	}
+	/** Get the SQL operator for a comparison
+	 *
+	 * @param bco
+	 * @return
+	 */
+	private static String getOperator(BinaryComparisonOperator bco) {
+		if (bco instanceof PropertyIsEqualTo) return GpkgFilter.EQ;
+		if (bco instanceof PropertyIsNotEqualTo) return GpkgFilter.NE;
+		if (bco instanceof PropertyIsLessThan) return GpkgFilter.LT;
+		if (bco instanceof PropertyIsLessThanOrEqualTo) return GpkgFilter.LE;
+		if (bco instanceof PropertyIsGreaterThan) return GpkgFilter.GT;
+		if (bco instanceof PropertyIsGreaterThanOrEqualTo) return GpkgFilter.GE;
+		return null;
+	}
+	/** Get the column an expression refers to
+	 *
+	 * @param expr
+	 * @return The column name, or <code>Null</code> if not a property of a non-geometry
+	 * column on this table
+	 */
+	private String getColumn(Expression expr) {
+		if (!(expr instanceof PropertyName)) return null;
+		String name = ((PropertyName)expr).getPropertyName();
+		if (name==null || name.equals(geomInfo.getColumnName()) || featTable.getField(name)==null) return null;
+		return name;
+	}
+	/** Get the value of a literal that can be bound to an SQL parameter
+	 *
+	 * @param expr
+	 * @return The value, or <code>Null</code> if not a suitable literal
+	 */
+	private static Object getValue(Expression expr) {
+		if (!(expr instanceof Literal)) return null;
+		Object value = ((Literal)expr).getValue();
+		if (value instanceof Number || value instanceof String ||
+				value instanceof Boolean || value instanceof Date) return value;
+		return null;
+	}
+	/** Is the expression the geometry (or the default geometry if <code>Null</code>)?
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private boolean isGeometry(Expression expr) {
+		if (expr==null) return true;
+		if (!(expr instanceof PropertyName)) return false;
+		String name = ((PropertyName)expr).getPropertyName();
+		return name==null || name.equals("") || name.equals(geomInfo.getColumnName());
+	}
+	/** Get the bounds of a BBOX filter
+	 *
+	 * @param bbox
+	 * @return The bounds, or <code>Null</code> if they are not available
+	 */
+	private static BoundingBox getBounds(BBOX bbox) {
+		BoundingBox bounds = bbox.getBounds();
+		if (bounds==null && bbox.getExpression2() instanceof Literal) {
+			Object value = ((Literal)bbox.getExpression2()).getValue();
+			if (value instanceof BoundingBox) bounds = (BoundingBox) value;
+		}
+		return bounds;
+	}
+	/** Get bounds in the table's SRS. Bounds without an SRS are taken to be in
+	 * the table's SRS.
+	 *
+	 * @param bounds
+	 * @return The bounds, or <code>Null</code> if they are in a different SRS
+	 */
+	private BoundingBox toTableSRS(BoundingBox bounds) {
+		BoundingBox tableBounds = featTable.getBounds();
+		if (tableBounds==null || tableBounds.getCoordinateReferenceSystem()==null) return bounds;
+
+		CoordinateReferenceSystem tableCRS = tableBounds.getCoordinateReferenceSystem();
+		CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
+		if (crs!=null && crs.getName()!=null && !getCode(crs).equalsIgnoreCase(getCode(tableCRS))) {
+			geoPackage.log.log(Level.WARNING, "BBOX SRS "+crs.getName()+" does not match table "+
+					featTable.getTableName()+" SRS");
+			return null;
+		}
+		return new BoundingBoxImpl(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY(), tableCRS);
+	}
+	/** Get the code of an SRS without any authority, i.e. 4326 from EPSG:4326
+	 *
+	 * @param crs
+	 * @return
+	 */
+	private static String getCode(CoordinateReferenceSystem crs) {
+		String code = crs.getName().getCode();
+		return code.substring(code.lastIndexOf(':')+1);
+	}
+	/** Estimate the proportion of the table a BBOX will match from the table extent
+	 *
+	 * @param bounds The BBOX bounds in the table's SRS
+	 * @return Between 0 and 1
+	 */
+	private double getSelectivity(BoundingBox bounds) {
+		BoundingBox tb = featTable.getBounds();
+		if (tb==null || tb.isEmpty()) return 1.0;
+
+		Envelope tableEnv = new Envelope(tb.getMinX(), tb.getMaxX(), tb.getMinY(), tb.getMaxY());
+		double tableArea = tableEnv.getWidth() * tableEnv.getHeight();
+		if (tableArea==0) return 1.0;
+
+		Envelope query = new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY());
+		Envelope overlap = tableEnv.intersection(query);
+		return overlap.isNull() ? 0.0 : overlap.getWidth() * overlap.getHeight() / tableArea;
+	}
+	/** Get the columns to query, including any needed by the residual filters
+	 *
+	 * @param columns The requested columns, or <code>Null</code>
+	 * @param residual
+	 * @return The columns, or <code>Null</code> for all columns
+	 */
+	private String[] getColumns(String[] columns, List<Filter> residual) {
+		if (columns==null || residual.size()==0) return columns;
+
+		Set<String> cols = new LinkedHashSet<String>();
+		Collections.addAll(cols, columns);
+		for (Filter f : residual) {
+			if (!addProperties(f, cols)) return null;
+		}
+		return cols.toArray(new String[cols.size()]);
+	}
+	/** Add the property names a filter uses to a set
+	 *
+	 * @param filter
+	 * @param cols
+	 * @return False if the properties could not be determined
+	 */
+	private boolean addProperties(Filter filter, Set<String> cols) {
+
+		if (filter instanceof BinaryLogicOperator) {
+			for (Filter f : ((BinaryLogicOperator)filter).getChildren()) {
+				if (!addProperties(f, cols)) return false;
+			}
+			return true;
+		} else if (filter instanceof Not) {
+			return addProperties( ((Not)filter).getFilter(), cols );
+		} else if (filter instanceof Id) {
+			return true;
+		}
+
+		List<Expression> exprs = new ArrayList<Expression>();
+		if (filter instanceof BinaryComparisonOperator) {
+			exprs.add( ((BinaryComparisonOperator)filter).getExpression1() );
+			exprs.add( ((BinaryComparisonOperator)filter).getExpression2() );
+		} else if (filter instanceof PropertyIsNull) {
+			exprs.add( ((PropertyIsNull)filter).getExpression() );
+		} else if (filter instanceof PropertyIsBetween) {
+			exprs.add( ((PropertyIsBetween)filter).getExpression() );
+			exprs.add( ((PropertyIsBetween)filter).getLowerBoundary() );
+			exprs.add( ((PropertyIsBetween)filter).getUpperBoundary() );
+		} else if (filter instanceof PropertyIsLike) {
+			exprs.add( ((PropertyIsLike)filter).getExpression() );
+		} else if (filter instanceof BBOX) {
+			cols.add( geomInfo.getColumnName() );
+			return true;
+		} else {
+			return false;
+		}
+
+		for (Expression e : exprs) {
+			if (e instanceof Literal) continue;
+			if (!(e instanceof PropertyName)) return false;
+			String name = ((PropertyName)e).getPropertyName();
+			if (featTable.getField(name)==null) return false;
+			cols.add(name);
+		}
+		return true;
+	}
+	/** The result of planning a filter against a table */
+	public static class Plan {
+		private boolean exclude = false;
+		private Access access = Access.SCAN;
+		private double selectivity = 1.0;
+		private GpkgFilter sqlFilter = null;
+		private List<Filter> residual = new ArrayList<Filter>();
+		/** The bounds of each BBOX in the table's SRS, or Null if it can't match */
+		private Map<BBOX, BoundingBox> bboxBounds = new IdentityHashMap<BBOX, BoundingBox>();
+
+		/** Does the filter exclude all features?
+		 *
+		 * @return
+		 */
+		public boolean isExclude() {
+			return exclude;
+		}
+		/** Get how the table will be accessed
+		 *
+		 * @return
+		 */
+		public Access getAccess() {
+			return access;
+		}
+		/** Get the estimated proportion of the table the access path will read
+		 *
+		 * @return Between 0 and 1
+		 */
+		public double getSelectivity() {
+			return selectivity;
+		}
+		/** Get the part of the filter run in SQL
+		 *
+		 * @return The GpkgFilter, or <code>Null</code> if no part of the filter can
+		 * be run in SQL
+		 */
+		public GpkgFilter getSQLFilter() {
+			return sqlFilter;
+		}
+		/** Get the filters that must be evaluated in Java on each feature returned
+		 * by the SQL query.
+		 *
+		 * @return
+		 */
+		public List<Filter> getResidual() {
+			return residual;
+		}
+		/** Test a feature passes all of the residual filters
+		 *
+		 * @param feature
+		 * @return
+		 */
+		public boolean evaluate(SimpleFeature feature) {
+			for (Filter f : residual) {
+				if (!evaluate(f, feature)) return false;
+			}
+			return true;
+		}
+		/** Test a feature against a filter. BBOX's are tested against the feature
+		 * envelope (without decoding lazy geometries) using the bounds resolved when
+		 * planning, others use {@link Filter#evaluate(Object)}
+		 *
+		 * @param filter
+		 * @param feature
+		 * @return
+		 */
+		boolean evaluate(Filter filter, SimpleFeature feature) {
+
+			if (filter instanceof And) {
+				for (Filter f : ((And)filter).getChildren()) {
+					if (!evaluate(f, feature)) return false;
+				}
+				return true;
+			} else if (filter instanceof Or) {
+				for (Filter f : ((Or)filter).getChildren()) {
+					if (evaluate(f, feature)) return true;
+				}
+				return false;
+			} else if (filter instanceof Not) {
+				return !evaluate( ((Not)filter).getFilter(), feature );
+			} else if (filter instanceof BBOX && bboxBounds.containsKey(filter)) {
+				BoundingBox bounds = bboxBounds.get(filter);
+				if (bounds==null) return false;
+
+				Envelope env = null;
+				if (feature instanceof SimpleFeatureImpl) {
+					env = ((SimpleFeatureImpl)feature).getEnvelope();
+				} else if (feature.getDefaultGeometry() instanceof Geometry) {
+					env = ((Geometry)feature.getDefaultGeometry()).getEnvelopeInternal();
+				}
+				if (env==null || env.isNull()) return false;
+
+				Envelope query = new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY());
+				return query.intersects(env);
+			}
+
+			return filter.evaluate(feature);
+		}
+		@Override
+		public String toString() {
+			return exclude ? "EXCLUDE" : access+" (selectivity "+selectivity+"), "+
+					(sqlFilter!=null ? "SQL filter, " : "no SQL filter, ")+residual.size()+" residual filter(s)";
+		}
+	}
+}
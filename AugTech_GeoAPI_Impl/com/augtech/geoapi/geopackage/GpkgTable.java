@@ -367,11 +367,27 @@ public abstract class GpkgTable {
 	 * @throws Exception 
 	 */
 	public GpkgRecords rawQuery(GeoPackage geoPackage, String sqlStmt) throws Exception {
+		return rawQuery(geoPackage, sqlStmt, null);
+	}
+	/** Get a list of GpkgRecords from this table using a full SQL statement with '?' 
+	 * parameters, binding the supplied values to them.
+	 * 
+	 * @param geoPackage The GeoPackage to query
+	 * @param sqlStmt A valid SQL statement. (No checks are performed on this)
+	 * @param args The values to bind to the statement parameters, or <code>Null</code>
+	 * if the statement has no parameters.
+	 * @return A list containing a map of {@link GpkgField}. Each member of the list
+	 * is one record. If the query could not be executed then an empty list is returned.
+	 * @throws Exception
+	 * @see ISQLDatabase#doRawQuery(String, Object[])
+	 */
+	public GpkgRecords rawQuery(GeoPackage geoPackage, String sqlStmt, Object[] args) throws Exception {
 
 		// Populate field info (only applicable for non-system tables)
 		getContents(geoPackage);
 
-		ICursor cur = geoPackage.getDatabase().doRawQuery(sqlStmt);
+		ICursor cur = args==null ? geoPackage.getDatabase().doRawQuery(sqlStmt) 
+				: geoPackage.getDatabase().doRawQuery(sqlStmt, args);
 
 		
 		Map<String, Integer> fieldIdx = new HashMap<String, Integer>();
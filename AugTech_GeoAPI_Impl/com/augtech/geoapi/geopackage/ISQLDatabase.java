@@ -54,6 +54,16 @@ public interface ISQLDatabase {
 	 * @return A ICursor of the results
 	 */
 	public ICursor doRawQuery(String sql);
+	/** Execute a raw SQL statement that returns a result, binding the supplied values
+	 * to the '?' parameters in the statement. Implementations may cache the compiled
+	 * statement against the SQL text, so the same text should be used for repeated queries.
+	 * 
+	 * @param sql The SQL statement to execute
+	 * @param args The values to bind, in order. These should be Integer, Long, Double,
+	 * String, Boolean or byte[] and must not be Null.
+	 * @return A ICursor of the results
+	 */
+	public ICursor doRawQuery(String sql, Object[] args);
 	/** Execute a raw SQL statement that does not return a result
 	 * 
 	 * @param sql The SQL statement to execute
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geopackage;
+
+/** Platform specific image handling used to build lower zoom levels of a
+ * tile pyramid from the tiles beneath them.<p>
+ * Implementations are called from multiple worker threads at once, so must
+ * not hold state between calls.
+ *
+ */
+public interface ITileSampler {
+
+	/** Combine four child tiles in to a single image and scale it down
+	 * to one parent tile.
+	 *
+	 * @param children The encoded child tiles ordered top-left, top-right,
+	 * bottom-left, bottom-right. Any of these may be Null where the child tile does not exist.
+	 * @param tileWidth The width in pixels of the parent tile
+	 * @param tileHeight The height in pixels of the parent tile
+	 * @return The encoded (PNG or JPEG) parent tile, or Null if it could not be created
+	 */
+	public byte[] downsample(byte[][] children, int tileWidth, int tileHeight);
+}
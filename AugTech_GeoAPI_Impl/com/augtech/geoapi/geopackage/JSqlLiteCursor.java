@@ -97,6 +97,17 @@ public class JSqlLiteCursor implements com.augtech.geoapi.geopackage.ICursor {
 		return 0;
 	}
 
+	@Override
+	public long getLong(int columnIndex) {
+		if (results==null) return 0;
+		try {
+			return results.getLong(columnIndex + colOffset);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return 0;
+	}
+
 	@Override
 	public int getColumnCount() {
 		if (results==null) return -1;
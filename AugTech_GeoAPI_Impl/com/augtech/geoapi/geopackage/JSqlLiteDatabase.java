@@ -6,9 +6,12 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,6 +30,24 @@ public class JSqlLiteDatabase implements com.augtech.geoapi.geopackage.ISQLDatab
 	File dbFile = null;
 	Connection connection = null;
 	static final boolean ONE_BASED = true;
+	/** The maximum number of prepared statements kept by {@link #doRawQuery(String, Object[])} */
+	static final int STATEMENT_CACHE_SIZE = 32;
+	/** Prepared statements by SQL text that are not in use, least recently used first.
+	 * A statement is taken out while its cursor is open and put back when it is closed. */
+	private final Map<String, PreparedStatement> statementCache = 
+			new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() <= STATEMENT_CACHE_SIZE) return false;
+			try {
+				eldest.getValue().close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+			return true;
+		}
+	};
 	/**
 	 * 
 	 * @param dbFile
@@ -63,6 +84,7 @@ public class JSqlLiteDatabase implements com.augtech.geoapi.geopackage.ISQLDatab
 		// create a database connection
 		try {
 			if (connection==null || connection.isClosed() ) {
+				clearStatementCache();
 				connection = DriverManager.getConnection("jdbc:sqlite:"+dbFile.toString());
 			}
 			if (connection.isReadOnly() && writeable) connection.setReadOnly(false);
@@ -120,6 +142,109 @@ public class JSqlLiteDatabase implements com.augtech.geoapi.geopackage.ISQLDatab
 		
 		return new JSqlLiteCursor( );
 	}
+	/** {@inheritDoc}<p>
+	 * The prepared statement is kept for re-use once the returned cursor is closed. 
+	 * If the same SQL is run again while a cursor from it is still open a new 
+	 * statement is prepared.
+	 * 
+	 * @throws IllegalArgumentException If an argument can not be bound to the statement
+	 */
+	@Override
+	public ICursor doRawQuery(String sql, Object[] args) {
+		getDatabase(true);
+		PreparedStatement preparedStatement = null;
+		try {
+			
+			synchronized (statementCache) {
+				preparedStatement = statementCache.remove(sql);
+			}
+			if (preparedStatement==null) preparedStatement = connection.prepareStatement( sql );
+			preparedStatement.clearParameters();
+			
+			if (args!=null) bindValues(preparedStatement, args);
+			
+			return new StatementCursor( preparedStatement.executeQuery(), sql, preparedStatement );
+			
+		} catch (SQLException e) {
+			/* If no results were returned then "query does not return ResultSet"
+			 * is thrown, therefore just return a new blank cursor */
+			if (preparedStatement!=null) releaseStatement(sql, preparedStatement);
+		}
+		
+		return new JSqlLiteCursor( );
+	}
+	/** Bind query arguments to a prepared statement
+	 * 
+	 * @param prep
+	 * @param args Integer, Long, Double, Float, String, Boolean or byte[] values
+	 * @throws IllegalArgumentException If an argument is of another type or can't be bound
+	 */
+	private void bindValues(PreparedStatement prep, Object[] args) {
+		for (Object o : args) {
+			if (!(o==null || o instanceof Number || o instanceof String 
+					|| o instanceof Boolean || o instanceof byte[]))
+				throw new IllegalArgumentException("Unsupported argument type "+o.getClass().getName());
+		}
+		try {
+			encodeValues(prep, Arrays.asList(args) );
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to bind query arguments: "+e.getMessage(), e);
+		}
+	}
+	/** Put a statement back in the cache once its cursor is closed, or close it 
+	 * if the cache already holds one for the SQL or it is from a previous connection.
+	 * 
+	 * @param sql
+	 * @param statement
+	 */
+	private void releaseStatement(String sql, PreparedStatement statement) {
+		boolean cached = false;
+		try {
+			synchronized (statementCache) {
+				if (!statement.isClosed() && statement.getConnection()==connection 
+						&& !statementCache.containsKey(sql)) {
+					statementCache.put(sql, statement);
+					cached = true;
+				}
+			}
+			if (!cached) statement.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	/** Close and remove all the cached prepared statements
+	 * 
+	 */
+	private void clearStatementCache() {
+		synchronized (statementCache) {
+			for (PreparedStatement ps : statementCache.values()) {
+				try {
+					ps.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+			statementCache.clear();
+		}
+	}
+	/** A cursor that returns its prepared statement for re-use when closed */
+	private class StatementCursor extends JSqlLiteCursor {
+		private final String sql;
+		private PreparedStatement statement;
+
+		StatementCursor(ResultSet rs, String sql, PreparedStatement statement) {
+			super(rs);
+			this.sql = sql;
+			this.statement = statement;
+		}
+		@Override
+		public void close() {
+			super.close();
+			if (statement==null) return;
+			releaseStatement(sql, statement);
+			statement = null;
+		}
+	}
 
 	@Override
 	public void execSQL(String sql) {
@@ -375,6 +500,7 @@ public class JSqlLiteDatabase implements com.augtech.geoapi.geopackage.ISQLDatab
 	@Override
 	public void close() {
 		try {
+			clearStatementCache();
 			connection.close();
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -30,6 +30,7 @@ import org.opengis.feature.type.AttributeType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.GeometryType;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
 import org.opengis.geometry.BoundingBox;
 
 import com.augtech.geoapi.feature.NameImpl;
@@ -40,6 +41,7 @@ import com.augtech.geoapi.feature.type.SimpleFeatureTypeImpl;
 import com.augtech.geoapi.geopackage.DateUtil;
 import com.augtech.geoapi.geopackage.GeoPackage;
 import com.augtech.geoapi.geopackage.GpkgField;
+import com.augtech.geoapi.geopackage.GpkgFilter;
 import com.augtech.geoapi.geopackage.GpkgRecords;
 import com.augtech.geoapi.geopackage.GpkgTable;
 import com.augtech.geoapi.geopackage.ICursor;
@@ -368,6 +370,42 @@ public class FeaturesTable extends GpkgTable {
 		
 		return featureType;
 	}
+	/** Get a SimpleFeatureType holding only the requested columns of this table, for
+	 * building features from a query that does not select every column.<p>
+	 * The attribute types are kept in table order, whatever order the columns are
+	 * supplied in. The geometry descriptor is always set, even if the geometry column
+	 * is not requested (in which case features will have no geometry).
+	 * 
+	 * @param columns The column names to include. Passing <code>Null</code> returns the
+	 * full schema from {@link #getSchema()}
+	 * @return
+	 * @throws Exception If a column does not exist on this table
+	 */
+	public SimpleFeatureType getSchema(String[] columns) throws Exception {
+		SimpleFeatureType fullType = getSchema();
+		if (columns==null) return fullType;
+		
+		List<String> wanted = new ArrayList<String>();
+		for (String col : columns) {
+			if (getField(col)==null)
+				throw new Exception("Column "+col+" does not exist on table "+getTableName() );
+			wanted.add(col);
+		}
+		
+		ArrayList<AttributeType> attrTypes = new ArrayList<AttributeType>();
+		for (AttributeType at : fullType.getTypes()) {
+			if (wanted.contains( at.getName().getLocalPart() )) attrTypes.add(at);
+		}
+		attrTypes.trimToSize();
+		
+		SimpleFeatureTypeImpl featureType = new SimpleFeatureTypeImpl( 
+				fullType.getName(), 
+				attrTypes,
+				fullType.getGeometryDescriptor());
+		featureType.setDescription(getDescription());
+		
+		return featureType;
+	}
 	/** Get a list of {@link SimpleFeature} from the GeoPackage by specifying a where clause
 	 * (for example {@code featureId='pipe.1234'} or {@code id=1234} ).
 	 * This method calls the {@link GeoPackage#getFeatures(String, String, com.augtech.geoapi.geopackage.geometry.GeometryDecoder)}
@@ -379,6 +417,38 @@ public class FeaturesTable extends GpkgTable {
 	public List<SimpleFeature> getFeatures(String strWhere) throws Exception {
 		return geoPackage.getFeatures(this.tableName, strWhere, new StandardGeometryDecoder());
 	}
+	/** Get a list of {@link SimpleFeature} from the GeoPackage by specifying a where clause,
+	 * only reading the requested columns from the table.
+	 * 
+	 * @param strWhere The where clause.
+	 * @param columns The columns to read, or <code>Null</code> for all columns. If the geometry
+	 * column is not included the returned features will have no geometry.
+	 * @return A List of {@link SimpleFeature}'s matching the where clause.
+	 * @see GeoPackage#getFeatures(String, String, String[], com.augtech.geoapi.geopackage.geometry.GeometryDecoder)
+	 */ 
+	public List<SimpleFeature> getFeatures(String strWhere, String[] columns) throws Exception {
+		return geoPackage.getFeatures(this.tableName, strWhere, columns, new StandardGeometryDecoder());
+	}
+	/** Get a list of {@link SimpleFeature} from the GeoPackage matching a {@link GpkgFilter},
+	 * only reading the requested columns from the table.
+	 * 
+	 * @param filter The filter to apply, or <code>Null</code> for all records
+	 * @param columns The columns to read, or <code>Null</code> for all columns.
+	 * @return A List of {@link SimpleFeature}'s matching the filter.
+	 * @see GeoPackage#getFeatures(String, GpkgFilter, String[], com.augtech.geoapi.geopackage.geometry.GeometryDecoder)
+	 */ 
+	public List<SimpleFeature> getFeatures(GpkgFilter filter, String[] columns) throws Exception {
+		return geoPackage.getFeatures(this.tableName, filter, columns, new StandardGeometryDecoder());
+	}
+	/** Get a list of {@link SimpleFeature} from the GeoPackage matching a GeoAPI {@link Filter}.
+	 * 
+	 * @param filter The filter to apply, or <code>Null</code> for all records
+	 * @return A List of {@link SimpleFeature}'s matching the filter.
+	 * @see GeoPackage#getFeatures(String, Filter, String[], com.augtech.geoapi.geopackage.geometry.GeometryDecoder)
+	 */ 
+	public List<SimpleFeature> getFeatures(Filter filter) throws Exception {
+		return geoPackage.getFeatures(this.tableName, filter, null, new StandardGeometryDecoder());
+	}
 	/** Issue a raw query on this table using a where clause
 	 * 
 	 * @param strWhere The where clause excluding the 'where'
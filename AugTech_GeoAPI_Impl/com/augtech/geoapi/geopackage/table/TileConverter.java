@@ -0,0 +1,449 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geopackage.table;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.augtech.geoapi.geopackage.GeoPackage;
+import com.augtech.geoapi.geopackage.GpkgRecords;
+import com.augtech.geoapi.geopackage.ICursor;
+import com.augtech.geoapi.geopackage.ISQLDatabase;
+
+/** Streams tile pyramids between a GeoPackage {@link TilesTable}, an MBTiles
+ * database and a z/x/y directory structure on disk.<p>
+ * Tiles are never held as features; at most one batch of tiles (see {@link #setBatchSize(int)})
+ * is held in memory at any time, so peak memory does not depend on the size of the pyramid.<p>
+ * GeoPackage and 'Slippy' (XYZ) directories number rows from the top, whereas MBTiles and
+ * TMS directories number rows from the bottom. Rows are flipped as required using the
+ * matrix height defined in gpkg_tile_matrix.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class TileConverter {
+	GeoPackage geoPackage = null;
+	TilesTable tilesTable = null;
+	private int batchSize = 200;
+	/** The matrix height by zoom level for the tiles table */
+	private Map<Integer, int[]> matrixSizes = null;
+
+	/** The MBTiles tiles table definition */
+	public static final String MBTILES_CREATE_TILES = "CREATE TABLE tiles (zoom_level INTEGER, "+
+			"tile_column INTEGER, tile_row INTEGER, tile_data BLOB)";
+	/** The MBTiles metadata table definition */
+	public static final String MBTILES_CREATE_METADATA = "CREATE TABLE metadata (name TEXT, value TEXT)";
+	/** The MBTiles unique tile index */
+	public static final String MBTILES_CREATE_INDEX = "CREATE UNIQUE INDEX tile_index on tiles "+
+			"(zoom_level, tile_column, tile_row)";
+
+	/** Create a new converter for an existing or new tiles table.
+	 *
+	 * @param geoPackage The GeoPackage holding (or to hold) the tiles
+	 * @param tilesTable The tiles table to read from or write to. If the table
+	 * is not yet in the GeoPackage it is created on import as a 3857 table
+	 * using {@link TilesTable#create(int, int)}, honouring any {@link TilesTable#setTileOrder(int)}
+	 * or {@link TilesTable#setDeduplicate(boolean)} already set on it.
+	 */
+	public TileConverter(GeoPackage geoPackage, TilesTable tilesTable) {
+		this.geoPackage = geoPackage;
+		this.tilesTable = tilesTable;
+	}
+	/** Set the number of tiles read or written per batch. This is the
+	 * maximum number of tiles held in memory at any one time.
+	 *
+	 * @param batchSize The number of tiles (defaults to 200)
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize<1) throw new IllegalArgumentException("Batch size must be greater than zero");
+		this.batchSize = batchSize;
+	}
+	/** Import all tiles from a z/x/y directory structure (i.e. root/12/2023/1347.png)
+	 * into the tiles table. Each tile file is memory mapped and copied once into the
+	 * batch being written.
+	 *
+	 * @param rootDir The root directory containing the zoom level directories
+	 * @param isTMS True if the directory rows are numbered from the bottom (TMS), False
+	 * if numbered from the top (XYZ/ Slippy)
+	 * @param tilePixelsXY The size (in pixels) of the tiles. Only used if the table needs creating
+	 * @return The number of tiles inserted
+	 * @throws Exception If the table cannot be created or a tile reference is outside the tile matrix
+	 */
+	public long importDirectory(File rootDir, boolean isTMS, int tilePixelsXY) throws Exception {
+		if (!rootDir.isDirectory()) throw new IllegalArgumentException(rootDir+" is not a directory");
+
+		// Find the deepest zoom level for creating the table if required
+		int maxZoom = -1;
+		File[] zoomDirs = rootDir.listFiles();
+		for (File zd : zoomDirs) {
+			int z = parseRef( zd.getName() );
+			if (zd.isDirectory() && z > maxZoom) maxZoom = z;
+		}
+		if (maxZoom==-1) return 0;
+
+		prepareTable(tilePixelsXY, maxZoom);
+
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		long numInserted = 0;
+
+		for (File zd : zoomDirs) {
+			int z = parseRef( zd.getName() );
+			if (!zd.isDirectory() || z < 0) continue;
+
+			for (File xd : zd.listFiles()) {
+				int x = parseRef( xd.getName() );
+				if (!xd.isDirectory() || x < 0) continue;
+
+				for (File yf : xd.listFiles()) {
+					String name = yf.getName();
+					int dot = name.indexOf('.');
+					int y = parseRef( dot > -1 ? name.substring(0, dot) : name );
+					if (!yf.isFile() || y < 0) continue;
+
+					batch.add( buildTileValues(z, x, isTMS ? flipRow(z, y) : y, mapFile(yf)) );
+
+					if (batch.size() >= batchSize) numInserted += flush(batch);
+				}
+			}
+		}
+		numInserted += flush(batch);
+
+		if (numInserted>0) geoPackage.updateLastChange(tilesTable.getTableName(), tilesTable.getTableType());
+
+		return numInserted;
+	}
+	/** Import all tiles from an MBTiles database into the tiles table. The source tiles are
+	 * read through a single forward-only cursor and written in batches. MBTiles rows are
+	 * TMS and are flipped on the way in.
+	 *
+	 * @param mbTiles An {@link ISQLDatabase} connected to the MBTiles file (i.e. a JSqlLiteDatabase)
+	 * @param tilePixelsXY The size (in pixels) of the tiles. Only used if the table needs creating
+	 * @return The number of tiles inserted
+	 * @throws Exception If the table cannot be created or a tile reference is outside the tile matrix
+	 */
+	public long importMBTiles(ISQLDatabase mbTiles, int tilePixelsXY) throws Exception {
+
+		ICursor cur = mbTiles.doRawQuery("SELECT MAX(zoom_level) FROM tiles");
+		int maxZoom = -1;
+		if (cur!=null && cur.moveToFirst()) maxZoom = cur.getInt(0);
+		if (cur!=null) cur.close();
+		if (maxZoom<0) return 0;
+
+		prepareTable(tilePixelsXY, maxZoom);
+
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		long numInserted = 0;
+
+		cur = mbTiles.doRawQuery("SELECT zoom_level, tile_column, tile_row, tile_data FROM tiles");
+		if (cur==null) return 0;
+
+		try {
+			boolean hasNext = cur.moveToFirst();
+			while (hasNext) {
+				int z = cur.getInt(0);
+
+				batch.add( buildTileValues(z, cur.getInt(1), flipRow(z, cur.getInt(2)), cur.getBlob(3)) );
+
+				if (batch.size() >= batchSize) numInserted += flush(batch);
+
+				hasNext = cur.moveToNext();
+			}
+			numInserted += flush(batch);
+		} finally {
+			cur.close();
+		}
+
+		if (numInserted>0) geoPackage.updateLastChange(tilesTable.getTableName(), tilesTable.getTableType());
+
+		return numInserted;
+	}
+	/** Export all tiles in the tiles table to a z/x/y directory structure.
+	 *
+	 * @param rootDir The root directory to write to. This is created if it does not exist.
+	 * @param asTMS True to number rows from the bottom (TMS), False to number from the top (XYZ/ Slippy)
+	 * @return The number of tiles written
+	 * @throws Exception
+	 */
+	public long exportDirectory(final File rootDir, final boolean asTMS) throws Exception {
+		if (!rootDir.exists() && !rootDir.mkdirs()) throw new IOException("Unable to create "+rootDir);
+
+		checkTable();
+
+		return readTiles(new ITileSink() {
+			@Override
+			public void tiles(List<Map<String, Object>> tiles) throws Exception {
+				for (Map<String, Object> t : tiles) {
+					int z = (Integer) t.get("zoom_level");
+					int y = (Integer) t.get("tile_row");
+					byte[] data = (byte[]) t.get("tile_data");
+
+					File xDir = new File(rootDir, z+File.separator+t.get("tile_column"));
+					if (!xDir.exists() && !xDir.mkdirs()) throw new IOException("Unable to create "+xDir);
+
+					writeFile(new File(xDir, (asTMS ? flipRow(z, y) : y)+getExtension(data)), data);
+				}
+			}
+		});
+	}
+	/** Export all tiles in the tiles table to a new MBTiles database. The tiles and
+	 * metadata tables are created if they do not exist.
+	 *
+	 * @param mbTiles An {@link ISQLDatabase} connected to the (new) MBTiles file
+	 * @return The number of tiles written
+	 * @throws Exception
+	 */
+	public long exportMBTiles(final ISQLDatabase mbTiles) throws Exception {
+
+		checkTable();
+
+		ICursor cur = mbTiles.doRawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='tiles'");
+		boolean exists = cur!=null && cur.moveToFirst();
+		if (cur!=null) cur.close();
+
+		if (!exists) {
+			String meta = "INSERT INTO metadata (name, value) VALUES ('%s', '%s')";
+			String name = tilesTable.getTableName().replace("'", "''");
+			boolean created = mbTiles.execSQLWithRollback(new String[]{
+					MBTILES_CREATE_TILES,
+					MBTILES_CREATE_METADATA,
+					MBTILES_CREATE_INDEX,
+					String.format(meta, "name", name),
+					String.format(meta, "type", "baselayer"),
+					String.format(meta, "version", "1.0"),
+					String.format(meta, "description", name),
+					String.format(meta, "format", getFirstFormat())
+			});
+			if (!created) throw new Exception("Unable to create MBTiles tables");
+		}
+
+		return readTiles(new ITileSink() {
+			@Override
+			public void tiles(List<Map<String, Object>> tiles) throws Exception {
+				for (Map<String, Object> t : tiles) {
+					int z = (Integer) t.get("zoom_level");
+					t.put("tile_row", flipRow(z, (Integer) t.get("tile_row")) );
+				}
+				mbTiles.doInsert("tiles", tiles);
+			}
+		});
+	}
+	/** Page through the tiles table by primary key, passing each batch to the sink
+	 *
+	 * @param sink
+	 * @return The number of tiles read
+	 * @throws Exception
+	 */
+	private long readTiles(ITileSink sink) throws Exception {
+		long numRead = 0;
+		long lastID = -1;
+		int read = 0;
+		String sql = "SELECT id, zoom_level, tile_column, tile_row, tile_data FROM ["+
+				tilesTable.getTableName()+"] WHERE id > %s ORDER BY id LIMIT "+batchSize;
+
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+
+		do {
+			read = 0;
+			ICursor cur = geoPackage.getDatabase().doRawQuery( String.format(sql, lastID) );
+			if (cur==null) break;
+
+			boolean hasNext = cur.moveToFirst();
+			while (hasNext) {
+				// Curve ordered ids hold the zoom level above bit 32, so must be read as a long
+				lastID = cur.getLong(0);
+				batch.add( buildTileValues(cur.getInt(1), cur.getInt(2), cur.getInt(3), cur.getBlob(4)) );
+				read++;
+				hasNext = cur.moveToNext();
+			}
+			cur.close();
+
+			if (read>0) sink.tiles(batch);
+			numRead += read;
+			batch.clear();
+
+		} while (read==batchSize);
+
+		return numRead;
+	}
+	/** Write the current batch to the tiles table and clear it.
+	 *
+	 * @param batch
+	 * @return The number of records inserted
+	 */
+	long flush(List<Map<String, Object>> batch) {
+		if (batch.size()==0) return 0;
+		long ins = tilesTable.insert(geoPackage, batch);
+		if (ins < batch.size())
+			geoPackage.log.log(Level.WARNING, (batch.size()-ins)+" tiles not inserted to "+tilesTable.getTableName());
+		batch.clear();
+		return ins < 0 ? 0 : ins;
+	}
+	/** Build the insert values for a single tile, checking the reference against
+	 * the tile matrix.
+	 *
+	 * @return
+	 * @throws Exception If the reference is outside the tile matrix
+	 */
+	Map<String, Object> buildTileValues(int zoom, int col, int row, byte[] data) throws Exception {
+		int[] wh = matrixSizes.get(zoom);
+		if (wh==null || col < 0 || col >= wh[0] || row < 0 || row >= wh[1]) {
+			throw new Exception("Tile "+zoom+"/"+col+"/"+row+" is outside the scope of the tile matrix for "
+					+tilesTable.getTableName());
+		}
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("zoom_level", zoom);
+		values.put("tile_column", col);
+		values.put("tile_row", row);
+		values.put("tile_data", data);
+		return values;
+	}
+	/** Convert a row reference between top-left (XYZ) and bottom-left (TMS) origin
+	 *
+	 * @param zoom
+	 * @param row
+	 * @return
+	 */
+	private int flipRow(int zoom, int row) {
+		int[] wh = matrixSizes.get(zoom);
+		int height = wh==null ? 1 << zoom : wh[1];
+		return height - 1 - row;
+	}
+	/** Create the tiles table if required and read the matrix sizes for each zoom
+	 *
+	 * @param tilePixelsXY
+	 * @param maxZoom
+	 * @throws Exception
+	 */
+	void prepareTable(int tilePixelsXY, int maxZoom) throws Exception {
+		if (!tilesTable.isTableInGpkg(geoPackage)) {
+			if (!tilesTable.create(tilePixelsXY, maxZoom))
+				throw new Exception("Unable to create tiles table "+tilesTable.getTableName());
+		}
+		checkTable();
+	}
+	/** Check the table exists in the GeoPackage and cache the tile matrix sizes
+	 *
+	 * @throws Exception
+	 */
+	private void checkTable() throws Exception {
+		if (!tilesTable.isTableInGpkg(geoPackage))
+			throw new Exception("Table "+tilesTable.getTableName()+" is not defined in the GeoPackage");
+
+		if (matrixSizes!=null) return;
+
+		GpkgRecords recs = geoPackage.getSystemTable(GpkgTileMatrix.TABLE_NAME).query(geoPackage,
+				"table_name='"+tilesTable.getTableName()+"'");
+
+		matrixSizes = new HashMap<Integer, int[]>();
+		for (int i=0; i<recs.size(); i++) {
+			matrixSizes.put(recs.getFieldInt(i, "zoom_level"),
+					new int[]{recs.getFieldInt(i, "matrix_width"), recs.getFieldInt(i, "matrix_height")} );
+		}
+	}
+	/** Get the format (png or jpg) of the first tile in the table for the
+	 * MBTiles metadata
+	 *
+	 * @return
+	 */
+	private String getFirstFormat() {
+		ICursor cur = tilesTable.query(geoPackage, new String[]{"tile_data"}, "id=(SELECT MIN(id) FROM ["+
+				tilesTable.getTableName()+"])");
+		String format = "png";
+		if (cur!=null && cur.moveToFirst()) {
+			if (getExtension( cur.getBlob(0) ).equals(".jpg")) format = "jpg";
+		}
+		if (cur!=null) cur.close();
+		return format;
+	}
+	/** Get the file extension for the tile data from its header
+	 *
+	 * @param data
+	 * @return Either .png or .jpg
+	 */
+	private static String getExtension(byte[] data) {
+		if (data!=null && data.length>1 && (data[0] & 0xFF)==0xFF && (data[1] & 0xFF)==0xD8) return ".jpg";
+		return ".png";
+	}
+	/** Parse a directory or file name as a tile reference
+	 *
+	 * @param name
+	 * @return The reference or -1 if not numeric
+	 */
+	private static int parseRef(String name) {
+		if (name.length()==0 || name.length()>9) return -1;
+		int v = 0;
+		for (int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') return -1;
+			v = v*10 + (c-'0');
+		}
+		return v;
+	}
+	/** Memory map a single tile file and copy its contents
+	 *
+	 * @param file
+	 * @return The file contents
+	 * @throws IOException
+	 */
+	private static byte[] mapFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel fc = fis.getChannel();
+			MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			byte[] data = new byte[mbb.remaining()];
+			mbb.get(data);
+			return data;
+		} finally {
+			fis.close();
+		}
+	}
+	/** Write a single tile file through its channel
+	 *
+	 * @param file
+	 * @param data
+	 * @throws IOException
+	 */
+	private static void writeFile(File file, byte[] data) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			FileChannel fc = fos.getChannel();
+			ByteBuffer bb = ByteBuffer.wrap(data);
+			while (bb.hasRemaining()) fc.write(bb);
+		} finally {
+			fos.close();
+		}
+	}
+	/** Receives each batch of tiles read from the tiles table */
+	private interface ITileSink {
+		/** A batch of tiles has been read
+		 *
+		 * @param tiles Values keyed by the tiles table column names
+		 * @throws Exception
+		 */
+		public void tiles(List<Map<String, Object>> tiles) throws Exception;
+	}
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geopackage.table;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import org.opengis.geometry.BoundingBox;
+
+import com.augtech.geoapi.geometry.OSMTile;
+import com.augtech.geoapi.geopackage.GeoPackage;
+import com.augtech.geoapi.geopackage.ICursor;
+import com.augtech.geoapi.utils.WebRequest;
+
+/** Seeds a {@link TilesTable} from a remote XYZ tile server for an area and range
+ * of zoom levels.<p>
+ * Tiles are downloaded by a fixed number of worker threads, optionally limited to a
+ * number of requests per second, while the calling thread writes the downloaded tiles
+ * to the GeoPackage in batches. The area is walked a block of tiles at a time, checking
+ * the table for existing tiles per block, and only a bounded number of downloads are
+ * queued at any time, so memory use does not depend on the size of the area.<p>
+ * Seeding can be resumed: tiles already in the table are not requested again, so an
+ * interrupted or partly failed seed can simply be run again with the same parameters.
+ * A tile that still fails after retrying is counted (see {@link #getFailed()}) and
+ * skipped rather than abandoning the seed.<p>
+ * Downloads go through {@link WebRequest}, so they share its pooled connections and
+ * any {@link WebRequest#setCache(com.augtech.geoapi.utils.HttpCache)} set on it.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class TileSeeder {
+	/** The width and height (in tiles) of each block checked for existing tiles */
+	private static final int BLOCK_TILES = 64;
+	private TileConverter converter = null;
+	private String urlTemplate = null;
+	private int concurrency = 4;
+	private double requestsPerSecond = 0;
+	private int maxRetries = 2;
+	private long retryDelay = 1000;
+	private int tilePixelsXY = 256;
+	private int batchSize = 200;
+	private long skipped = 0;
+	private long failed = 0;
+	/** The earliest time the next request may be made, when rate limited */
+	private long nextRequest = 0;
+
+	/** Create a new seeder for an existing or new tiles table.
+	 *
+	 * @param geoPackage The GeoPackage to hold the tiles
+	 * @param tilesTable The tiles table to write to. If the table is not yet in the
+	 * GeoPackage it is created as a 3857 table (see {@link TileConverter}).
+	 * @param urlTemplate The tile URL, with <code>{z}</code>, <code>{x}</code> and
+	 * <code>{y}</code> replaced by the zoom, column and row (rows numbered from the top),
+	 * or <code>{-y}</code> for a TMS row numbered from the bottom.
+	 * i.e. http://tile.example.com/{z}/{x}/{y}.png
+	 */
+	public TileSeeder(GeoPackage geoPackage, TilesTable tilesTable, String urlTemplate) {
+		if (urlTemplate==null || !urlTemplate.contains("{z}") || !urlTemplate.contains("{x}")
+				|| !(urlTemplate.contains("{y}") || urlTemplate.contains("{-y}")) ) {
+			throw new IllegalArgumentException("URL template must contain {z}, {x} and {y} or {-y}");
+		}
+		this.converter = new TileConverter(geoPackage, tilesTable);
+		this.urlTemplate = urlTemplate;
+	}
+	/** Set the number of tiles downloaded at once. Default is 4
+	 *
+	 * @param concurrency
+	 */
+	public void setConcurrency(int concurrency) {
+		if (concurrency<1) throw new IllegalArgumentException("Concurrency must be greater than zero");
+		this.concurrency = concurrency;
+	}
+	/** Limit the rate that tiles are requested from the server, as most tile
+	 * servers have a usage policy. Default is unlimited.
+	 *
+	 * @param requestsPerSecond The maximum requests per second, or zero for no limit
+	 */
+	public void setRequestsPerSecond(double requestsPerSecond) {
+		this.requestsPerSecond = Math.max(0, requestsPerSecond);
+	}
+	/** Set how many times a failed tile is requested again, and the delay before the
+	 * first retry. The delay increases with each retry of the same tile.
+	 * Default is 2 retries, starting at 1 second.
+	 *
+	 * @param maxRetries
+	 * @param retryDelay Milliseconds
+	 */
+	public void setRetries(int maxRetries, long retryDelay) {
+		this.maxRetries = Math.max(0, maxRetries);
+		this.retryDelay = Math.max(0, retryDelay);
+	}
+	/** Set the size (in pixels) of the tiles. Only used if the table needs creating.
+	 * Default is 256
+	 *
+	 * @param tilePixelsXY
+	 */
+	public void setTilePixels(int tilePixelsXY) {
+		this.tilePixelsXY = tilePixelsXY;
+	}
+	/** Set the number of tiles written per batch. Default is 200
+	 *
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		converter.setBatchSize(batchSize);
+		this.batchSize = batchSize;
+	}
+	/** Get the number of tiles the last seed skipped because they
+	 * were already in the table
+	 *
+	 * @return
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+	/** Get the number of tiles the last seed could not download
+	 *
+	 * @return
+	 */
+	public long getFailed() {
+		return failed;
+	}
+	/** Download and insert all tiles covering an area between two zoom levels
+	 * (inclusive) that are not already in the table.
+	 *
+	 * @param latLonBox The area to seed, in WGS84 latitude/ longitude
+	 * @param minZoom
+	 * @param maxZoom
+	 * @return The number of tiles inserted
+	 * @throws Exception If the table cannot be created, or a zoom level is outside
+	 * the tile matrix of an existing table
+	 */
+	public long seed(BoundingBox latLonBox, int minZoom, int maxZoom) throws Exception {
+		if (minZoom<0 || maxZoom<minZoom) throw new IllegalArgumentException("Invalid zoom range");
+
+		converter.prepareTable(tilePixelsXY, maxZoom);
+		skipped = 0;
+		failed = 0;
+		nextRequest = 0;
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		CompletionService<Tile> completion = new ExecutorCompletionService<Tile>(executor);
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		int maxQueued = concurrency * 2;
+		long numInserted = 0;
+
+		try {
+			for (int z=minZoom; z<=maxZoom; z++) {
+				MissingTiles tiles = new MissingTiles(z, OSMTile.getTileRange(latLonBox, z));
+				long next = tiles.next();
+				int queued = 0;
+
+				while (true) {
+					// Keep the workers busy without queuing the whole zoom level
+					while (next!=OSMTile.INVALID_KEY && queued<maxQueued) {
+						completion.submit( new TileReader(next) );
+						queued++;
+						next = tiles.next();
+					}
+					if (queued==0) break;
+
+					Tile tile = null;
+					try {
+						tile = completion.take().get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+						throw e;
+					}
+					queued--;
+
+					if (tile.data==null) {
+						failed++;
+						continue;
+					}
+					batch.add( converter.buildTileValues(OSMTile.keyZoom(tile.key),
+							OSMTile.keyX(tile.key), OSMTile.keyY(tile.key), tile.data) );
+					if (batch.size()>=batchSize) numInserted += converter.flush(batch);
+				}
+			}
+			numInserted += converter.flush(batch);
+		} finally {
+			executor.shutdownNow();
+			if (numInserted>0) {
+				converter.geoPackage.updateLastChange(converter.tilesTable.getTableName(),
+						converter.tilesTable.getTableType());
+			}
+		}
+
+		return numInserted;
+	}
+	/** Get the keys of the tiles already in the table within a tile range
+	 *
+	 * @param zoom
+	 * @param range The tile range as minX, minY, maxX, maxY
+	 * @return
+	 */
+	private Set<Long> getExistingTiles(int zoom, int[] range) {
+		Set<Long> existing = new HashSet<Long>();
+		ICursor cur = converter.geoPackage.getDatabase().doRawQuery(
+				"SELECT tile_column, tile_row FROM ["+converter.tilesTable.getTableName()+
+				"] WHERE zoom_level="+zoom+" AND tile_column BETWEEN "+range[0]+" AND "+range[2]+
+				" AND tile_row BETWEEN "+range[1]+" AND "+range[3]);
+		if (cur==null) return existing;
+
+		boolean hasNext = cur.moveToFirst();
+		while (hasNext) {
+			existing.add( OSMTile.toKey(cur.getInt(0), cur.getInt(1), zoom) );
+			hasNext = cur.moveToNext();
+		}
+		cur.close();
+		return existing;
+	}
+	/** Build the URL for a tile from the template
+	 *
+	 * @param key
+	 * @return
+	 */
+	private String buildUrl(long key) {
+		int zoom = OSMTile.keyZoom(key);
+		int y = OSMTile.keyY(key);
+		return urlTemplate.replace("{z}", String.valueOf(zoom))
+				.replace("{x}", String.valueOf(OSMTile.keyX(key)))
+				.replace("{y}", String.valueOf(y))
+				.replace("{-y}", String.valueOf((1 << zoom) - 1 - y));
+	}
+	/** Wait until the next request is allowed by the rate limit
+	 *
+	 * @throws InterruptedException
+	 */
+	private void acquire() throws InterruptedException {
+		if (requestsPerSecond<=0) return;
+
+		long wait = 0;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (nextRequest < now) nextRequest = now;
+			wait = nextRequest - now;
+			nextRequest += (long) (1000 / requestsPerSecond);
+		}
+		if (wait>0) Thread.sleep(wait);
+	}
+	/** Is the data a PNG or JPEG image, rather than an error page?
+	 *
+	 * @param data
+	 * @return
+	 */
+	private static boolean isImage(byte[] data) {
+		if (data==null || data.length<4) return false;
+		if ((data[0] & 0xFF)==0xFF && (data[1] & 0xFF)==0xD8) return true;
+		return (data[0] & 0xFF)==0x89 && data[1]=='P' && data[2]=='N' && data[3]=='G';
+	}
+
+	/** Walks a tile range a block at a time, returning the keys of the tiles
+	 * that are not already in the table */
+	private class MissingTiles {
+		private final int zoom;
+		private final int[] range;
+		private int blockMinX, blockMinY, blockMaxX, blockMaxY;
+		private int x, y;
+		private Set<Long> existing = null;
+
+		/**
+		 * @param zoom
+		 * @param range The tile range as minX, minY, maxX, maxY (inclusive)
+		 */
+		MissingTiles(int zoom, int[] range) {
+			this.zoom = zoom;
+			this.range = range;
+			startBlock(range[0], range[1]);
+		}
+		/** Get the next tile to download, counting any that are skipped
+		 * 
+		 * @return The tile key, or {@link OSMTile#INVALID_KEY} when the range is done
+		 */
+		long next() {
+			while (true) {
+				if (x > blockMaxX) {
+					if (blockMaxY < range[3]) {
+						startBlock(blockMinX, blockMaxY+1);
+					} else if (blockMaxX < range[2]) {
+						startBlock(blockMaxX+1, range[1]);
+					} else {
+						return OSMTile.INVALID_KEY;
+					}
+				}
+
+				long key = OSMTile.toKey(x, y, zoom);
+				if (++y > blockMaxY) {
+					y = blockMinY;
+					x++;
+				}
+				if (existing.contains(key)) {
+					skipped++;
+					continue;
+				}
+				return key;
+			}
+		}
+		private void startBlock(int minX, int minY) {
+			blockMinX = minX;
+			blockMinY = minY;
+			blockMaxX = (int) Math.min((long)minX + BLOCK_TILES - 1, range[2]);
+			blockMaxY = (int) Math.min((long)minY + BLOCK_TILES - 1, range[3]);
+			x = minX;
+			y = minY;
+			existing = getExistingTiles(zoom, new int[]{blockMinX, blockMinY, blockMaxX, blockMaxY});
+		}
+	}
+
+	/** A downloaded tile. The data is <code>Null</code> if the download failed */
+	private static class Tile {
+		long key;
+		byte[] data;
+	}
+
+	/** Downloads one tile, retrying on failure */
+	private class TileReader implements Callable<Tile> {
+		private long key;
+
+		TileReader(long key) {
+			this.key = key;
+		}
+
+		@Override
+		public Tile call() throws Exception {
+			Tile tile = new Tile();
+			tile.key = key;
+			String url = buildUrl(key);
+
+			for (int attempt = 0; ; attempt++) {
+				try {
+					acquire();
+					tile.data = read(url);
+					return tile;
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					if (attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+						converter.geoPackage.log.log(Level.WARNING, "Failed to read tile "+url+": "+e.getMessage());
+						return tile;
+					}
+					Thread.sleep( retryDelay * (attempt + 1) );
+				}
+			}
+		}
+
+		private byte[] read(String url) throws Exception {
+			InputStream in = new WebRequest(url).openConnection();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+			try {
+				byte[] buffer = new byte[8192];
+				int len = 0;
+				while ((len = in.read(buffer)) != -1) {
+					out.write(buffer, 0, len);
+				}
+			} finally {
+				in.close();
+			}
+
+			byte[] data = out.toByteArray();
+			if (!isImage(data)) throw new Exception("Response is not a PNG or JPEG image");
+			return data;
+		}
+	}
+}
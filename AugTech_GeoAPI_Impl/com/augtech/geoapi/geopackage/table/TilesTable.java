@@ -16,10 +16,19 @@
 package com.augtech.geoapi.geopackage.table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -34,18 +43,50 @@ import com.augtech.geoapi.feature.type.GeometryDescriptorImpl;
 import com.augtech.geoapi.feature.type.GeometryTypeImpl;
 import com.augtech.geoapi.feature.type.SimpleFeatureTypeImpl;
 import com.augtech.geoapi.geometry.BoundingBoxImpl;
+import com.augtech.geoapi.geometry.OSMTile;
 import com.augtech.geoapi.geopackage.DateUtil;
 import com.augtech.geoapi.geopackage.GeoPackage;
 import com.augtech.geoapi.geopackage.GpkgField;
 import com.augtech.geoapi.geopackage.GpkgRecords;
 import com.augtech.geoapi.geopackage.GpkgTable;
+import com.augtech.geoapi.geopackage.ICursor;
+import com.augtech.geoapi.geopackage.ITileSampler;
+import com.augtech.geoapi.geopackage.table.GpkgExtensions.Extension;
 import com.augtech.geoapi.referncing.CoordinateReferenceSystemImpl;
 import com.vividsolutions.jts.geom.Geometry;
 
 
 public class TilesTable extends GpkgTable {
+	/** The maximum number of parent tiles built per batch in {@link #buildOverviews(ITileSampler, int, int, int)} */
+	public static final int OVERVIEW_BATCH_SIZE = 64;
+	/** The gpkg_extensions name registered for tables storing de-duplicated tile data */
+	public static final String DEDUPE_EXTENSION = "augtech_tile_dedupe";
+	/** Suffix for the table holding each distinct tile payload */
+	public static final String DEDUPE_DATA_SUFFIX = "_tile_data";
+	/** Suffix for the table holding the tile references */
+	public static final String DEDUPE_REFS_SUFFIX = "_tile_refs";
+	/** The gpkg_extensions name registered for tables storing tiles in curve order */
+	public static final String ORDER_EXTENSION = "augtech_tile_order";
+	/** Tiles are stored in the order they are inserted (the default) */
+	public static final int TILE_ORDER_INSERT = 0;
+	/** Tiles are stored in quadkey (Z-order) order within each zoom level */
+	public static final int TILE_ORDER_QUADKEY = 1;
+	/** Tiles are stored in Hilbert curve order within each zoom level */
+	public static final int TILE_ORDER_HILBERT = 2;
+	/** The number of recently stored tile payloads to keep for de-duplication */
+	private static final int DEDUPE_CACHE_SIZE = 64;
+	/** The most ids put in one SQL IN clause when checking or removing tile payloads */
+	private static final int MAX_ID_LIST = 500;
+	/** The maximum number of id ranges in a where clause from {@link #getKeyRangeWhere(int, int, int, int, int)} */
+	public static final int MAX_KEY_RANGES = 32;
+	/** Blocks of more tiles than this are selected by column and row rather than by id range */
+	private static final long MAX_KEY_RANGE_TILES = 1 << 16;
 	GeoPackage geoPackage = null;
 	private TileMatrixInfo tileMatrixInfo = null;
+	private boolean deduplicate = false;
+	private int tileOrder = TILE_ORDER_INSERT;
+	private boolean extensionsChecked = false;
+	private Map<Long, byte[]> dedupeCache = null;
 	
 	/**
 	 * 
@@ -73,7 +114,27 @@ public class TilesTable extends GpkgTable {
 				new CoordinateReferenceSystemImpl("3857"));
 
 		return create(bbox, 18, tilePixelsXY, 0.597165, 0.597165);
-		
+
+	}
+	/** Create a new user Tiles table in the GeoPackage suitable for 'Slippy' map tiles
+	 * down to the specified zoom level. The pixel size at the most detailed zoom is
+	 * calculated from the 3857 world extents.
+	 *
+	 * @param tilePixelsXY The size (in pixels) of the images to be stored
+	 * @param maxZoom The maximum (furthers inward) zoom level
+	 * @return True if the tiles table, and associated meta-data tables, are created successfully. False if not.
+	 * @throws Exception
+	 * @see {@link #create(BoundingBox, int, int, double, double)}
+	 */
+	public boolean create(int tilePixelsXY, int maxZoom) throws Exception {
+
+		BoundingBox bbox = new BoundingBoxImpl(-20037508.34, 20037508.34, -20037508.34, 20037508.34,
+				new CoordinateReferenceSystemImpl("3857"));
+
+		double pixelDist = (bbox.getMaxX()-bbox.getMinX()) / (tilePixelsXY * Math.pow(2, maxZoom));
+
+		return create(bbox, maxZoom, tilePixelsXY, pixelDist, pixelDist);
+
 	}
 	/** Create a new user Tiles table in the GeoPackage. Note that the definition parameters
 	 * are for the total area/ size etc that the tiles <i>could</i> cover, not the area/ size that
@@ -102,7 +163,8 @@ public class TilesTable extends GpkgTable {
 		// Doesn't exist in Contents, but does in DB, therefore not valid and drop
 		if (isTableInDB(geoPackage)) {
 			geoPackage.log.log(Level.WARNING, "Replacing table "+tableName);
-			geoPackage.getDatabase().execSQL("DROP table ["+tableName+"]");
+			geoPackage.getDatabase().execSQL("DROP VIEW IF EXISTS ["+tableName+"]");
+			geoPackage.getDatabase().execSQL("DROP TABLE IF EXISTS ["+tableName+"]");
 		}
 		
 		// Check SRS exists in gpkg_spatial_ref_sys table
@@ -154,10 +216,59 @@ public class TilesTable extends GpkgTable {
 			contents,
 			tile_matrix_set
 		};
+		if (deduplicate) {
+			// Tile data stored once in a side table, with a view providing the standard schema
+			statements = new String[]{
+				"CREATE TABLE ["+tableName+DEDUPE_DATA_SUFFIX+"] ("+
+					"id INTEGER PRIMARY KEY, "+
+					"tile_data BLOB NOT NULL)",
+				"CREATE TABLE ["+tableName+DEDUPE_REFS_SUFFIX+"] ("+
+					"id INTEGER PRIMARY KEY AUTOINCREMENT, "+
+					"zoom_level INTEGER NOT NULL, "+
+					"tile_column INTEGER NOT NULL, "+
+					"tile_row INTEGER NOT NULL, "+
+					"tile_data_id INTEGER NOT NULL REFERENCES ["+tableName+DEDUPE_DATA_SUFFIX+"](id), "+
+					"UNIQUE (zoom_level, tile_column, tile_row))",
+				"CREATE INDEX ["+tableName+DEDUPE_REFS_SUFFIX+"_data] ON ["+tableName+DEDUPE_REFS_SUFFIX+"] (tile_data_id)",
+				// Drop payloads no longer referenced by any tile
+				"CREATE TRIGGER ["+tableName+DEDUPE_REFS_SUFFIX+"_delete] AFTER DELETE ON ["+tableName+DEDUPE_REFS_SUFFIX+"] "+
+					"BEGIN DELETE FROM ["+tableName+DEDUPE_DATA_SUFFIX+"] WHERE id=OLD.tile_data_id AND NOT EXISTS "+
+					"(SELECT 1 FROM ["+tableName+DEDUPE_REFS_SUFFIX+"] WHERE tile_data_id=OLD.tile_data_id); END",
+				"CREATE TRIGGER ["+tableName+DEDUPE_REFS_SUFFIX+"_update] AFTER UPDATE OF tile_data_id ON ["+tableName+DEDUPE_REFS_SUFFIX+"] "+
+					"BEGIN DELETE FROM ["+tableName+DEDUPE_DATA_SUFFIX+"] WHERE id=OLD.tile_data_id AND NOT EXISTS "+
+					"(SELECT 1 FROM ["+tableName+DEDUPE_REFS_SUFFIX+"] WHERE tile_data_id=OLD.tile_data_id); END",
+				"CREATE VIEW ["+tableName+"] AS SELECT r.id AS id, r.zoom_level AS zoom_level, "+
+					"r.tile_column AS tile_column, r.tile_row AS tile_row, d.tile_data AS tile_data "+
+					"FROM ["+tableName+DEDUPE_REFS_SUFFIX+"] r JOIN ["+tableName+DEDUPE_DATA_SUFFIX+"] d "+
+					"ON r.tile_data_id=d.id",
+				"CREATE TRIGGER ["+tableName+"_delete] INSTEAD OF DELETE ON ["+tableName+"] "+
+					"BEGIN DELETE FROM ["+tableName+DEDUPE_REFS_SUFFIX+"] WHERE id=OLD.id; END",
+				contents,
+				tile_matrix_set,
+				String.format("INSERT INTO %s (table_name, column_name, extension_name, definition, scope) "+
+					"VALUES ('%s', 'tile_data', '%s', '%s', 'write-only');",
+					GpkgExtensions.TABLE_NAME,
+					tableName,
+					DEDUPE_EXTENSION,
+					"Tile data stored once per distinct payload in ["+tableName+DEDUPE_DATA_SUFFIX+"]")
+			};
+		}
+		if (tileOrder!=TILE_ORDER_INSERT) {
+			String[] ordered = new String[statements.length+1];
+			System.arraycopy(statements, 0, ordered, 0, statements.length);
+			ordered[statements.length] = String.format("INSERT INTO %s (table_name, column_name, extension_name, "+
+					"definition, scope) VALUES ('%s', 'id', '%s', '%s', 'write-only');",
+					GpkgExtensions.TABLE_NAME,
+					tableName,
+					ORDER_EXTENSION,
+					tileOrder==TILE_ORDER_HILBERT ? "hilbert" : "quadkey");
+			statements = ordered;
+		}
 		
 		// Insert the tile matrix
 		boolean success = geoPackage.getDatabase().execSQLWithRollback(statements);
 		boolean tmSuccess = false;
+		extensionsChecked = success;
 		if (success) {
 			GpkgTileMatrix tm = new GpkgTileMatrix();
 			tmSuccess = tm.insertTimes2TileMatrix(geoPackage, tableName, maxZoom, 
@@ -169,6 +280,650 @@ public class TilesTable extends GpkgTable {
 		
 		return success && tmSuccess;
 	}
+	/** Build the lower (less detailed) zoom levels of this table by combining and downsampling
+	 * each 2x2 set of child tiles in to their parent tile.<p>
+	 * Levels are built one at a time from <code>fromZoom</code> upwards to <code>toZoom</code>,
+	 * so each level is built from the one just created. Only parent tiles that do not already exist
+	 * are created. At most {@link #OVERVIEW_BATCH_SIZE} parent tiles (and their children) are held
+	 * in memory at any time; these are downsampled across the worker pool and then inserted as a batch.
+	 *
+	 * @param sampler The platform specific {@link ITileSampler} to combine and scale the images
+	 * @param fromZoom The most detailed zoom level to build from (i.e. the level already populated)
+	 * @param toZoom The least detailed zoom level to build (usually 0)
+	 * @param numWorkers The number of threads to downsample with
+	 * @return The number of tiles created
+	 * @throws Exception If a zoom level is not defined in the tile matrix, or the matrix
+	 * is not 'zoom times 2'
+	 */
+	public long buildOverviews(final ITileSampler sampler, int fromZoom, int toZoom, int numWorkers)
+			throws Exception {
+		if (toZoom<0 || toZoom>=fromZoom)
+			throw new IllegalArgumentException("toZoom must be between 0 and fromZoom-1");
+		if (numWorkers<1) numWorkers = 1;
+
+		TileMatrixInfo tmi = getTileMatrixInfo();
+		for (int z=toZoom; z<=fromZoom; z++) {
+			if (!tmi.isZoomDefined(z))
+				throw new Exception("Zoom level "+z+" is not defined for "+tableName);
+			if (z>toZoom && tmi.getMatrixSize(z)[0] != tmi.getMatrixSize(z-1)[0]*2)
+				throw new Exception("Tile matrix for "+tableName+" is not 'zoom times 2' at zoom "+z);
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+		long numCreated = 0;
+
+		try {
+			for (int zoom=fromZoom-1; zoom>=toZoom; zoom--) {
+				final int[] tileSize = tmi.getTileSize(zoom);
+
+				/* Parent tiles (row, column) that have at least one child but don't exist yet, 
+				 * paged in column then row order. The range on the child tile_column lets the 
+				 * (zoom_level, tile_column, tile_row) unique index find the start of each page */
+				String sql = "SELECT DISTINCT c.tile_row/2 AS pr, c.tile_column/2 AS pc FROM ["+tableName+"] c "+
+						"WHERE c.zoom_level="+(zoom+1)+" AND c.tile_column >= %s "+
+						"AND (c.tile_column > %s OR c.tile_row >= %s) "+
+						"AND NOT EXISTS (SELECT 1 FROM ["+tableName+"] p WHERE p.zoom_level="+zoom+
+						" AND p.tile_column=c.tile_column/2 AND p.tile_row=c.tile_row/2) "+
+						"ORDER BY pc, pr LIMIT "+OVERVIEW_BATCH_SIZE;
+				int lastRow = -1, lastCol = -1, read = 0;
+
+				do {
+					List<int[]> parents = new ArrayList<int[]>();
+					// Children of the last parent's column, after its row, or of any later column
+					ICursor cur = geoPackage.getDatabase().doRawQuery( String.format(sql, 
+							2*lastCol, 2*lastCol+1, 2*(lastRow+1)) );
+					if (cur==null) break;
+					boolean hasNext = cur.moveToFirst();
+					while (hasNext) {
+						parents.add( new int[]{cur.getInt(0), cur.getInt(1)} );
+						hasNext = cur.moveToNext();
+					}
+					cur.close();
+					read = parents.size();
+					if (read==0) break;
+
+					lastRow = parents.get(read-1)[0];
+					lastCol = parents.get(read-1)[1];
+
+					// Read the children for this batch and hand to the workers
+					List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(read);
+					for (int[] p : parents) {
+						final byte[][] children = getChildTiles(zoom+1, p[1], p[0]);
+						results.add( workers.submit(new Callable<byte[]>() {
+							@Override
+							public byte[] call() throws Exception {
+								return sampler.downsample(children, tileSize[0], tileSize[1]);
+							}
+						}) );
+					}
+
+					// Collect the results in order and insert as a batch
+					List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(read);
+					for (int i=0; i<read; i++) {
+						byte[] tile = results.get(i).get();
+						if (tile==null) continue;
+
+						Map<String, Object> values = new HashMap<String, Object>();
+						values.put("zoom_level", zoom);
+						values.put("tile_column", parents.get(i)[1]);
+						values.put("tile_row", parents.get(i)[0]);
+						values.put("tile_data", tile);
+						batch.add(values);
+					}
+					if (batch.size()>0) {
+						long ins = insert(geoPackage, batch);
+						if (ins>0) numCreated += ins;
+					}
+
+				} while (read==OVERVIEW_BATCH_SIZE);
+
+				geoPackage.log.log(Level.INFO, "Built zoom level "+zoom+" for "+tableName);
+			}
+		} finally {
+			workers.shutdown();
+		}
+
+		if (numCreated>0) geoPackage.updateLastChange(tableName, tableType);
+
+		return numCreated;
+	}
+	/** Get the four child tiles beneath a parent tile
+	 *
+	 * @param childZoom The zoom level of the children
+	 * @param parentCol The parent tile column
+	 * @param parentRow The parent tile row
+	 * @return The encoded tiles ordered top-left, top-right, bottom-left, bottom-right
+	 * with Null for any that do not exist.
+	 */
+	private byte[][] getChildTiles(int childZoom, int parentCol, int parentRow) {
+		byte[][] children = new byte[4][];
+
+		ICursor cur = query(geoPackage, new String[]{"tile_column", "tile_row", "tile_data"},
+				String.format("zoom_level=%s AND tile_column BETWEEN %s AND %s AND tile_row BETWEEN %s AND %s",
+						childZoom, parentCol*2, parentCol*2+1, parentRow*2, parentRow*2+1) );
+		if (cur==null) return children;
+
+		boolean hasNext = cur.moveToFirst();
+		while (hasNext) {
+			int idx = (cur.getInt(1) - parentRow*2) * 2 + (cur.getInt(0) - parentCol*2);
+			children[idx] = cur.getBlob(2);
+			hasNext = cur.moveToNext();
+		}
+		cur.close();
+
+		return children;
+	}
+	/** Set whether this table should store each distinct tile payload only once.
+	 * This must be set prior to {@link #create(BoundingBox, int, int, double, double)}.<p>
+	 * When set, tile data is stored in a side table keyed by a hash of the payload and
+	 * the table itself is created as a view with the standard tiles columns, so readers
+	 * are unaffected. Tiles must then be inserted through this class (i.e. via
+	 * {@link GeoPackage#insertTile(String, byte[], int, int, int)}) as the view cannot be
+	 * inserted to directly. Payloads no longer referenced by any tile are deleted when
+	 * tiles are deleted or re-pointed. This is registered in gpkg_extensions as {@link #DEDUPE_EXTENSION}.
+	 * 
+	 * @param deduplicate True to de-duplicate tile data
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+	/** Does this table store each distinct tile payload only once? 
+	 * 
+	 * @return True if the table was created with {@link #setDeduplicate(boolean)}
+	 */
+	public boolean isDeduplicated() {
+		checkExtensions();
+		return deduplicate;
+	}
+	/** Set the order tiles are physically stored in. This must be set prior to 
+	 * {@link #create(BoundingBox, int, int, double, double)}.<p>
+	 * When set to {@link #TILE_ORDER_QUADKEY} or {@link #TILE_ORDER_HILBERT} the id of each 
+	 * tile is set from its zoom level and its position along the curve, rather than the order 
+	 * of insert, so neighbouring tiles sit on neighbouring database pages. Use 
+	 * {@link #getKeyRangeWhere(int, int, int, int, int)} to query a block of tiles by id range.
+	 * This is registered in gpkg_extensions as {@link #ORDER_EXTENSION}.
+	 * 
+	 * @param tileOrder One of {@link #TILE_ORDER_INSERT}, {@link #TILE_ORDER_QUADKEY} 
+	 * or {@link #TILE_ORDER_HILBERT}
+	 */
+	public void setTileOrder(int tileOrder) {
+		if (tileOrder<TILE_ORDER_INSERT || tileOrder>TILE_ORDER_HILBERT)
+			throw new IllegalArgumentException("Unknown tile order "+tileOrder);
+		this.tileOrder = tileOrder;
+	}
+	/** Get the order tiles are stored in for this table
+	 * 
+	 * @return One of {@link #TILE_ORDER_INSERT}, {@link #TILE_ORDER_QUADKEY} 
+	 * or {@link #TILE_ORDER_HILBERT}
+	 */
+	public int getTileOrder() {
+		checkExtensions();
+		return tileOrder;
+	}
+	/** Get the id a tile is stored under when this table is stored in curve order. 
+	 * The zoom level is held in the top bits so each zoom level is a contiguous block.
+	 * 
+	 * @param tileColumn
+	 * @param tileRow
+	 * @param zoom
+	 * @return The tile id, or -1 if this table is stored in insert order
+	 */
+	public long getTileKey(int tileColumn, int tileRow, int zoom) {
+		long curve;
+		switch (getTileOrder()) {
+		case TILE_ORDER_QUADKEY:
+			curve = OSMTile.getQuadKeyIndex(tileColumn, tileRow);
+			break;
+		case TILE_ORDER_HILBERT:
+			curve = OSMTile.getHilbertIndex(tileColumn, tileRow, zoom);
+			break;
+		default:
+			return -1;
+		}
+		return ((long)zoom << (OSMTile.MAX_KEY_ZOOM*2)) | curve;
+	}
+	/** Get the contiguous ranges of tile ids that cover a block of tiles. 
+	 * The ranges are sorted and do not overlap.<p>
+	 * The block is split into the aligned quadrants of the curve, each of which is
+	 * one range of ids, so the number of ranges grows with the edge of the block 
+	 * rather than the number of tiles in it.
+	 * 
+	 * @param minCol The first tile column
+	 * @param minRow The first tile row
+	 * @param maxCol The last tile column (inclusive)
+	 * @param maxRow The last tile row (inclusive)
+	 * @param zoom The zoom level
+	 * @return A list of long[] as from, to (both inclusive) or an empty
+	 * list if this table is stored in insert order
+	 */
+	public List<long[]> getKeyRanges(int minCol, int minRow, int maxCol, int maxRow, int zoom) {
+		List<long[]> ranges = new ArrayList<long[]>();
+		if (getTileOrder()==TILE_ORDER_INSERT) return ranges;
+
+		int n = 1 << zoom;
+		minCol = Math.max(minCol, 0);
+		minRow = Math.max(minRow, 0);
+		maxCol = Math.min(maxCol, n-1);
+		maxRow = Math.min(maxRow, n-1);
+		if (minCol>maxCol || minRow>maxRow) return ranges;
+
+		List<long[]> quads = new ArrayList<long[]>();
+		addQuadrantRanges(quads, 0, 0, n, minCol, minRow, maxCol, maxRow, zoom);
+		Collections.sort(quads, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] lhs, long[] rhs) {
+				return lhs[0] < rhs[0] ? -1 : (lhs[0]==rhs[0] ? 0 : 1);
+			}
+		});
+
+		long[] current = quads.get(0);
+		for (int i=1; i<quads.size(); i++) {
+			long[] q = quads.get(i);
+			if (q[0]==current[1]+1) {
+				current[1] = q[1];
+			} else {
+				ranges.add(current);
+				current = q;
+			}
+		}
+		ranges.add(current);
+
+		return ranges;
+	}
+	/** Add the id range of each of the largest aligned quadrants that lie inside a 
+	 * block of tiles. Both curves visit every tile in an aligned quadrant before 
+	 * leaving it, so its tiles have consecutive ids.
+	 * 
+	 * @param ranges The list to add long[] as from, to (both inclusive) to
+	 * @param col The first column of the quadrant
+	 * @param row The first row of the quadrant
+	 * @param size The width of the quadrant in tiles
+	 * @param minCol
+	 * @param minRow
+	 * @param maxCol
+	 * @param maxRow
+	 * @param zoom
+	 */
+	private void addQuadrantRanges(List<long[]> ranges, int col, int row, int size, 
+			int minCol, int minRow, int maxCol, int maxRow, int zoom) {
+		long lastCol = (long)col + size - 1;
+		long lastRow = (long)row + size - 1;
+		if (col>maxCol || row>maxRow || lastCol<minCol || lastRow<minRow) return;
+
+		if (col>=minCol && row>=minRow && lastCol<=maxCol && lastRow<=maxRow) {
+			long count = (long)size * size;
+			long first = getTileKey(col, row, zoom) & ~(count-1);
+			ranges.add(new long[]{first, first+count-1});
+			return;
+		}
+
+		int half = size / 2;
+		addQuadrantRanges(ranges, col, row, half, minCol, minRow, maxCol, maxRow, zoom);
+		addQuadrantRanges(ranges, col+half, row, half, minCol, minRow, maxCol, maxRow, zoom);
+		addQuadrantRanges(ranges, col, row+half, half, minCol, minRow, maxCol, maxRow, zoom);
+		addQuadrantRanges(ranges, col+half, row+half, half, minCol, minRow, maxCol, maxRow, zoom);
+	}
+	/** Get a where clause selecting a block of tiles by id range for use with 
+	 * {@link #query(String)} or {@link GeoPackage#getTiles(String, String)}. If this
+	 * table is stored in insert order, or the block has more than {@link #MAX_KEY_RANGE_TILES}
+	 * tiles, a column and row where clause is returned instead.<p>
+	 * No more than {@link #MAX_KEY_RANGES} ranges are used. If the block needs more the
+	 * smallest gaps between ranges are merged and the column and row clause is added 
+	 * to drop the tiles in the merged gaps.
+	 * 
+	 * @param minCol The first tile column
+	 * @param minRow The first tile row
+	 * @param maxCol The last tile column (inclusive)
+	 * @param maxRow The last tile row (inclusive)
+	 * @param zoom The zoom level
+	 * @return The where clause, excluding the 'where'
+	 */
+	public String getKeyRangeWhere(int minCol, int minRow, int maxCol, int maxRow, int zoom) {
+		String blockWhere = String.format(
+				"zoom_level=%s AND tile_column >= %s AND tile_column <= %s AND tile_row >=%s AND tile_row <=%s", 
+				zoom, minCol, maxCol, minRow, maxRow);
+		if (getTileOrder()==TILE_ORDER_INSERT) return blockWhere;
+
+		int n = 1 << zoom;
+		long cols = (long)Math.min(maxCol, n-1) - Math.max(minCol, 0) + 1;
+		long rows = (long)Math.min(maxRow, n-1) - Math.max(minRow, 0) + 1;
+		if (cols<=0 || rows<=0) return "id=-1";
+		if (cols * rows > MAX_KEY_RANGE_TILES) return blockWhere;
+
+		List<long[]> ranges = getKeyRanges(minCol, minRow, maxCol, maxRow, zoom);
+		if (ranges.size()==0) return "id=-1";
+
+		boolean merged = ranges.size() > MAX_KEY_RANGES;
+		if (merged) ranges = mergeKeyRanges(ranges, MAX_KEY_RANGES);
+
+		StringBuffer sb = new StringBuffer();
+		for (long[] r : ranges) {
+			if (sb.length()>0) sb.append(" OR ");
+			if (r[0]==r[1]) {
+				sb.append("id=").append(r[0]);
+			} else {
+				sb.append("id BETWEEN ").append(r[0]).append(" AND ").append(r[1]);
+			}
+		}
+		if (!merged) return sb.toString();
+
+		return "("+sb.toString()+") AND "+blockWhere;
+	}
+	/** Reduce a sorted list of id ranges to a maximum number by joining the
+	 * ranges either side of the smallest gaps.
+	 * 
+	 * @param ranges The ranges from {@link #getKeyRanges(int, int, int, int, int)}
+	 * @param maxRanges The maximum number of ranges to return
+	 * @return A new list of ranges covering (at least) the same ids
+	 */
+	private static List<long[]> mergeKeyRanges(List<long[]> ranges, int maxRanges) {
+		int toMerge = ranges.size() - maxRanges;
+		if (toMerge<=0) return ranges;
+
+		long[] gaps = new long[ranges.size()-1];
+		for (int i=0; i<gaps.length; i++) gaps[i] = ranges.get(i+1)[0] - ranges.get(i)[1];
+		long[] sorted = gaps.clone();
+		Arrays.sort(sorted);
+
+		// Join every gap below the threshold, and as many at it as are needed
+		long threshold = sorted[toMerge-1];
+		int atThreshold = 0;
+		for (int i=0; i<toMerge; i++) {
+			if (sorted[i]==threshold) atThreshold++;
+		}
+
+		List<long[]> merged = new ArrayList<long[]>(maxRanges);
+		long[] current = new long[]{ranges.get(0)[0], ranges.get(0)[1]};
+		for (int i=1; i<ranges.size(); i++) {
+			long gap = gaps[i-1];
+			boolean join = gap < threshold;
+			if (!join && gap==threshold && atThreshold>0) {
+				join = true;
+				atThreshold--;
+			}
+			if (join) {
+				current[1] = ranges.get(i)[1];
+			} else {
+				merged.add(current);
+				current = new long[]{ranges.get(i)[0], ranges.get(i)[1]};
+			}
+		}
+		merged.add(current);
+
+		return merged;
+	}
+	/** Read the de-duplication and tile order settings from gpkg_extensions
+	 * if this table was not created by this instance.
+	 */
+	private void checkExtensions() {
+		if (extensionsChecked) return;
+
+		List<Extension> exts = getExtensionInfo(geoPackage);
+		if (exts!=null) {
+			for (Extension e : exts) {
+				if (DEDUPE_EXTENSION.equals(e.extensionName)) {
+					deduplicate = true;
+				} else if (ORDER_EXTENSION.equals(e.extensionName)) {
+					tileOrder = "hilbert".equals(e.definition) ? TILE_ORDER_HILBERT : TILE_ORDER_QUADKEY;
+				}
+			}
+		}
+		extensionsChecked = true;
+	}
+	/** Get copies of the tiles with the id set from their position along the 
+	 * curve, sorted in to that order. The supplied values are not changed.
+	 * 
+	 * @param allValues
+	 * @return The sorted list of tiles
+	 */
+	private List<Map<String, Object>> applyTileOrder(List<Map<String, Object>> allValues) {
+		if (getTileOrder()==TILE_ORDER_INSERT) return allValues;
+
+		List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>(allValues.size());
+		for (Map<String, Object> values : allValues) sorted.add( withTileKey(values) );
+		if (sorted.size()<2) return sorted;
+		
+		Collections.sort(sorted, new Comparator<Map<String, Object>>() {
+			@Override
+			public int compare(Map<String, Object> lhs, Map<String, Object> rhs) {
+				long l = (Long) lhs.get("id");
+				long r = (Long) rhs.get("id");
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		return sorted;
+	}
+	/** Get a copy of a tile's values with the id set from its position along the curve
+	 * 
+	 * @param values
+	 * @return
+	 */
+	private Map<String, Object> withTileKey(Map<String, Object> values) {
+		Map<String, Object> copy = new HashMap<String, Object>(values);
+		copy.put("id", getTileKey(
+				((Number)values.get("tile_column")).intValue(),
+				((Number)values.get("tile_row")).intValue(),
+				((Number)values.get("zoom_level")).intValue()) );
+		return copy;
+	}
+	/** Insert a single tile. If this table is stored in curve order the id
+	 * is set on a copy of the supplied values.
+	 * 
+	 * @param geoPackage
+	 * @param values
+	 * @return The row ID of the newly inserted row (the tile reference if this table is
+	 * de-duplicated) or -1 if the tile could not be inserted
+	 */
+	@Override
+	public long insert(GeoPackage geoPackage, Map<String, Object> values) {
+		if (!isDeduplicated()) {
+			if (getTileOrder()!=TILE_ORDER_INSERT) values = withTileKey(values);
+			return super.insert(geoPackage, values);
+		}
+
+		List<Map<String, Object>> single = new ArrayList<Map<String, Object>>();
+		single.add( getTileOrder()==TILE_ORDER_INSERT ? values : withTileKey(values) );
+		List<Long> stored = new ArrayList<Long>();
+		List<Map<String, Object>> refs = storeTileData(geoPackage, single, stored);
+		if (refs==null) return -1;
+
+		long rowID = geoPackage.getDatabase().doInsert("["+tableName+DEDUPE_REFS_SUFFIX+"]", refs.get(0));
+		if (rowID<=0) {
+			removeUnreferenced(geoPackage, stored);
+			return -1;
+		}
+		return rowID;
+	}
+	/** Insert a set of tiles as a batch. If this table is de-duplicated each tile
+	 * payload is stored once and referenced by id. If the table is stored in curve 
+	 * order the batch is written in curve order, with the id set on copies of the
+	 * supplied values.
+	 * 
+	 * @param geoPackage
+	 * @param allValues
+	 * @return The number of tiles successfully inserted
+	 */
+	@Override
+	public long insert(GeoPackage geoPackage, List<Map<String, Object>> allValues) {
+		if (allValues==null || allValues.size()==0) return 0;
+		allValues = applyTileOrder(allValues);
+		if (!isDeduplicated()) return super.insert(geoPackage, allValues);
+
+		List<Long> stored = new ArrayList<Long>();
+		List<Map<String, Object>> refs = storeTileData(geoPackage, allValues, stored);
+		if (refs==null) return 0;
+
+		long ins = geoPackage.getDatabase().doInsert("["+tableName+DEDUPE_REFS_SUFFIX+"]", refs);
+		if (ins < refs.size()) removeUnreferenced(geoPackage, stored);
+		return ins;
+	}
+	/** Store the payloads of a set of tiles in the de-duplicated data table, skipping 
+	 * any already stored. If the references to them are then not inserted the new
+	 * payloads must be removed with {@link #removeUnreferenced(GeoPackage, List)}.
+	 * 
+	 * @param geoPackage
+	 * @param allValues
+	 * @param stored Populated with the ids of the payloads newly stored
+	 * @return The rows to insert to the reference table, or Null if the
+	 * payloads could not all be stored
+	 */
+	private List<Map<String, Object>> storeTileData(GeoPackage geoPackage, List<Map<String, Object>> allValues,
+			List<Long> stored) {
+		if (dedupeCache==null) {
+			dedupeCache = new LinkedHashMap<Long, byte[]>(DEDUPE_CACHE_SIZE, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+					return size() > DEDUPE_CACHE_SIZE;
+				}
+			};
+		}
+
+		List<Map<String, Object>> newData = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> refs = new ArrayList<Map<String, Object>>(allValues.size());
+		Map<Long, byte[]> pending = new HashMap<Long, byte[]>();
+
+		long[] hashes = new long[allValues.size()];
+		for (int i=0; i<hashes.length; i++) hashes[i] = hashTile( (byte[]) allValues.get(i).get("tile_data") );
+		checkCachedTiles(geoPackage, hashes);
+
+		for (int i=0; i<hashes.length; i++) {
+			Map<String, Object> values = allValues.get(i);
+			byte[] data = (byte[]) values.get("tile_data");
+			long dataID = hashes[i];
+
+			/* Probe from the hash until we find the same payload or a free id, so a
+			 * hash collision can never return the wrong tile. */
+			while (true) {
+				byte[] existing = pending.get(dataID);
+				if (existing==null) existing = dedupeCache.get(dataID);
+				if (existing==null) existing = getStoredTile(dataID);
+
+				if (existing==null) {
+					Map<String, Object> d = new HashMap<String, Object>();
+					d.put("id", dataID);
+					d.put("tile_data", data);
+					newData.add(d);
+					pending.put(dataID, data);
+					break;
+				} else if (Arrays.equals(existing, data)) {
+					break;
+				}
+				dataID++;
+			}
+			dedupeCache.put(dataID, data);
+
+			Map<String, Object> ref = new HashMap<String, Object>();
+			ref.put("zoom_level", values.get("zoom_level"));
+			ref.put("tile_column", values.get("tile_column"));
+			ref.put("tile_row", values.get("tile_row"));
+			ref.put("tile_data_id", dataID);
+			if (values.containsKey("id")) ref.put("id", values.get("id"));
+			refs.add(ref);
+		}
+
+		if (newData.size()>0) {
+			List<Long> newIDs = new ArrayList<Long>(pending.keySet());
+			long ins = geoPackage.getDatabase().doInsert("["+tableName+DEDUPE_DATA_SUFFIX+"]", newData);
+			if (ins < newData.size()) {
+				// Don't leave behind the part that did go in, or trust the cache
+				removeUnreferenced(geoPackage, newIDs);
+				dedupeCache.clear();
+				return null;
+			}
+			stored.addAll(newIDs);
+		}
+
+		return refs;
+	}
+	/** Payloads are deleted by trigger once no tile references them, so remove any
+	 * cached payloads a batch would use that are no longer stored. This takes one
+	 * query per {@link #MAX_ID_LIST} cached ids rather than one per tile.
+	 * 
+	 * @param geoPackage
+	 * @param hashes The payload hashes of the batch
+	 */
+	private void checkCachedTiles(GeoPackage geoPackage, long[] hashes) {
+		if (dedupeCache.isEmpty()) return;
+
+		List<Long> cached = new ArrayList<Long>();
+		for (long h : hashes) {
+			// Include the ids probed past on a hash collision
+			for (long id=h; dedupeCache.containsKey(id); id++) {
+				if (!cached.contains(id)) cached.add(id);
+			}
+		}
+
+		for (int i=0; i<cached.size(); i+=MAX_ID_LIST) {
+			List<Long> ids = cached.subList(i, Math.min(i+MAX_ID_LIST, cached.size()));
+			ICursor cur = geoPackage.getDatabase().doRawQuery("SELECT id FROM ["+tableName+DEDUPE_DATA_SUFFIX+
+					"] WHERE id IN ("+toIDList(ids)+")");
+			List<Long> missing = new ArrayList<Long>(ids);
+			if (cur!=null) {
+				boolean hasNext = cur.moveToFirst();
+				while (hasNext) {
+					missing.remove( Long.valueOf(cur.getLong(0)) );
+					hasNext = cur.moveToNext();
+				}
+				cur.close();
+			}
+			for (Long id : missing) dedupeCache.remove(id);
+		}
+	}
+	/** Delete payloads from the de-duplicated data table that no tile references,
+	 * such as those stored for tiles whose references then failed to insert.
+	 * 
+	 * @param geoPackage
+	 * @param dataIDs The payload ids to check
+	 */
+	private void removeUnreferenced(GeoPackage geoPackage, List<Long> dataIDs) {
+		String data = "["+tableName+DEDUPE_DATA_SUFFIX+"]";
+		for (int i=0; i<dataIDs.size(); i+=MAX_ID_LIST) {
+			List<Long> ids = dataIDs.subList(i, Math.min(i+MAX_ID_LIST, dataIDs.size()));
+			geoPackage.getDatabase().execSQL("DELETE FROM "+data+" WHERE id IN ("+toIDList(ids)+") AND NOT EXISTS "+
+					"(SELECT 1 FROM ["+tableName+DEDUPE_REFS_SUFFIX+"] WHERE tile_data_id="+data+".id)");
+			for (Long id : ids) dedupeCache.remove(id);
+		}
+	}
+	/** Join a list of ids for an SQL IN clause
+	 * 
+	 * @param ids
+	 * @return
+	 */
+	private static String toIDList(List<Long> ids) {
+		StringBuffer sb = new StringBuffer();
+		for (Long id : ids) {
+			if (sb.length()>0) sb.append(',');
+			sb.append(id);
+		}
+		return sb.toString();
+	}
+	/** Get a stored tile payload from the de-duplicated data table
+	 * 
+	 * @param dataID
+	 * @return The payload or Null if there isn't one with that id
+	 */
+	private byte[] getStoredTile(long dataID) {
+		ICursor cur = geoPackage.getDatabase().doQuery("["+tableName+DEDUPE_DATA_SUFFIX+"]", 
+				new String[]{"tile_data"}, "id="+dataID);
+		byte[] data = null;
+		if (cur!=null && cur.moveToFirst()) data = cur.getBlob(0);
+		if (cur!=null) cur.close();
+		return data;
+	}
+	/** A 64bit FNV-1a hash of the tile payload
+	 * 
+	 * @param data
+	 * @return
+	 */
+	private static long hashTile(byte[] data) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i=0; i<data.length; i++) {
+			hash ^= (data[i] & 0xFF);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
 	/** Issue a raw query on this table using a where clause
 	 * 
 	 * @param strWhere The where clause excluding the 'where'
@@ -308,6 +1063,14 @@ public class TilesTable extends GpkgTable {
 		public int getMaxZoom() {
 			return this.maxZoom;
 		}
+		/** Is the specified zoom level defined in the tile matrix for this table?
+		 *
+		 * @param zoom The required zoom
+		 * @return True if defined
+		 */
+		public boolean isZoomDefined(int zoom) {
+			return matFields.containsKey(zoom);
+		}
 		/** Get a single pixel size for a tile at a specified zoom level
 		 * 
 		 * @param zoom The required zoom
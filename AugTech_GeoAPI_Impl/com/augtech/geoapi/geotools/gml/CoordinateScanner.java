@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+/** Scans the text of GML coordinates, pos, posList and corner elements
+ * in to an array of packed ordinates.<p>
+ * Text is passed in the chunks given by the XML parser and each number
+ * is parsed directly from the parser's character buffer. A number split
+ * across chunks is held until the next chunk or the end of the element.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+class CoordinateScanner {
+	/** Powers of ten that are exactly representable as a double */
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private char coordinateDelimeter = ',';
+	private char tupleDelimeter = ' ';
+	private char decimalDelimeter = '.';
+
+	/** Ordinates scanned for the current element */
+	private double[] ordinates = new double[64];
+	/** Number of values held in ordinates */
+	private int ordinateCount = 0;
+	/** Characters of a number, which may be split across chunks */
+	private char[] token = new char[32];
+	/** Number of characters held in token */
+	private int tokenLength = 0;
+	/** Whether the current element is a GML3 pos, posList or corner */
+	private boolean gml3 = false;
+	/** GML2 only - the number of values in the first tuple */
+	private int tupleDimension = 0;
+	/** GML2 only - the number of values read in the current tuple */
+	private int tupleValues = 0;
+	/** The dimension of the last element ended */
+	private int dimension = 2;
+
+	/** Set the delimiters used by GML2 coordinates elements (the cs, ts and
+	 * decimal attributes).
+	 *
+	 * @param cs The coordinate separator, default ','
+	 * @param ts The tuple separator, default ' '
+	 * @param decimal The decimal point, default '.'
+	 */
+	void setDelimiters(char cs, char ts, char decimal) {
+		this.coordinateDelimeter = cs;
+		this.tupleDelimeter = ts;
+		this.decimalDelimeter = decimal;
+	}
+	/** Start scanning a new element
+	 *
+	 * @param gml3 True if the values are only separated by white space
+	 * and grouped by the dimension passed to {@link #end(int)}
+	 */
+	void start(boolean gml3) {
+		this.gml3 = gml3;
+		ordinateCount = 0;
+		tokenLength = 0;
+		tupleDimension = 0;
+		tupleValues = 0;
+	}
+	/** Scan a chunk of text
+	 *
+	 * @param ch The parser's character buffer
+	 * @param start The start of the chunk in ch
+	 * @param length The length of the chunk
+	 * @throws NumberFormatException If a value is not a number
+	 */
+	void scan(char[] ch, int start, int length) {
+		int end = start + length;
+
+		for (int i = start; i < end; i++) {
+			char c = ch[i];
+
+			if (c == coordinateDelimeter && !gml3) {
+				endToken();
+			} else if (c == tupleDelimeter || Character.isWhitespace(c)) {
+				endToken();
+				if (!gml3 && (c == tupleDelimeter || Character.isWhitespace(tupleDelimeter))) {
+					endTuple();
+				}
+			} else {
+				if (c == decimalDelimeter) c = '.';
+				if (tokenLength == token.length) {
+					char[] grown = new char[token.length * 2];
+					System.arraycopy(token, 0, grown, 0, tokenLength);
+					token = grown;
+				}
+				token[tokenLength++] = c;
+			}
+		}
+	}
+	/** End the current element.<p>
+	 * GML2 coordinates take their dimension from the first tuple, any later
+	 * tuples with fewer values are padded with NaN and those with more are
+	 * truncated.
+	 *
+	 * @param gml3Dimension The dimension to group GML3 values by
+	 * @return The number of coordinates available from {@link #getOrdinates()}
+	 * @throws IllegalArgumentException If the dimension is less than 2
+	 */
+	int end(int gml3Dimension) {
+		endToken();
+
+		dimension = gml3Dimension;
+		if (!gml3) {
+			endTuple();
+			dimension = tupleDimension;
+		}
+		if (ordinateCount == 0) return 0;
+		if (dimension < 2) throw new IllegalArgumentException("Invalid coordinate dimension: " + dimension);
+
+		return ordinateCount / dimension;
+	}
+	/** Get the ordinates scanned for the last element. The array is
+	 * re-used for the next element, so must be copied if it is to be kept.
+	 *
+	 * @return
+	 */
+	double[] getOrdinates() {
+		return ordinates;
+	}
+	/** Get the dimension of the last element ended
+	 *
+	 * @return
+	 */
+	int getDimension() {
+		return dimension;
+	}
+	/** Parse any number held in the token buffer on to the ordinates.
+	 */
+	private void endToken() {
+		if (tokenLength == 0) return;
+
+		addOrdinate( parseDouble(token, tokenLength) );
+		tokenLength = 0;
+		tupleValues++;
+	}
+	/** End a GML2 tuple.
+	 */
+	private void endTuple() {
+		if (tupleValues == 0) return;
+
+		if (tupleDimension == 0) {
+			tupleDimension = tupleValues;
+		} else if (tupleValues > tupleDimension) {
+			ordinateCount -= tupleValues - tupleDimension;
+		} else {
+			for (int i = tupleValues; i < tupleDimension; i++) {
+				addOrdinate(Double.NaN);
+			}
+		}
+		tupleValues = 0;
+	}
+	/** Append a value to the ordinates, growing the array if required.
+	 *
+	 * @param value The value to append.
+	 */
+	private void addOrdinate(double value) {
+		if (ordinateCount == ordinates.length) {
+			double[] grown = new double[ordinates.length * 2];
+			System.arraycopy(ordinates, 0, grown, 0, ordinateCount);
+			ordinates = grown;
+		}
+		ordinates[ordinateCount++] = value;
+	}
+	/** Parse a decimal number from a character buffer without creating a
+	 * String. Numbers with up to 15 significant digits and a small exponent,
+	 * which covers almost all coordinates, are converted exactly by a single
+	 * multiply or divide by a power of ten. Anything else falls back to
+	 * {@link Double#parseDouble(String)}.
+	 *
+	 * @param c The buffer holding the number
+	 * @param len The number of characters in the number
+	 * @return The parsed value
+	 * @throws NumberFormatException If the characters are not a number
+	 */
+	static double parseDouble(char[] c, int len) {
+		int i = 0;
+		boolean negative = false;
+		if (c[0] == '-' || c[0] == '+') {
+			negative = c[0] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+
+		for (; i < len; i++) {
+			char ch = c[i];
+			if (ch >= '0' && ch <= '9') {
+				seenDigit = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (ch - '0');
+					if (mantissa > 0) digits++;
+					if (seenPoint) exponent--;
+				} else {
+					// Too many digits to hold exactly
+					return Double.parseDouble(new String(c, 0, len));
+				}
+			} else if (ch == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				break;
+			}
+		}
+
+		if (i < len && seenDigit && (c[i] == 'e' || c[i] == 'E')) {
+			int e = 0;
+			boolean negativeExp = false;
+			i++;
+			if (i < len && (c[i] == '-' || c[i] == '+')) {
+				negativeExp = c[i] == '-';
+				i++;
+			}
+			int expStart = i;
+			for (; i < len && c[i] >= '0' && c[i] <= '9' && e < 10000; i++) {
+				e = e * 10 + (c[i] - '0');
+			}
+			if (i == expStart) i = -1;
+			exponent += negativeExp ? -e : e;
+		}
+
+		// Anything unusual (NaN, Infinity, hex, rubbish) or not exact
+		if (i != len || !seenDigit || mantissa > (1L << 53)
+				|| exponent < -22 || exponent > 22) {
+			return Double.parseDouble(new String(c, 0, len));
+		}
+
+		double value = mantissa;
+		if (exponent < 0) {
+			value /= POW10[-exponent];
+		} else if (exponent > 0) {
+			value *= POW10[exponent];
+		}
+		return negative ? -value : value;
+	}
+}
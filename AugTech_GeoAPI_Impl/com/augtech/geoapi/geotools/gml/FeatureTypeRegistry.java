@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeType;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.augtech.geoapi.feature.NameImpl;
+import com.augtech.geoapi.feature.type.AttributeTypeImpl;
+import com.augtech.geoapi.feature.type.SimpleFeatureTypeImpl;
+
+/** Holds one shared {@link SimpleFeatureTypeImpl} per qualified type name for
+ * the GML readers, widening each type as new attributes are found so that
+ * every feature of a type references the same type instance.<p>
+ * A registry may be shared by several parsing threads, or by the parsers of
+ * several documents that should build the same types.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class FeatureTypeRegistry {
+	private Map<String, Entry> types = new HashMap<String, Entry>();
+
+	/** Get the shared registry entry for a type name, creating it on first use.
+	 *
+	 * @param qName The qualified name of the feature type
+	 * @param geomDescriptor The geometry descriptor to use if the type is new
+	 * @return The registry entry
+	 */
+	synchronized Entry get(String qName, GeometryDescriptor geomDescriptor) {
+		Entry entry = types.get(qName);
+		if (entry == null) {
+			entry = new Entry( new SimpleFeatureTypeImpl(
+					NameImpl.getNameImpl(qName),
+					new ArrayList<AttributeType>(),
+					geomDescriptor) );
+			types.put(qName, entry);
+		}
+		return entry;
+	}
+	/** Get the feature types built so far, keyed on their qualified type name.
+	 *
+	 * @return A map of qualified type name to type
+	 */
+	public synchronized Map<String, SimpleFeatureType> getFeatureTypes() {
+		Map<String, SimpleFeatureType> ret = new HashMap<String, SimpleFeatureType>();
+		for (Map.Entry<String, Entry> e : types.entrySet()) {
+			ret.put(e.getKey(), e.getValue().type);
+		}
+		return ret;
+	}
+
+	/** A shared feature type along with a lookup of attribute qualified name to
+	 * its position in the type, so values from each feature member can be
+	 * placed without searching the type.<p>
+	 * Features already handed out are never changed when an attribute binding is
+	 * later widened. Instead their value lists convert each value to the current
+	 * binding as it is read.
+	 */
+	static class Entry {
+		final SimpleFeatureTypeImpl type;
+		final Map<String, Integer> index = new HashMap<String, Integer>();
+
+		Entry(SimpleFeatureTypeImpl type) {
+			this.type = type;
+		}
+
+		/** Build the positional value list for a feature, adding any attributes
+		 * the type has not seen before and widening the binding of any whose
+		 * values no longer match it.
+		 *
+		 * @param names The qualified attribute names, in document order
+		 * @param values The values, matching names
+		 * @return A list sized to the current type with nulls for absent attributes,
+		 * which reads each value as the current binding of its attribute
+		 */
+		synchronized List<Object> getValues(List<String> names, List<Object> values) {
+			Object[] placed = new Object[type.getAttributeCount() + names.size()];
+			int size = type.getAttributeCount();
+
+			for (int i = 0; i < names.size(); i++) {
+				String name = names.get(i);
+				Object value = values.get(i);
+				Integer idx = index.get(name);
+
+				if (idx == null) {
+					List<AttributeType> newType = new ArrayList<AttributeType>(1);
+					newType.add( new AttributeTypeImpl(NameImpl.getNameImpl(name), value.getClass()) );
+					type.addAttributeTypes(newType);
+					idx = Integer.valueOf(type.getAttributeCount() - 1);
+					index.put(name, idx);
+					size = idx.intValue() + 1;
+				} else {
+					AttributeType at = type.getType(idx.intValue());
+					Class<?> binding = at.getBinding();
+					if (binding != value.getClass() && binding != String.class) {
+						Class<?> wider = String.class;
+						if (isWhole(binding) && isWhole(value.getClass())) {
+							wider = Long.class;
+						} else if (Number.class.isAssignableFrom(binding) && value instanceof Number) {
+							wider = Double.class;
+						}
+						if (binding != wider) {
+							type.setAttributeType(idx.intValue(), new AttributeTypeImpl(at.getName(), wider));
+						}
+					}
+					value = convert(value, type.getType(idx.intValue()).getBinding());
+				}
+				placed[idx.intValue()] = value;
+			}
+
+			List<Object> ret = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++) {
+				ret.add(placed[i]);
+			}
+
+			return new TypedValues(type, ret);
+		}
+
+		/** Convert a value to the (wider) binding of its attribute
+		 *
+		 * @param value
+		 * @param binding One of String, Long or Double, or the value's own class
+		 * @return The converted value
+		 */
+		static Object convert(Object value, Class<?> binding) {
+			if (value == null || binding.isInstance(value)) return value;
+			if (binding == String.class) return String.valueOf(value);
+			if (value instanceof Number) {
+				if (binding == Long.class) return Long.valueOf( ((Number) value).longValue() );
+				if (binding == Double.class) return Double.valueOf( ((Number) value).doubleValue() );
+			}
+			return value;
+		}
+
+		private static boolean isWhole(Class<?> clazz) {
+			return clazz == Integer.class || clazz == Long.class;
+		}
+	}
+
+	/** A feature's attribute values, read as the current binding of each attribute
+	 * in the shared type so values stored before the type was widened match it
+	 * without the stored values being changed.
+	 */
+	static class TypedValues extends AbstractList<Object> {
+		private final SimpleFeatureTypeImpl type;
+		private final List<Object> values;
+
+		TypedValues(SimpleFeatureTypeImpl type, List<Object> values) {
+			this.type = type;
+			this.values = values;
+		}
+		@Override
+		public Object get(int idx) {
+			Object value = values.get(idx);
+			if (value == null || idx >= type.getAttributeCount()) return value;
+			return Entry.convert(value, type.getType(idx).getBinding());
+		}
+		@Override
+		public int size() {
+			return values.size();
+		}
+		@Override
+		public Object set(int idx, Object value) {
+			return values.set(idx, value);
+		}
+		@Override
+		public void add(int idx, Object value) {
+			values.add(idx, value);
+		}
+		@Override
+		public Object remove(int idx) {
+			return values.remove(idx);
+		}
+	}
+}
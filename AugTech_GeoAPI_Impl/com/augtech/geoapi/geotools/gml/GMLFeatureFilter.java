@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.opengis.geometry.BoundingBox;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/** Describes which features and attributes should be read from a GML document,
+ * so that the readers can discard anything else while parsing rather than building
+ * complete features to be filtered afterwards.<p>
+ * A feature is only read if its type is one of the type names (when set) and its
+ * envelope, either from <code>boundedBy</code> or its geometry, intersects the bounds
+ * (when set). Only attributes in the attribute list (when set) have their values
+ * collected; geometry is always read.<p>
+ * All names are element local names. The filter should not be changed once
+ * parsing has started.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class GMLFeatureFilter {
+	private Envelope bounds = null;
+	private Set<String> typeNames = null;
+	private Set<String> attributes = null;
+
+	/** Create a new filter that accepts everything until restricted
+	 *
+	 */
+	public GMLFeatureFilter() {
+	}
+	/** Only read features whose envelope intersects the given bounds. The bounds
+	 * must be in the same CRS as the document.
+	 *
+	 * @param bounds The bounds, or <code>Null</code> to read features anywhere
+	 */
+	public void setBounds(BoundingBox bounds) {
+		this.bounds = bounds==null ? null :
+			new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY());
+	}
+	/** Only read features whose envelope intersects the given bounds. The bounds
+	 * must be in the same CRS as the document.
+	 *
+	 * @param bounds The bounds, or <code>Null</code> to read features anywhere
+	 */
+	public void setBounds(Envelope bounds) {
+		this.bounds = bounds==null ? null : new Envelope(bounds);
+	}
+	/** Only read features of the named types
+	 *
+	 * @param typeNames The local names of the feature types, or <code>Null</code>
+	 * to read all types
+	 */
+	public void setTypeNames(Collection<String> typeNames) {
+		this.typeNames = typeNames==null ? null : new HashSet<String>(typeNames);
+	}
+	/** Only collect the values of the named attributes
+	 *
+	 * @param attributes The local names of the attributes, or <code>Null</code>
+	 * to read all attributes
+	 */
+	public void setAttributes(Collection<String> attributes) {
+		this.attributes = attributes==null ? null : new HashSet<String>(attributes);
+	}
+	/** Have bounds been set on this filter?
+	 *
+	 * @return
+	 */
+	public boolean hasBounds() {
+		return bounds!=null;
+	}
+	/** Should features of this type be read?
+	 *
+	 * @param localName The local name of the feature's element
+	 * @return
+	 */
+	public boolean isTypeAccepted(String localName) {
+		return typeNames==null || typeNames.contains(localName);
+	}
+	/** Should the value of this attribute be collected?
+	 *
+	 * @param localName The local name of the attribute's element
+	 * @return
+	 */
+	public boolean isAttributeAccepted(String localName) {
+		return attributes==null || attributes.contains(localName);
+	}
+	/** Does a feature with this envelope pass the bounds?
+	 *
+	 * @param envelope The envelope of the feature, or of its geometry
+	 * @return True if there are no bounds or the envelope intersects them
+	 */
+	public boolean isEnvelopeAccepted(Envelope envelope) {
+		return bounds==null || bounds.intersects(envelope);
+	}
+}
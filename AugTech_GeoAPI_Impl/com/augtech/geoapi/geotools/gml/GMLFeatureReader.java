@@ -0,0 +1,674 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.augtech.geoapi.feature.SimpleFeatureImpl;
+import com.augtech.geoapi.feature.type.SimpleFeatureTypeImpl;
+import com.augtech.geoapi.utils.ValueClassifier;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/** Reads features from a GML 2 or 3 document (such as a WFS GetFeature response)
+ * one at a time using a pull parser, rather than the SAX filter chain.<p>
+ * Features are only parsed as they are requested through {@link #hasNext()} and
+ * {@link #next()}, so the caller controls the pace of reading. Attributes that are
+ * not in the projection passed on construction are skipped without their text being
+ * collected or converted, and geometry parsing can be switched off altogether.<p>
+ * A {@link GMLFeatureFilter} can also be given to drop features of other types
+ * (skipped without being read at all) and features outside of a bounding box, which
+ * are abandoned as soon as their <code>boundedBy</code> or geometry has been read.<p>
+ * As with {@link GMLFilterFeature}, all features of one type share a single
+ * {@link SimpleFeatureType} which is widened as new attributes are found.<p>
+ * Supported geometries are Point, LineString, LinearRing, Polygon, Box, Envelope,
+ * MultiPoint, MultiLineString, MultiCurve, MultiPolygon, MultiSurface and
+ * GeometryCollection/ MultiGeometry using coordinates, pos or posList.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class GMLFeatureReader implements Iterator<SimpleFeature> {
+	private static final int UNKNOWN = 0;
+	private static final int MEMBER = 1;
+	private static final int BOUNDED_BY = 2;
+	private static final int EXCEPTION = 3;
+	private static final int POINT = 10;
+	private static final int LINESTRING = 11;
+	private static final int LINEARRING = 12;
+	private static final int POLYGON = 13;
+	private static final int BOX = 14;
+	private static final int MULTIPOINT = 15;
+	private static final int MULTILINESTRING = 16;
+	private static final int MULTIPOLYGON = 17;
+	private static final int GEOMETRY_COLLECTION = 18;
+	private static final int EXTERIOR = 20;
+	private static final int INTERIOR = 21;
+	private static final int COORDINATES = 30;
+	private static final int POS = 31;
+
+	/** Element local names to the codes used to dispatch them */
+	private static final Map<String, Integer> ELEMENTS = new HashMap<String, Integer>();
+	static {
+		ELEMENTS.put("featureMember", MEMBER);
+		ELEMENTS.put("featureMembers", MEMBER);
+		ELEMENTS.put("member", MEMBER);
+		ELEMENTS.put("boundedBy", BOUNDED_BY);
+		ELEMENTS.put("ServiceException", EXCEPTION);
+		ELEMENTS.put("ExceptionText", EXCEPTION);
+		ELEMENTS.put("Point", POINT);
+		ELEMENTS.put("LineString", LINESTRING);
+		ELEMENTS.put("LinearRing", LINEARRING);
+		ELEMENTS.put("Polygon", POLYGON);
+		ELEMENTS.put("Box", BOX);
+		ELEMENTS.put("Envelope", BOX);
+		ELEMENTS.put("MultiPoint", MULTIPOINT);
+		ELEMENTS.put("MultiLineString", MULTILINESTRING);
+		ELEMENTS.put("MultiCurve", MULTILINESTRING);
+		ELEMENTS.put("MultiPolygon", MULTIPOLYGON);
+		ELEMENTS.put("MultiSurface", MULTIPOLYGON);
+		ELEMENTS.put("MultiGeometry", GEOMETRY_COLLECTION);
+		ELEMENTS.put("GeometryCollection", GEOMETRY_COLLECTION);
+		ELEMENTS.put("outerBoundaryIs", EXTERIOR);
+		ELEMENTS.put("exterior", EXTERIOR);
+		ELEMENTS.put("innerBoundaryIs", INTERIOR);
+		ELEMENTS.put("interior", INTERIOR);
+		ELEMENTS.put("coordinates", COORDINATES);
+		ELEMENTS.put("pos", POS);
+		ELEMENTS.put("posList", POS);
+		ELEMENTS.put("lowerCorner", POS);
+		ELEMENTS.put("upperCorner", POS);
+	}
+
+	private static final Logger log = Logger.getLogger(GMLFeatureReader.class.getName());
+	private IPullParser parser = null;
+	/** The element depth of the parser, counted by {@link #nextEvent()} */
+	private int depth = 0;
+	private GMLFeatureFilter filter = null;
+	private boolean readGeometry = true;
+	private FeatureTypeRegistry typeRegistry = new FeatureTypeRegistry();
+	private GeometryFactory geometryFactory = new GeometryFactory();
+	private CoordinateScanner scanner = new CoordinateScanner();
+	private StringBuilder text = new StringBuilder();
+	private List<String> attrNames = new ArrayList<String>();
+	private List<Object> attrValues = new ArrayList<Object>();
+	private SimpleFeature nextFeature = null;
+	private boolean insideMember = false;
+	private boolean finished = false;
+
+	/** Create a new reader that reads all attributes and geometry
+	 *
+	 * @param parser The pull parser, positioned at the start of the document
+	 */
+	public GMLFeatureReader(IPullParser parser) {
+		this(parser, (GMLFeatureFilter) null);
+	}
+	/** Create a new reader that only reads the named attributes, plus the geometry
+	 *
+	 * @param parser The pull parser, positioned at the start of the document
+	 * @param attributes The local names of the attributes to read. If <code>Null</code>
+	 * all attributes are read.
+	 */
+	public GMLFeatureReader(IPullParser parser, Collection<String> attributes) {
+		this.parser = parser;
+		this.filter = new GMLFeatureFilter();
+		this.filter.setAttributes(attributes);
+	}
+	/** Create a new reader that only reads the features and attributes accepted
+	 * by the filter, plus the geometry
+	 *
+	 * @param parser The pull parser, positioned at the start of the document
+	 * @param filter The filter to apply while reading. If <code>Null</code>
+	 * all features and attributes are read.
+	 */
+	public GMLFeatureReader(IPullParser parser, GMLFeatureFilter filter) {
+		this.parser = parser;
+		this.filter = filter==null ? new GMLFeatureFilter() : filter;
+	}
+	/** Set whether geometries should be parsed. If not, features will be returned
+	 * without a geometry and all coordinates are skipped, unless the filter has
+	 * bounds to test them against. Default is True.
+	 *
+	 * @param readGeometry
+	 */
+	public void setReadGeometry(boolean readGeometry) {
+		this.readGeometry = readGeometry;
+	}
+	/** Get the feature types read so far, keyed on their qualified type name.
+	 *
+	 * @return A map of qualified type name to type
+	 */
+	public Map<String, SimpleFeatureType> getFeatureTypes() {
+		return typeRegistry.getFeatureTypes();
+	}
+	/** Close the reader and the underlying parser
+	 *
+	 */
+	public void close() {
+		finished = true;
+		nextFeature = null;
+		parser.close();
+	}
+	/** Read ahead to the next feature in the document
+	 *
+	 * @throws IllegalStateException If the document could not be read or is
+	 * an exception report
+	 */
+	@Override
+	public boolean hasNext() {
+		if (nextFeature!=null) return true;
+		if (finished) return false;
+
+		try {
+			nextFeature = readNext();
+		} catch (IllegalStateException e) {
+			finished = true;
+			throw e;
+		} catch (Exception e) {
+			finished = true;
+			throw new IllegalStateException(e);
+		}
+
+		return nextFeature!=null;
+	}
+
+	@Override
+	public SimpleFeature next() {
+		if (!hasNext()) throw new NoSuchElementException();
+
+		SimpleFeature ret = nextFeature;
+		nextFeature = null;
+		return ret;
+	}
+	/** Not supported */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	/** Move through the document until the next feature has been read
+	 *
+	 * @return The feature or Null at the end of the document
+	 * @throws Exception
+	 */
+	private SimpleFeature readNext() throws Exception {
+		while (true) {
+			switch (nextEvent()) {
+			case IPullParser.START_ELEMENT:
+
+				if (insideMember) {
+					if (!filter.isTypeAccepted(parser.getLocalName())) {
+						skip();
+						break;
+					}
+					SimpleFeature feature = readFeature();
+					if (feature!=null) return feature;
+					break;
+				}
+
+				switch (code(parser.getLocalName())) {
+				case MEMBER:
+					insideMember = true;
+					break;
+				case BOUNDED_BY:
+					skip();
+					break;
+				case EXCEPTION:
+					throw new IllegalStateException( readText().trim() );
+				}
+				break;
+
+			case IPullParser.END_ELEMENT:
+				insideMember = false;
+				break;
+
+			case IPullParser.END_DOCUMENT:
+				finished = true;
+				return null;
+			}
+		}
+	}
+	/** Read a feature. The parser must be on the feature's start element and
+	 * will be left on its end element.
+	 *
+	 * @return The feature, or Null if it is outside of the filter's bounds
+	 * @throws Exception
+	 */
+	private SimpleFeature readFeature() throws Exception {
+		String typeQName = qualify(parser.getPrefix(), parser.getLocalName());
+		String fid = null;
+		for (int i=0; i < parser.getAttributeCount(); i++) {
+			String name = parser.getAttributeLocalName(i);
+			if (name.equals("fid") || name.equals("id")) {
+				fid = parser.getAttributeValue(i);
+				break;
+			}
+		}
+
+		Geometry geom = null;
+		boolean testBounds = filter.hasBounds();
+		attrNames.clear();
+		attrValues.clear();
+
+		for (int event = nextEvent(); event!=IPullParser.END_ELEMENT; event = nextEvent()) {
+			if (event==IPullParser.END_DOCUMENT) throw new IllegalStateException("Unexpected end of document");
+			if (event!=IPullParser.START_ELEMENT) continue;
+
+			String localName = parser.getLocalName();
+
+			if (code(localName)==BOUNDED_BY) {
+				if (!testBounds) {
+					skip();
+					continue;
+				}
+				Object value = readProperty(false, true);
+				if (value instanceof Geometry) {
+					if (!filter.isEnvelopeAccepted( ((Geometry) value).getEnvelopeInternal() )) {
+						skip();
+						return null;
+					}
+					// The geometry itself does not need testing
+					testBounds = false;
+				}
+				continue;
+			}
+
+			String name = qualify(parser.getPrefix(), localName);
+			Object value = readProperty(filter.isAttributeAccepted(localName), readGeometry || testBounds);
+
+			if (value instanceof Geometry) {
+				if (testBounds) {
+					if (!filter.isEnvelopeAccepted( ((Geometry) value).getEnvelopeInternal() )) {
+						skip();
+						return null;
+					}
+					testBounds = false;
+				}
+				if (geom==null && readGeometry) geom = (Geometry) value;
+			} else if (value!=null) {
+				attrNames.add(name);
+				attrValues.add(value);
+			}
+		}
+
+		// No envelope to test, so cannot be within the bounds
+		if (testBounds) return null;
+
+		GeometryDescriptor geomDescriptor = null;
+		if (geom!=null) geomDescriptor = SimpleFeatureTypeImpl.getDefaultGeometryDescriptor(geom);
+
+		FeatureTypeRegistry.Entry entry = typeRegistry.get(typeQName, geomDescriptor);
+		return new SimpleFeatureImpl(fid, entry.getValues(attrNames, attrValues), entry.type, geom);
+	}
+	/** Read a feature property. The parser must be on the property's start
+	 * element and will be left on its end element.
+	 *
+	 * @param keep Whether to collect the text value
+	 * @param geometry Whether to read a geometry
+	 * @return A Geometry, the converted text value, or Null
+	 * @throws Exception
+	 */
+	private Object readProperty(boolean keep, boolean geometry) throws Exception {
+		Object ret = null;
+		text.setLength(0);
+
+		while (true) {
+			switch (nextEvent()) {
+			case IPullParser.START_ELEMENT:
+				int code = code(parser.getLocalName());
+				if (ret==null && geometry && isGeometry(code)) {
+					ret = readGeometry(code, 2);
+				} else {
+					// Complex properties are not supported
+					skip();
+				}
+				break;
+
+			case IPullParser.CHARACTERS:
+				if (keep && ret==null) {
+					text.append(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+				}
+				break;
+
+			case IPullParser.END_ELEMENT:
+				if (ret!=null || !keep) return ret;
+				String value = text.toString().trim();
+				return value.length()==0 ? null : ValueClassifier.toValue(value);
+
+			case IPullParser.END_DOCUMENT:
+				throw new IllegalStateException("Unexpected end of document");
+			}
+		}
+	}
+	/** Read a geometry. The parser must be on the geometry's start element
+	 * and will be left on its end element.
+	 *
+	 * @param code The geometry element code
+	 * @param dimension The dimension from any parent geometry
+	 * @return The geometry or Null if it is invalid
+	 * @throws Exception
+	 */
+	private Geometry readGeometry(int code, int dimension) throws Exception {
+		int startDepth = depth;
+		String element = parser.getLocalName();
+		String srs = null;
+		Geometry geom = null;
+
+		try {
+			for (int i=0; i < parser.getAttributeCount(); i++) {
+				String name = parser.getAttributeLocalName(i);
+				if (name.equals("srsName")) {
+					srs = parser.getAttributeValue(i);
+				} else if (name.equals("srsDimension")) {
+					dimension = Integer.parseInt(parser.getAttributeValue(i));
+				}
+			}
+
+			switch (code) {
+			case POINT:
+				geom = geometryFactory.createPoint( readCoordinates(dimension) );
+				break;
+			case LINESTRING:
+				geom = geometryFactory.createLineString( readCoordinates(dimension) );
+				break;
+			case LINEARRING:
+				geom = geometryFactory.createLinearRing( readCoordinates(dimension) );
+				break;
+			case BOX:
+				Envelope e = readCoordinates(dimension).expandEnvelope(new Envelope());
+				geom = geometryFactory.toGeometry(e);
+				break;
+			case POLYGON:
+				geom = readPolygon(dimension);
+				break;
+			default:
+				geom = readCollection(code, dimension);
+			}
+		} catch (IllegalArgumentException e) {
+			// Invalid geometry, such as an unclosed ring or a bad number
+			log.log(Level.WARNING, "Invalid "+element+": "+e.getMessage());
+
+			// Leave the parser on the geometry's end element
+			while (depth >= startDepth) {
+				if (nextEvent()==IPullParser.END_DOCUMENT)
+					throw new IllegalStateException("Unexpected end of document");
+			}
+			return null;
+		}
+
+		if (geom!=null) {
+			geom.setUserData( srs );
+			geom.setSRID( getSRID(srs) );
+		}
+		return geom;
+	}
+	/** Read a Polygon's boundaries.
+	 *
+	 * @param dimension
+	 * @return
+	 * @throws Exception
+	 */
+	private Polygon readPolygon(int dimension) throws Exception {
+		LinearRing shell = null;
+		List<LinearRing> holes = new ArrayList<LinearRing>();
+		int depth = 0;
+
+		while (true) {
+			switch (nextEvent()) {
+			case IPullParser.START_ELEMENT:
+				int code = code(parser.getLocalName());
+				if (code==LINEARRING) {
+					Geometry ring = readGeometry(code, dimension);
+					if (ring==null) {
+						continue;
+					} else if (shell==null) {
+						shell = (LinearRing) ring;
+					} else {
+						holes.add((LinearRing) ring);
+					}
+				} else if (code==EXTERIOR || code==INTERIOR) {
+					depth++;
+				} else {
+					skip();
+				}
+				break;
+
+			case IPullParser.END_ELEMENT:
+				if (depth==0) {
+					if (shell==null) return null;
+					return geometryFactory.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+				}
+				depth--;
+				break;
+
+			case IPullParser.END_DOCUMENT:
+				throw new IllegalStateException("Unexpected end of document");
+			}
+		}
+	}
+	/** Read the members of a multi-geometry or geometry collection.
+	 *
+	 * @param code
+	 * @param dimension
+	 * @return
+	 * @throws Exception
+	 */
+	private Geometry readCollection(int code, int dimension) throws Exception {
+		List<Geometry> parts = new ArrayList<Geometry>();
+		int depth = 0;
+
+		while (depth>=0) {
+			switch (nextEvent()) {
+			case IPullParser.START_ELEMENT:
+				int partCode = code(parser.getLocalName());
+				if (isGeometry(partCode)) {
+					Geometry part = readGeometry(partCode, dimension);
+					if (part!=null) parts.add(part);
+				} else {
+					// Member wrappers such as polygonMember
+					depth++;
+				}
+				break;
+			case IPullParser.END_ELEMENT:
+				depth--;
+				break;
+			case IPullParser.END_DOCUMENT:
+				throw new IllegalStateException("Unexpected end of document");
+			}
+		}
+
+		try {
+			switch (code) {
+			case MULTIPOINT:
+				return geometryFactory.createMultiPoint( parts.toArray(new Point[parts.size()]) );
+			case MULTILINESTRING:
+				return geometryFactory.createMultiLineString( parts.toArray(new LineString[parts.size()]) );
+			case MULTIPOLYGON:
+				return geometryFactory.createMultiPolygon( parts.toArray(new Polygon[parts.size()]) );
+			}
+		} catch (ArrayStoreException e) {
+			// Mixed members, so fall through to a collection
+		}
+		return geometryFactory.createGeometryCollection( parts.toArray(new Geometry[parts.size()]) );
+	}
+	/** Read the coordinates, pos, posList or corner elements within a geometry
+	 * in to a single packed sequence. The parser must be on the geometry's start
+	 * element and will be left on its end element.
+	 *
+	 * @param dimension The dimension for GML3 elements without their own srsDimension
+	 * @return
+	 * @throws Exception
+	 */
+	private CoordinateSequence readCoordinates(int dimension) throws Exception {
+		OrdinateBuffer coords = new OrdinateBuffer();
+
+		while (true) {
+			switch (nextEvent()) {
+			case IPullParser.START_ELEMENT:
+				int code = code(parser.getLocalName());
+				if (code!=COORDINATES && code!=POS) {
+					skip();
+					break;
+				}
+
+				int dim = dimension;
+				char cs = ',', ts = ' ', decimal = '.';
+				for (int i=0; i < parser.getAttributeCount(); i++) {
+					String name = parser.getAttributeLocalName(i);
+					String value = parser.getAttributeValue(i);
+					if (name.equals("srsDimension")) {
+						dim = Integer.parseInt(value);
+					} else if (value.length()==1) {
+						if (name.equals("cs")) cs = value.charAt(0);
+						else if (name.equals("ts")) ts = value.charAt(0);
+						else if (name.equals("decimal")) decimal = value.charAt(0);
+					}
+				}
+
+				scanner.setDelimiters(cs, ts, decimal);
+				scanner.start(code==POS);
+				int event = nextEvent();
+				for (; event==IPullParser.CHARACTERS || event==IPullParser.OTHER; event = nextEvent()) {
+					if (event==IPullParser.CHARACTERS) {
+						scanner.scan(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+					}
+				}
+				if (event!=IPullParser.END_ELEMENT) throw new IllegalStateException("Unexpected element in coordinates");
+
+				int count = scanner.end(dim);
+				coords.add(scanner.getOrdinates(), count, scanner.getDimension());
+				break;
+
+			case IPullParser.END_ELEMENT:
+				return coords.toCoordinateSequence();
+
+			case IPullParser.END_DOCUMENT:
+				throw new IllegalStateException("Unexpected end of document");
+			}
+		}
+	}
+	/** Read all the text within the current element, leaving the parser
+	 * on its end element.
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	private String readText() throws Exception {
+		text.setLength(0);
+		int depth = 0;
+
+		while (depth>=0) {
+			switch (nextEvent()) {
+			case IPullParser.START_ELEMENT:
+				depth++;
+				break;
+			case IPullParser.END_ELEMENT:
+				depth--;
+				break;
+			case IPullParser.CHARACTERS:
+				text.append(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+				break;
+			case IPullParser.END_DOCUMENT:
+				return text.toString();
+			}
+		}
+		return text.toString();
+	}
+	/** Move the parser to the next event, keeping count of the element depth
+	 *
+	 * @return The event type
+	 * @throws Exception
+	 */
+	private int nextEvent() throws Exception {
+		int event = parser.next();
+		if (event==IPullParser.START_ELEMENT) {
+			depth++;
+		} else if (event==IPullParser.END_ELEMENT) {
+			depth--;
+		}
+		return event;
+	}
+	/** Skip the current element and all of its children without reading them,
+	 * leaving the parser on its end element.
+	 *
+	 * @throws Exception
+	 */
+	private void skip() throws Exception {
+		int depth = 0;
+
+		while (depth>=0) {
+			switch (nextEvent()) {
+			case IPullParser.START_ELEMENT:
+				depth++;
+				break;
+			case IPullParser.END_ELEMENT:
+				depth--;
+				break;
+			case IPullParser.END_DOCUMENT:
+				throw new IllegalStateException("Unexpected end of document");
+			}
+		}
+	}
+	/** Get the dispatch code for an element's local name
+	 *
+	 * @param localName
+	 * @return The code or {@link #UNKNOWN}
+	 */
+	private static int code(String localName) {
+		Integer code = ELEMENTS.get(localName);
+		return code==null ? UNKNOWN : code.intValue();
+	}
+
+	private static boolean isGeometry(int code) {
+		return code>=POINT && code<=GEOMETRY_COLLECTION;
+	}
+
+	private static String qualify(String prefix, String localName) {
+		if (prefix==null || prefix.length()==0) return localName;
+		return prefix + ":" + localName;
+	}
+	/** Creates a basic SRID from an srsName, as {@link SubHandler} does
+	 *
+	 * @param srs
+	 * @return The SRID or 0
+	 */
+	private static int getSRID(String srs) {
+		if (srs==null) return 0;
+		int idx = Math.max(srs.lastIndexOf(':'), srs.lastIndexOf('#'));
+		try {
+			return Integer.parseInt( srs.substring(idx+1) );
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -16,8 +16,6 @@
  */
 package com.augtech.geoapi.geotools.gml;
 
-import java.util.StringTokenizer;
-
 import org.xml.sax.SAXException;
 
 
@@ -48,7 +46,9 @@ import org.xml.sax.SAXException;
 @SuppressWarnings("unchecked")
 public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
 	
-	private static boolean Exception = false;
+	/** Set while an exception report is being read. Not static, as several
+	 * documents may be parsed at once */
+	private boolean Exception = false;
 
     // Static Globals to handle some expected elements
     private static final String EXCEPTION_REPORT = "ServiceException";
@@ -144,6 +144,8 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
             // if geometry, pass it on down the filter chain
         	if (localName.equals("boundedBy")) {
         		insideBounds = true;
+        		// Passed on so the parent sees a matching start and end
+        		parent.startElement(namespaceURI, localName, qName, atts);
         	} else if (BASE_GEOMETRY_TYPES.contains(localName)) {
                 parent.geometryStart(localName, atts);
                 coordinateReader.setDimension( atts.getValue("srsDimension") );
@@ -152,15 +154,15 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
             } else if (COORDINATES_NAME.equals(localName)) {
                 // if coordinate, set one of the internal coordinate methods
                 coordinateReader.insideCoordinates(true, atts);
-                buffer = new StringBuffer();
+                coordinateReader.startCoordinates(false);
             } else if (ENVELOPE_GEOMETRY_TYPES.contains(localName)) {
                 coordinateReader.insideCoordinates(true, atts);
-                buffer = new StringBuffer();
+                coordinateReader.startCoordinates(true);
             } else if ( (POS_LIST_NAME.equals(localName) || localName.toLowerCase().equals(POS_NAME))
             	&& !insideBounds) {
                 // if coordinate, set one of the internal coordinate methods
                 coordinateReader.insideCoordinates(true, atts);
-                buffer = new StringBuffer();
+                coordinateReader.startCoordinates(true);
             } else if (COORD_NAME.equals(localName) && !insideBounds) {
                 coordinateReader.insideCoord(true);
                 buffer = new StringBuffer();
@@ -222,23 +224,24 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
          * take the grunt-work out of this task for geometry handlers
          * see the documentation for CoordinatesReader to see what this entails
          */
-        String rawCoordinates = new String(ch, start, length);
-
         /* determines how to read coordinates, depending on
-         * what element we are currently inside
+         * what element we are currently inside. Coordinates are scanned
+         * straight from the parser's buffer as each chunk arrives.
          */
         if (coordinateReader.insideCoordinates()) {
-            buffer.append(rawCoordinates);
+            coordinateReader.scanCoordinates(ch, start, length);
 
         } else if (coordinateReader.insideCoord()) {
-            buffer.append(rawCoordinates);
+            buffer.append(ch, start, length);
 
         } else if (coordinateReader.insideXYZ()) {
-        	buffer.append(rawCoordinates);
+        	buffer.append(ch, start, length);
 
         } else if (Exception) {
         	//Exception report being parsed - MJR
-        		buffer.append(rawCoordinates);
+        		buffer.append(ch, start, length);
+        } else if (insideBounds) {
+        	// Box coordinates are not decoded or passed on
         } else {
             /* all non-coordinate data passed on down the
              * filter chain without modification
@@ -290,16 +293,12 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
                 parent.geometryEnd(localName);
             } else if (SUB_GEOMETRY_TYPES.contains(localName)) {
                 parent.geometrySub(localName);
-            } else if (COORDINATES_NAME.equals(localName)) {
-                // Convert the string buffer to a string and process the
-                // coordinate, then end the coordinate status in the handler.
-                coordinateReader.readCoordinates(buffer.toString(), false);
-                coordinateReader.insideCoordinates(false);
-            } else if (ENVELOPE_GEOMETRY_TYPES.contains(localName)) {
-                coordinateReader.readCoordinates(buffer.toString(), true);
-                coordinateReader.insideCoordinates(false);
-            } else if (POS_LIST_NAME.equals(localName) || localName.toLowerCase().equals(POS_NAME)) {
-                coordinateReader.readCoordinates(buffer.toString(), true);
+            } else if (COORDINATES_NAME.equals(localName)
+            		|| ENVELOPE_GEOMETRY_TYPES.contains(localName)
+            		|| POS_LIST_NAME.equals(localName) || localName.toLowerCase().equals(POS_NAME)) {
+                // Pass the scanned coordinates on as one block, then end 
+                // the coordinate status in the handler.
+                coordinateReader.endCoordinates();
                 coordinateReader.insideCoordinates(false);
             } else if (COORD_NAME.equals(localName)) {
                 coordinateReader.readCoord(buffer.toString());
@@ -380,24 +379,16 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
         private int insideInnerFlag = NOT_INSIDE;
 
         /** Remembers last X coordinate read. */
-        private Double x = Double.NaN;
+        private double x = Double.NaN;
 
         /** Remembers last Y coordinate read. */
-        private Double y = Double.NaN;
+        private double y = Double.NaN;
 
         /** Remembers last Z coordinate read. */
-        private Double z = Double.NaN;
-
-        /**
-         * Stores requested delimiter for coordinate  separation; default = ','
-         */
-        private String coordinateDelimeter = ",";
-
-        /** Stores requested delimiter for tuple separation; default = ' ' */
-        private String tupleDelimeter = " ";
+        private double z = Double.NaN;
 
         /** Stores requested delimiter for decimal separation; default = '.' */
-        private StringBuffer decimalDelimeter = new StringBuffer(".");
+        private char decimalDelimeter = '.';
 
         private int coordDimension = 2;
         /**
@@ -406,6 +397,9 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
          */
         private boolean standardDecimalFlag = true;
 
+        /** Scans coordinates text in to packed ordinates */
+        private CoordinateScanner scanner = new CoordinateScanner();
+
         /**
          * Empty constructor.
          */
@@ -413,74 +407,60 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
         }
 
         /**
-         * Reads raw coordinates from the GML and returns them to the parent as
-         * neat functions.
+         * Starts scanning a new coordinates, pos, posList or corner element.
+         *
+         * @param gml3 True if the values are only separated by white space
+         * and grouped by the current dimension.
+         */
+        public void startCoordinates(boolean gml3) {
+            scanner.start(gml3);
+        }
+
+        /**
+         * Scans a chunk of raw coordinates from the GML, parsing each number
+         * directly from the parser's character buffer.
          *
-         * @param coordinateString Raw coordinate string from the GML document.
+         * @param ch The parser's character buffer.
+         * @param start The start of the chunk in ch.
+         * @param length The length of the chunk.
          *
          * @throws SAXException Some parsing error occurred while reading
          *         coordinates.
          */
-        public void readCoordinates(String coordinateString, boolean gml3)
+        public void scanCoordinates(char[] ch, int start, int length)
         				throws SAXException {
-        	
+            scanner.scan(ch, start, length);
+        }
 
-            /* if non-standard delimiter, replace it with
-             * standard ',' through the entire string
-             */
-            if (!standardDecimalFlag) {
-                coordinateString = coordinateString.replace(decimalDelimeter.charAt(0), '.');
+        /**
+         * Ends the current coordinates element and passes all of the
+         * coordinates read to the parent as a single block.
+         *
+         * @throws SAXException Some parsing error occurred while reading
+         *         coordinates.
+         */
+        public void endCoordinates() throws SAXException {
+            int count = 0;
+            try {
+                count = scanner.end(coordDimension);
+            } catch (IllegalArgumentException e) {
+                throw new SAXException(e.getMessage());
             }
+            if (count == 0) return;
 
-            // separate tuples and loop through the set
-            StringTokenizer coordinateSets = null;
-        	if (gml3) {
-        		// Insert coordinateDelimeter in to pos list so can tokenise
-        		StringBuffer output = new StringBuffer();
-        		coordinateSets = new StringTokenizer(coordinateString.trim(), " ");
-        		int val = 1;
-        		while (coordinateSets.hasMoreElements()) {
-        			output.append( coordinateSets.nextToken() );
-        			if ( val < coordDimension) {
-        				output.append(coordinateDelimeter);
-        				val++;
-        			} else {
-        				output.append(" ");
-        				val = 1;
-        			}
-        			
-        		}
-        		coordinateSets = new StringTokenizer(output.toString(), tupleDelimeter);
-        	} else {
-        		coordinateSets = new StringTokenizer(coordinateString.trim(), tupleDelimeter);
-        	}
-        	
-            StringTokenizer coordinates;
-
-            // loop through each of the coordinate sets.
-            // Depending on the number of coordinates found,
-            // call the correct parent coordinate class
-            while (coordinateSets.hasMoreElements()) {
-                coordinates = new StringTokenizer(coordinateSets.nextToken(), coordinateDelimeter);
-                x = Double.valueOf(coordinates.nextToken().trim());
-                y = Double.valueOf(coordinates.nextToken().trim());
-
-                if (coordinates.hasMoreElements()) {
-                    z = Double.valueOf(coordinates.nextToken().trim());
-                    parent.gmlCoordinates(x.doubleValue(), y.doubleValue(),
-                        z.doubleValue());
-                } else {
-                    parent.gmlCoordinates(x.doubleValue(), y.doubleValue());
-                }
-            }
+            parent.gmlCoordinates(scanner.getOrdinates(), count, scanner.getDimension());
         }
+
         /** New method for processing GML3.1<p>
          * Will be overwritten by sub element dimension elements
          * 
          * @param dimension
          */
         public void setDimension(String dimension) {
-        	if (dimension==null || dimension.equals("")) return;
+        	if (dimension==null || dimension.equals("")) {
+        		this.coordDimension = 2;
+        		return;
+        	}
         	try {
         		this.coordDimension = Integer.valueOf(dimension);
         	} catch (NumberFormatException e) {
@@ -491,7 +471,7 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
         /**
          * Reads a coord string.  Note that this string is actually inside an
          * X, Y, Z tag and is not directly returned by the parent function,
-         * unlike the readCoordinates method.
+         * unlike the scanCoordinates method.
          *
          * @param coordString The raw coordinate string from the XML document.
          */
@@ -499,25 +479,24 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
             // if non-standard delimiter, replace it with standard ',' 
             // through the entire string
             if (!standardDecimalFlag) {
-                coordString = coordString.replace(decimalDelimeter.charAt(0),
-                        '.');
+                coordString = coordString.replace(decimalDelimeter, '.');
             }
 
             // determine which coord string we are inside
             // set internal x,y,z values depending on the return
             switch (insideInnerFlag) {
             case INSIDE_X:
-                x = Double.valueOf(coordString.trim());
+                x = Double.parseDouble(coordString.trim());
 
                 break;
 
             case INSIDE_Y:
-                y = Double.valueOf(coordString.trim());
+                y = Double.parseDouble(coordString.trim());
 
                 break;
 
             case INSIDE_Z:
-                z = Double.valueOf(coordString.trim());
+                z = Double.parseDouble(coordString.trim());
 
                 break;
 
@@ -535,15 +514,28 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
          */
         public void insideCoordinates(boolean isInside, org.xml.sax.Attributes atts) {
             this.insideCoordinates(isInside);
-            int dim = 2;
+            char coordinateDelimeter = ',';
+            char tupleDelimeter = ' ';
+            decimalDelimeter = '.';
             
+            // Only override the geometry's dimension if this element has its own
             for (int i = 0; i < atts.getLength(); i++) {
                 final String NAME = atts.getQName(i);
+                final String value = atts.getValue(i);
                 if (NAME.toLowerCase().contains("srsdimension")) {
-                   dim = Integer.valueOf( atts.getValue(i) );
+                   coordDimension = Integer.parseInt( value );
+                } else if (value.length() == 1) {
+                    if (NAME.equals("cs")) {
+                        coordinateDelimeter = value.charAt(0);
+                    } else if (NAME.equals("ts")) {
+                        tupleDelimeter = value.charAt(0);
+                    } else if (NAME.equals("decimal")) {
+                        decimalDelimeter = value.charAt(0);
+                    }
                 }
             }
-            coordDimension = dim;
+            standardDecimalFlag = decimalDelimeter == '.';
+            scanner.setDelimiters(coordinateDelimeter, tupleDelimeter, decimalDelimeter);
         }
 
         /**
@@ -575,11 +567,10 @@ public class GMLFilterDocument extends org.xml.sax.helpers.XMLFilterImpl {
                 // set all internal values to null equivalent.
                 // if coordinates exist, send on down the filter chain
                 // otherwise, throw an exception
-                if ((!x.isNaN()) && (!y.isNaN()) && (z.isNaN())) {
-                    parent.gmlCoordinates(x.doubleValue(), y.doubleValue());
-                } else if ((!x.isNaN()) && (!y.isNaN()) && (!z.isNaN())) {
-                    parent.gmlCoordinates(x.doubleValue(), y.doubleValue(),
-                        z.doubleValue());
+                if (!Double.isNaN(x) && !Double.isNaN(y) && Double.isNaN(z)) {
+                    parent.gmlCoordinates(x, y);
+                } else if (!Double.isNaN(x) && !Double.isNaN(y) && !Double.isNaN(z)) {
+                    parent.gmlCoordinates(x, y, z);
                 }
 
                 //else {
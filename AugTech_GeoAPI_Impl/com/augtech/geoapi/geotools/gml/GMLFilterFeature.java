@@ -18,19 +18,18 @@ package com.augtech.geoapi.geotools.gml;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.XMLFilterImpl;
 
-import com.augtech.geoapi.feature.NameImpl;
 import com.augtech.geoapi.feature.SimpleFeatureImpl;
-import com.augtech.geoapi.feature.type.AttributeTypeImpl;
 import com.augtech.geoapi.feature.type.SimpleFeatureTypeImpl;
+import com.augtech.geoapi.utils.ValueClassifier;
 import com.vividsolutions.jts.geom.Geometry;
 
 
@@ -70,9 +69,12 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
 
     /** Stores current feature attributes. */
     //private List attributes = new ArrayList();
-    private List<AttributeType> attrNames = new ArrayList<AttributeType>();
+    private List<String> attrNames = new ArrayList<String>();
     private List<Object> attrValues = new ArrayList<Object>();
     
+    /** One shared type per qualified type name, widened as new attributes are found */
+    private FeatureTypeRegistry typeRegistry;
+    
     
     private String fid = null;
 
@@ -102,6 +104,21 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
     /** Geometry type for feature */
     GeometryDescriptor geomDescriptor = null;
     Geometry featGeom = null;
+
+    /** Features and attributes to read, or null for everything */
+    private GMLFeatureFilter filter = null;
+
+    /** Depth of the current element below the feature member */
+    private int depth = 0;
+
+    /** Depth of the element whose content is being ignored, or zero */
+    private int skipDepth = 0;
+
+    /** The current feature has been rejected by the filter */
+    private boolean rejected = false;
+
+    /** The current feature has had an envelope tested against the filter bounds */
+    private boolean boundsTested = false;
     
     /** Collects string chunks in {@link #characters(char[], int, int)} 
      * callback to be handled at the beggining of {@link #endElement(String, String, String)}
@@ -114,12 +131,35 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
      * @param parent The parent of this filter.
      */
     public GMLFilterFeature(IFeatureHandler parent) {
+        this(parent, new FeatureTypeRegistry());
+    }
+
+    /**
+     * Constructor with parent and a type registry shared with other filters,
+     * so features parsed by each reference the same types.
+     *
+     * @param parent The parent of this filter.
+     * @param typeRegistry The shared registry.
+     */
+    public GMLFilterFeature(IFeatureHandler parent, FeatureTypeRegistry typeRegistry) {
         super();
         this.parent = parent;
+        this.typeRegistry = typeRegistry;
     }
 
     public void setSchema(String uri) {
     }
+
+    /**
+     * Sets a filter to restrict the features and attributes read. Features of
+     * other types or outside of the bounds are not passed to the parent, and
+     * the text of attributes that are not required is not collected.
+     *
+     * @param filter The filter, or null to read everything.
+     */
+    public void setFilter(GMLFeatureFilter filter) {
+        this.filter = filter;
+    }
     
     /**
      * Manages the start of a new main or sub geometry.  This method looks at
@@ -131,7 +171,17 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
      * @param geometry The geometry from the child.
      */
     public void geometry(Geometry geometry) {
-        if (insideFeature) {
+        if (insideFeature && !rejected) {
+            if (filter != null && filter.hasBounds() && !boundsTested) {
+                boundsTested = true;
+                if (!filter.isEnvelopeAccepted(geometry.getEnvelopeInternal())) {
+                    // Ignore the remainder of the feature
+                    rejected = true;
+                    skipDepth = 1;
+                    return;
+                }
+            }
+
         	geomDescriptor = SimpleFeatureTypeImpl.getDefaultGeometryDescriptor(geometry);
         	/* 20/03/15 - Removed geometry as member of attribute list
         	attrNames.add( new AttributeTypeImpl(geomDescriptor.getName(), Geometry.class) );
@@ -139,7 +189,8 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
         	*/
         	featGeom = geometry;
 
-            endAttribute();
+            // The property element was not started if it is being skipped
+            if (skipDepth == 0) endAttribute();
         }
     }
 
@@ -178,30 +229,50 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
         	
             insideFeature = true;
             tempValue = null;
+            fid = null;
+            depth = 0;
+            skipDepth = 0;
+            rejected = false;
+            boundsTested = false;
             // MUST create new lists here, not clear existing
             attrValues = new ArrayList<Object>();
-            attrNames = new ArrayList<AttributeType>();
+            attrNames = new ArrayList<String>();
             
         } else if (insideFeature) {
 
+            depth++;
+            if (skipDepth > 0) {
+                return;
+            }
+            if (filter != null) {
+                if (depth == 1 && !filter.isTypeAccepted(localName)) {
+                    rejected = true;
+                    skipDepth = depth;
+                    return;
+                } else if (depth == 2 && !filter.isAttributeAccepted(localName)) {
+                    skipDepth = depth;
+                    return;
+                }
+            }
+
+            // The first element in the member is the feature itself
+            if (depth == 1) {
+                typeName = localName;
+                typeQName = qName;
+                typeNamespaceURI = namespaceURI;
+            }
+
             for (int i = 0; i < atts.getLength(); i++) {
                 String name = atts.getLocalName(i);
 
-                if (name.equalsIgnoreCase("fid")) {
+                if (name.equalsIgnoreCase("fid") || (depth == 1 && name.equals("id"))) {
                 	
-                    typeName = localName;
-                    typeQName = qName;
-                    typeNamespaceURI = namespaceURI;
                     fid = atts.getValue(i);
                     
                 } else {
                 	
                 	attrValues.add(atts.getValue(i));
-                	
-                	AttributeType att = new AttributeTypeImpl(
-                			new NameImpl(namespaceURI, localName), 
-                			atts.getValue(i).getClass());
-                	attrNames.add(att);
+                	attrNames.add(atts.getQName(i));
                 }
             }
 
@@ -228,6 +299,8 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
     }
 
     private boolean isFeatureMember(String localName) {
+      // WFS 2.0 uses wfs:member
+      if (localName.equals("member")) return true;
       return localName.endsWith("Member") && !localName.endsWith("StringMember")
               && !localName.endsWith("polygonMember") && !localName.endsWith("pointMember");
     }
@@ -247,6 +320,9 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
      */
     public void characters(char[] ch, int start, int length)
         throws SAXException {
+        if (skipDepth > 0) {
+            return;
+        }
     	characters.append(ch, start, length);
     }
     
@@ -266,18 +342,15 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
         if (insideAttribute && !rawAttribute.equals("")) {
 //            LOGGER.info("raw att = " + rawAttribute);
 
-            try {
-                tempValue = Integer.valueOf(rawAttribute);
-            } catch (NumberFormatException e1) {
-                try {
-                    tempValue = Double.valueOf(rawAttribute);
-                } catch (NumberFormatException e2) {
-                    if (tempValue instanceof StringBuffer) {
-                        ((StringBuffer) tempValue).append(" " + rawAttribute);
-                    } else {
-                        tempValue = new StringBuffer(rawAttribute);
-                    }
+            Object value = ValueClassifier.toValue(rawAttribute);
+            if (value instanceof String) {
+                if (tempValue instanceof StringBuffer) {
+                    ((StringBuffer) tempValue).append(" " + rawAttribute);
+                } else {
+                    tempValue = new StringBuffer(rawAttribute);
                 }
+            } else {
+                tempValue = value;
             }
         } else {
             parent.characters(rawAttribute.toCharArray(), 0, rawAttribute.length());
@@ -302,19 +375,35 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
     	
         if (isFeatureMember(localName)) {
             
-        	SimpleFeatureType fType = new SimpleFeatureTypeImpl(
-        			NameImpl.getNameImpl(typeQName), 
-        			attrNames,
-        			geomDescriptor);
-        	SimpleFeature feat = new SimpleFeatureImpl(fid, attrValues, fType, featGeom);
+            // A feature without any geometry cannot be within the bounds
+            if (filter != null && filter.hasBounds() && !boundsTested) {
+                rejected = true;
+            }
+
+            if (!rejected) {
+            	FeatureTypeRegistry.Entry entry = typeRegistry.get(
+            			typeQName!=null ? typeQName : typeName, geomDescriptor);
+            	SimpleFeature feat = new SimpleFeatureImpl(fid, entry.getValues(attrNames, attrValues), entry.type, featGeom);
 
-        	parent.feature( feat );
+            	parent.feature( feat );
+            }
 
             attName = "";
             insideFeature = false;
             featGeom = null;
+            skipDepth = 0;
             		
+        } else if (insideFeature && skipDepth > 0) {
+
+            if (depth == skipDepth) {
+                skipDepth = 0;
+            }
+            depth--;
+
         } else if (insideAttribute) {
+            if (insideFeature) {
+                depth--;
+            }
         	
             //_log.debug("end - inside attribute [" + tempValue + "]");
             if ((tempValue != null) && !tempValue.toString().trim().equals("")) {
@@ -323,18 +412,16 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
                 }
                 
                 attrValues.add(tempValue);
-                
-                // The type
-            	AttributeType att = new AttributeTypeImpl(
-            			NameImpl.getNameImpl(qName), 
-            			tempValue.getClass());
-                attrNames.add( att );
+                attrNames.add(qName);
                 tempValue = null;
             }
 
             endAttribute();
             
         } else {
+            if (insideFeature) {
+                depth--;
+            }
             parent.endElement(namespaceURI, localName, qName);
 
             //_log.debug("end - inside feature");
@@ -342,6 +429,17 @@ public class GMLFilterFeature extends XMLFilterImpl implements GMLHandlerJTS {
         }
     }
 
+    /**
+     * Get the feature types built so far, keyed on their qualified type name.
+     * Every feature passed to the parent references one of these types, so
+     * types found early in the document may have been widened since.
+     *
+     * @return A map of qualified type name to type
+     */
+    public Map<String, SimpleFeatureType> getFeatureTypes() {
+        return typeRegistry.getFeatureTypes();
+    }
+
     /**
      * Ends an attribute, by resetting the attribute name and setting
      * insideAttribute to false.
@@ -154,6 +154,21 @@ public class GMLFilterGeometry extends org.xml.sax.helpers.XMLFilterImpl  implem
                 x, y, z));
     }
 
+    /**
+     * Gets a block of coordinates from the child and passes them to the
+     * current handler, which copies them in to its own coordinate storage.
+     *
+     * @param ordinates The packed ordinates of the received coordinates.
+     * @param count The number of coordinates received.
+     * @param dimension The number of ordinates per coordinate.
+     *
+     * @throws SAXException parser error.
+     */
+    public void gmlCoordinates(double[] ordinates, int count, int dimension)
+        throws SAXException {
+        currentHandler.addCoordinates(ordinates, count, dimension);
+    }
+
     /**
      * Checks for GML element start and - if not a coordinates element - sends
      * it directly on down the chain to the appropriate parent handler.  If it
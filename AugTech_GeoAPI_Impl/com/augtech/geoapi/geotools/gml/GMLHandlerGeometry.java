@@ -60,4 +60,12 @@ public interface GMLHandlerGeometry extends ContentHandler {
      */
     abstract void gmlCoordinates(double x, double y, double z)
         throws SAXException;
+
+    /**
+     * Receives a block of finished coordinates from the parent as packed
+     * ordinates. The array is re-used by the parent, so must be copied if it
+     * is to be kept.
+     */
+    abstract void gmlCoordinates(double[] ordinates, int count, int dimension)
+        throws SAXException;
 }
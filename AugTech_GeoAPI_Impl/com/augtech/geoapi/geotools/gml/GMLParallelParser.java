@@ -0,0 +1,456 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.ParserAdapter;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/** Parses a large GML feature collection on several threads.<p>
+ * The document is scanned as bytes for featureMember, featureMembers and member
+ * elements, which are grouped in to chunks of roughly {@link #setChunkSize(int)} bytes.
+ * Each chunk is wrapped with the document's root element, so namespace declarations
+ * are kept, and parsed by a worker using the normal {@link GMLFilterDocument},
+ * {@link GMLFilterGeometry} and {@link GMLFilterFeature} chain. All workers share one
+ * set of feature types.<p>
+ * Features are passed to the {@link IFeatureHandler} on the calling thread, either in
+ * document order or, if {@link #setOrdered(boolean)} is False, as each chunk completes.
+ * The handler receives startDocument() before the first feature and endDocument() after
+ * the last.<p>
+ * The byte scanner expects an ASCII compatible encoding, such as UTF-8 or ISO-8859-1.
+ * GML3 featureMembers is treated as a single chunk, so is not split.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class GMLParallelParser {
+	/** The size of each file window mapped in to memory */
+	private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+	private int numWorkers = 1;
+	private int chunkSize = 1024 * 1024;
+	private boolean ordered = true;
+	private FeatureTypeRegistry typeRegistry = null;
+	private GMLFeatureFilter filter = null;
+
+	/** Create a new parser
+	 *
+	 * @param numWorkers The number of parsing threads. If less than 1 the
+	 * number of available processors is used.
+	 */
+	public GMLParallelParser(int numWorkers) {
+		this.numWorkers = numWorkers < 1 ? Runtime.getRuntime().availableProcessors() : numWorkers;
+	}
+	/** Set the approximate number of bytes passed to each worker. Default is 1MB
+	 *
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize<1) throw new IllegalArgumentException("Chunk size must be greater than zero");
+		this.chunkSize = chunkSize;
+	}
+	/** Set whether features are passed to the handler in document order. Default is True
+	 *
+	 * @param ordered
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+	/** Set a filter to restrict the features and attributes read by every worker
+	 *
+	 * @param filter The filter, or <code>Null</code> to read everything
+	 * @see GMLFilterFeature#setFilter(GMLFeatureFilter)
+	 */
+	public void setFilter(GMLFeatureFilter filter) {
+		this.filter = filter;
+	}
+	/** Get the feature types from the last parse, keyed on their qualified type name.
+	 *
+	 * @return
+	 */
+	public Map<String, SimpleFeatureType> getFeatureTypes() {
+		return typeRegistry==null ? null : typeRegistry.getFeatureTypes();
+	}
+	/** Parse a GML file, reading it through memory mapped windows.
+	 *
+	 * @param gmlFile The file to parse
+	 * @param handler The handler to receive each feature
+	 * @return The number of features parsed
+	 * @throws Exception
+	 */
+	public int parse(File gmlFile, IFeatureHandler handler) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(gmlFile, "r");
+		try {
+			return parse(new MappedInputStream(raf.getChannel()), handler);
+		} finally {
+			raf.close();
+		}
+	}
+	/** Parse a GML stream. The stream is read in blocks so does not need
+	 * to be buffered, and is not closed.
+	 *
+	 * @param gmlStream The GML to parse
+	 * @param handler The handler to receive each feature
+	 * @return The number of features parsed
+	 * @throws Exception
+	 */
+	public int parse(InputStream gmlStream, IFeatureHandler handler) throws Exception {
+		typeRegistry = new FeatureTypeRegistry();
+		ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+
+		try {
+			Splitter splitter = new Splitter(executor, handler);
+			handler.startDocument();
+
+			byte[] buffer = new byte[64 * 1024];
+			int read = 0;
+			while ((read = gmlStream.read(buffer))!=-1) {
+				splitter.scan(buffer, read);
+			}
+			splitter.finish();
+
+			handler.endDocument();
+			return splitter.featureCount;
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Splits the byte stream in to chunks of complete members, submits them to
+	 * the workers and passes the results on to the handler.
+	 */
+	private class Splitter {
+		private ExecutorService executor;
+		private CompletionService<List<SimpleFeature>> completion;
+		private LinkedList<Future<List<SimpleFeature>>> pending = new LinkedList<Future<List<SimpleFeature>>>();
+		private IFeatureHandler handler;
+		private int maxPending;
+		private int featureCount = 0;
+
+		private ByteArrayOutputStream header = new ByteArrayOutputStream();
+		private byte[] footer = null;
+		private boolean headerDone = false;
+		private byte quote = 0;
+
+		private ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+		private byte[] tag = new byte[128];
+		private int tagLength = 0;
+		private boolean inTagName = false;
+		private boolean insideMember = false;
+		private boolean closingMember = false;
+		private int depth = 0;
+
+		Splitter(ExecutorService executor, IFeatureHandler handler) {
+			this.executor = executor;
+			this.completion = new ExecutorCompletionService<List<SimpleFeature>>(executor);
+			this.handler = handler;
+			this.maxPending = numWorkers * 2;
+		}
+		/** Scan a block of bytes from the document
+		 *
+		 * @param bytes
+		 * @param length
+		 * @throws Exception
+		 */
+		void scan(byte[] bytes, int length) throws Exception {
+			for (int i=0; i < length; i++) {
+				byte b = bytes[i];
+
+				if (inTagName) {
+					if (isNameByte(b) || (tagLength==1 && b=='/')) {
+						if (tagLength==tag.length) {
+							byte[] grown = new byte[tag.length * 2];
+							System.arraycopy(tag, 0, grown, 0, tagLength);
+							tag = grown;
+						}
+						tag[tagLength++] = b;
+						continue;
+					}
+					inTagName = false;
+					endTagName();
+				}
+
+				if (!headerDone) {
+					scanHeader(b);
+				} else if (b=='<') {
+					inTagName = true;
+					tag[0] = b;
+					tagLength = 1;
+				} else if (insideMember) {
+					chunk.write(b);
+					if (closingMember && b=='>') {
+						closingMember = false;
+						insideMember = false;
+						if (chunk.size() >= chunkSize) submit();
+					}
+				}
+			}
+		}
+		/** Submit any remaining members and pass all outstanding results to the handler
+		 *
+		 * @throws Exception
+		 */
+		void finish() throws Exception {
+			if (chunk.size() > 0) submit();
+			while (pending.size() > 0) deliver(true);
+		}
+		/** Copy the prolog and root start tag in to the header
+		 *
+		 * @param b
+		 */
+		private void scanHeader(byte b) {
+			header.write(b);
+
+			if (footer==null) {
+				if (b=='<') {
+					inTagName = true;
+					tag[0] = b;
+					tagLength = 1;
+				}
+			} else if (quote!=0) {
+				if (b==quote) quote = 0;
+			} else if (b=='"' || b=='\'') {
+				quote = b;
+			} else if (b=='>') {
+				headerDone = true;
+			}
+		}
+		/** Decide what to do with a tag once its name has been read
+		 *
+		 */
+		private void endTagName() {
+			if (!headerDone) {
+				// Tag bytes after the '<' have not been written yet
+				header.write(tag, 1, tagLength-1);
+				if (tagLength>1 && tag[1]!='?' && tag[1]!='!' && tag[1]!='/') {
+					// The root element
+					ByteArrayOutputStream end = new ByteArrayOutputStream();
+					end.write('<');
+					end.write('/');
+					end.write(tag, 1, tagLength-1);
+					end.write('>');
+					footer = end.toByteArray();
+				}
+				return;
+			}
+
+			boolean isEnd = tagLength>1 && tag[1]=='/';
+			boolean isMember = isMemberName(isEnd ? 2 : 1);
+
+			if (!insideMember) {
+				if (isMember && !isEnd) {
+					insideMember = true;
+					depth = 1;
+					chunk.write(tag, 0, tagLength);
+				}
+				return;
+			}
+
+			chunk.write(tag, 0, tagLength);
+			if (isMember) {
+				if (!isEnd) {
+					depth++;
+				} else if (--depth==0) {
+					closingMember = true;
+				}
+			}
+		}
+		/** Is the current tag name (ignoring any prefix) a member element?
+		 *
+		 * @param start The offset of the name in the tag
+		 * @return
+		 */
+		private boolean isMemberName(int start) {
+			for (int i=tagLength-1; i>=start; i--) {
+				if (tag[i]==':') {
+					start = i+1;
+					break;
+				}
+			}
+			int len = tagLength - start;
+			return matches(start, len, "featureMember")
+					|| matches(start, len, "featureMembers")
+					|| matches(start, len, "member");
+		}
+
+		private boolean matches(int start, int len, String name) {
+			if (len!=name.length()) return false;
+			for (int i=0; i<len; i++) {
+				if (tag[start+i]!=name.charAt(i)) return false;
+			}
+			return true;
+		}
+		/** Submit the current chunk to the workers, first passing on any
+		 * completed results and waiting if too many chunks are outstanding.
+		 *
+		 * @throws Exception
+		 */
+		private void submit() throws Exception {
+			if (footer==null) throw new IllegalStateException("No root element found");
+
+			ByteArrayOutputStream doc = new ByteArrayOutputStream(header.size() + chunk.size() + footer.length);
+			header.writeTo(doc);
+			chunk.writeTo(doc);
+			doc.write(footer);
+			chunk.reset();
+
+			while (pending.size() >= maxPending) deliver(true);
+
+			ChunkParser task = new ChunkParser(doc.toByteArray());
+			pending.add( ordered ? executor.submit(task) : completion.submit(task) );
+
+			while (pending.size() > 0 && deliver(false));
+		}
+		/** Pass the results of a completed chunk to the handler
+		 *
+		 * @param wait Whether to wait for a chunk to complete
+		 * @return True if a chunk was delivered
+		 * @throws Exception
+		 */
+		private boolean deliver(boolean wait) throws Exception {
+			Future<List<SimpleFeature>> done = null;
+
+			if (ordered) {
+				if (!wait && !pending.getFirst().isDone()) return false;
+				done = pending.removeFirst();
+			} else {
+				done = wait ? completion.take() : completion.poll();
+				if (done==null) return false;
+				pending.remove(done);
+			}
+
+			List<SimpleFeature> features = null;
+			try {
+				features = done.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+				throw e;
+			}
+
+			for (SimpleFeature f : features) {
+				handler.feature(f);
+			}
+			featureCount += features.size();
+			return true;
+		}
+	}
+
+	private static boolean isNameByte(byte b) {
+		return b!=' ' && b!='\t' && b!='\r' && b!='\n' && b!='>' && b!='/' && b!='<';
+	}
+
+	/** Parses one chunk using the GML filter chain on a worker thread
+	 */
+	private class ChunkParser implements Callable<List<SimpleFeature>> {
+		private byte[] document;
+
+		ChunkParser(byte[] document) {
+			this.document = document;
+		}
+
+		@Override
+		public List<SimpleFeature> call() throws Exception {
+			FeatureCollector collector = new FeatureCollector();
+			GMLFilterFeature featureFilter = new GMLFilterFeature(collector, typeRegistry);
+			featureFilter.setFilter(filter);
+			GMLFilterGeometry geometryFilter = new GMLFilterGeometry(featureFilter);
+			GMLFilterDocument documentFilter = new GMLFilterDocument(geometryFilter);
+
+			ParserAdapter adapter = new ParserAdapter(
+					SAXParserFactory.newInstance().newSAXParser().getParser() );
+			adapter.setContentHandler(documentFilter);
+			adapter.parse( new InputSource(new ByteArrayInputStream(document)) );
+			document = null;
+
+			return collector.features;
+		}
+	}
+
+	/** Collects the features from a chunk
+	 */
+	private static class FeatureCollector extends XMLFilterImpl implements IFeatureHandler {
+		private List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+
+		@Override
+		public void feature(SimpleFeature feature) {
+			features.add(feature);
+		}
+	}
+
+	/** Reads a file through a series of memory mapped windows, as a
+	 * single mapping is limited to 2GB.
+	 */
+	private static class MappedInputStream extends InputStream {
+		private FileChannel channel;
+		private MappedByteBuffer buffer = null;
+		private long position = 0;
+		private long size = 0;
+
+		MappedInputStream(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!ensureMapped()) return -1;
+			return buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!ensureMapped()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		private boolean ensureMapped() throws IOException {
+			if (buffer!=null && buffer.hasRemaining()) return true;
+			if (position >= size) return false;
+
+			long length = Math.min(MAP_WINDOW, size - position);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			position += length;
+			return true;
+		}
+	}
+}
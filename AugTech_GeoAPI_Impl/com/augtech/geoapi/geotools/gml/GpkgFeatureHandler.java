@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeType;
+import org.opengis.geometry.BoundingBox;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import com.augtech.geoapi.feature.type.SimpleFeatureTypeImpl;
+import com.augtech.geoapi.geopackage.GeoPackage;
+import com.augtech.geoapi.geopackage.GpkgTable;
+import com.augtech.geoapi.geopackage.table.FeaturesTable;
+
+/** An {@link IFeatureHandler} that writes each parsed feature straight in to a
+ * GeoPackage rather than holding them in a container.<p>
+ * Features are passed to a single writer thread through a bounded queue and inserted
+ * in batches via {@link GeoPackage#insertFeatures(java.util.Collection)}, so parsing
+ * and writing overlap. If the writer falls behind the parser blocks until there is space
+ * on the queue, therefore memory use is fixed by the batch size regardless of the size
+ * of the document.<p>
+ * {@link #close()} must be called once parsing has finished to write the final batch. This
+ * is done automatically at the end of the document, or on a fatal parse error. The writer is
+ * a daemon thread so it will not keep the application running if neither happen.
+ * The GeoPackage should not be written to by anything else until then.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class GpkgFeatureHandler extends XMLFilterImpl implements IFeatureHandler {
+	private GeoPackage geoPackage = null;
+	private BlockingQueue<SimpleFeature> queue = null;
+	private int batchSize = 1000;
+	private BoundingBox tableExtents = null;
+	private Thread writer = null;
+	private volatile boolean closed = false;
+	private volatile Exception writeError = null;
+	private volatile int featuresInserted = 0;
+	/** Tables known to exist (only used by the writer thread) */
+	private Set<String> checkedTables = new HashSet<String>();
+
+	/** Create a new handler that writes to existing feature tables in the GeoPackage
+	 *
+	 * @param geoPackage The GeoPackage to write to
+	 * @param batchSize The number of features to insert per batch
+	 */
+	public GpkgFeatureHandler(GeoPackage geoPackage, int batchSize) {
+		this(geoPackage, batchSize, null);
+	}
+	/** Create a new handler that writes to the GeoPackage, creating any feature
+	 * tables that do not exist from the type of the first feature received for that table.
+	 *
+	 * @param geoPackage The GeoPackage to write to
+	 * @param batchSize The number of features to insert per batch
+	 * @param tableExtents The extents to use for new tables, or <code>Null</code> if the
+	 * tables must already exist.
+	 */
+	public GpkgFeatureHandler(GeoPackage geoPackage, int batchSize, BoundingBox tableExtents) {
+		if (batchSize<1) throw new IllegalArgumentException("Batch size must be greater than zero");
+
+		this.geoPackage = geoPackage;
+		this.batchSize = batchSize;
+		this.tableExtents = tableExtents;
+		this.queue = new ArrayBlockingQueue<SimpleFeature>(batchSize * 2);
+	}
+
+	@Override
+	public void feature(SimpleFeature feature) {
+		if (closed) throw new IllegalStateException("Handler has been closed");
+
+		if (writer==null) {
+			writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeFeatures();
+				}
+			}, "GpkgFeatureHandler");
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		try {
+			// Wait for space on the queue, but give up if the writer has failed
+			while (!queue.offer(feature, 100, TimeUnit.MILLISECONDS)) {
+				checkError();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		checkError();
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		close();
+		super.endDocument();
+	}
+	/** Write the features parsed before the error and stop the writer, then
+	 * pass the error on.
+	 */
+	@Override
+	public void fatalError(SAXParseException e) throws SAXException {
+		try {
+			close();
+		} catch (IllegalStateException ise) {
+			geoPackage.log.log(Level.WARNING, "Failed writing features after parse error: "+ise.getMessage());
+		}
+		super.fatalError(e);
+	}
+	/** Write any remaining features to the GeoPackage and stop the writer.
+	 * Calling this more than once has no further effect.
+	 *
+	 * @return The total number of features inserted in to the GeoPackage
+	 * @throws IllegalStateException If any features could not be written
+	 */
+	public int close() {
+		closed = true;
+		if (writer!=null) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+		checkError();
+
+		return featuresInserted;
+	}
+	/** Get the number of features inserted so far
+	 *
+	 * @return
+	 */
+	public int getFeaturesInserted() {
+		return featuresInserted;
+	}
+	/** Throw any error from the writer on the parsing thread
+	 *
+	 */
+	private void checkError() {
+		if (writeError!=null) throw new IllegalStateException(writeError);
+	}
+	/** The writer thread loop. Batches are only written when full, or once
+	 * the handler has been closed and the queue is empty.
+	 */
+	private void writeFeatures() {
+		List<SimpleFeature> batch = new ArrayList<SimpleFeature>(batchSize);
+
+		try {
+			while (true) {
+				SimpleFeature f = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (f!=null) {
+					batch.add(f);
+					queue.drainTo(batch, batchSize - batch.size());
+				}
+
+				if (batch.size() >= batchSize) {
+					writeBatch(batch);
+				} else if (f==null && closed && queue.isEmpty()) {
+					writeBatch(batch);
+					break;
+				}
+			}
+		} catch (Exception e) {
+			geoPackage.log.log(Level.SEVERE, "Stopped writing features: "+e.getMessage());
+			writeError = e;
+			queue.clear();
+		}
+	}
+	/** Insert a batch of features, creating tables as required, and clear it
+	 *
+	 * @param batch
+	 * @throws Exception
+	 */
+	private void writeBatch(List<SimpleFeature> batch) throws Exception {
+		if (batch.size()==0) return;
+
+		for (SimpleFeature sf : batch) {
+			String tableName = sf.getType().getName().getLocalPart();
+			if (checkedTables.contains(tableName)) continue;
+
+			if (tableExtents!=null && !new FeaturesTable(geoPackage, tableName).isTableInGpkg(geoPackage)) {
+				geoPackage.createFeaturesTable(snapshot(sf.getType()), tableExtents);
+			} else {
+				// Throws if the table does not exist
+				geoPackage.getUserTable(tableName, GpkgTable.TABLE_TYPE_FEATURES);
+			}
+			checkedTables.add(tableName);
+		}
+
+		featuresInserted += geoPackage.insertFeatures(batch);
+		batch.clear();
+	}
+	/** Copy a feature type so the table is created from its attributes as they
+	 * are now, even if the parser widens the shared type at the same time.
+	 * 
+	 * @param type
+	 * @return
+	 */
+	private static SimpleFeatureType snapshot(SimpleFeatureType type) {
+		return new SimpleFeatureTypeImpl(-1, type.getName(), new ArrayList<AttributeType>(type.getTypes()),
+				type.getGeometryDescriptor(), type.getUserData() );
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+/** An interface to the namespace aware XML pull parser used by {@link GMLFeatureReader}.<p>
+ * Implementors should implement this class to wrap the pull parser available
+ * on their platform, such as StAX (javax.xml.stream) on the desktop or
+ * XmlPullParser on Android.
+ *
+ */
+public interface IPullParser {
+	/** Any event not listed below, such as comments or processing instructions */
+	public static final int OTHER = 0;
+	/** The start of an element */
+	public static final int START_ELEMENT = 1;
+	/** The end of an element */
+	public static final int END_ELEMENT = 2;
+	/** Character data, including CDATA and white space */
+	public static final int CHARACTERS = 3;
+	/** The end of the document */
+	public static final int END_DOCUMENT = 4;
+
+	/** Move to the next parsing event
+	 *
+	 * @return One of the event constants on this interface
+	 * @throws Exception If the XML could not be read
+	 */
+	public int next() throws Exception;
+	/** Get the namespace URI of the current element
+	 *
+	 * @return The URI, or Null if the element is not in a namespace
+	 */
+	public String getNamespaceURI();
+	/** Get the local name of the current element
+	 *
+	 * @return
+	 */
+	public String getLocalName();
+	/** Get the namespace prefix of the current element
+	 *
+	 * @return The prefix, or Null if there is none
+	 */
+	public String getPrefix();
+	/** Get the number of attributes on the current start element
+	 *
+	 * @return
+	 */
+	public int getAttributeCount();
+	/** Get the local name of an attribute on the current start element
+	 *
+	 * @param index The zero-based attribute index
+	 * @return
+	 */
+	public String getAttributeLocalName(int index);
+	/** Get the value of an attribute on the current start element
+	 *
+	 * @param index The zero-based attribute index
+	 * @return
+	 */
+	public String getAttributeValue(int index);
+	/** Get the parser's buffer holding the current character data. This is only
+	 * valid until the next call to {@link #next()}
+	 *
+	 * @return
+	 */
+	public char[] getTextCharacters();
+	/** Get the start of the current character data within {@link #getTextCharacters()}
+	 *
+	 * @return
+	 */
+	public int getTextStart();
+	/** Get the length of the current character data within {@link #getTextCharacters()}
+	 *
+	 * @return
+	 */
+	public int getTextLength();
+	/** Close the parser and the underlying stream
+	 *
+	 */
+	public void close();
+}
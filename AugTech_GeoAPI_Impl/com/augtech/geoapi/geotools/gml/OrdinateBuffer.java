@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.geotools.gml;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+
+/** A growable array of packed coordinate ordinates used by the geometry
+ * sub-handlers to collect coordinates without creating a {@link Coordinate}
+ * per point.<p>
+ * The dimension is fixed by the first coordinates added. Any later
+ * coordinates are converted to that dimension, either dropping Z or
+ * setting it to NaN.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+class OrdinateBuffer {
+	private double[] ordinates = new double[32];
+	private int size = 0;
+	private int dimension = 0;
+
+	/** Add a single coordinate
+	 *
+	 * @param c
+	 */
+	void add(Coordinate c) {
+		if (dimension==0) dimension = Double.isNaN(c.z) ? 2 : 3;
+		ensureCapacity(1);
+		ordinates[size++] = c.x;
+		ordinates[size++] = c.y;
+		if (dimension==3) ordinates[size++] = c.z;
+	}
+	/** Add a block of packed coordinates
+	 *
+	 * @param from The packed ordinates
+	 * @param count The number of coordinates in from
+	 * @param fromDimension The number of ordinates per coordinate in from
+	 */
+	void add(double[] from, int count, int fromDimension) {
+		if (count<1) return;
+		if (dimension==0) dimension = fromDimension > 2 ? 3 : 2;
+		ensureCapacity(count);
+
+		if (fromDimension==dimension) {
+			System.arraycopy(from, 0, ordinates, size, count * dimension);
+			size += count * dimension;
+			return;
+		}
+
+		for (int i=0; i<count; i++) {
+			int o = i * fromDimension;
+			ordinates[size++] = from[o];
+			ordinates[size++] = from[o+1];
+			if (dimension==3) ordinates[size++] = fromDimension > 2 ? from[o+2] : Double.NaN;
+		}
+	}
+	/** Get the number of coordinates held
+	 *
+	 * @return
+	 */
+	int size() {
+		return dimension==0 ? 0 : size / dimension;
+	}
+	/** Get an ordinate of a coordinate
+	 *
+	 * @param index The coordinate index
+	 * @param ordinate 0 for X, 1 for Y, 2 for Z
+	 * @return
+	 */
+	double getOrdinate(int index, int ordinate) {
+		return ordinates[index * dimension + ordinate];
+	}
+	/** Create a packed coordinate sequence holding a copy of the
+	 * coordinates added so far
+	 *
+	 * @return
+	 */
+	CoordinateSequence toCoordinateSequence() {
+		int dim = dimension==0 ? 2 : dimension;
+		double[] packed = new double[size];
+		System.arraycopy(ordinates, 0, packed, 0, size);
+		return new PackedCoordinateSequence.Double(packed, dim);
+	}
+
+	private void ensureCapacity(int coords) {
+		int needed = size + coords * 3;
+		if (needed <= ordinates.length) return;
+
+		double[] grown = new double[Math.max(needed, ordinates.length * 2)];
+		System.arraycopy(ordinates, 0, grown, 0, size);
+		ordinates = grown;
+	}
+}
@@ -80,6 +80,30 @@ public abstract class SubHandler {
     public abstract void addCoordinate(
         com.vividsolutions.jts.geom.Coordinate coordinate);
 
+    /**
+     * Adds a block of coordinates held as packed ordinates to the object
+     * being built. By default each is passed to
+     * {@link #addCoordinate(com.vividsolutions.jts.geom.Coordinate)}; handlers
+     * that build coordinate sequences override this to copy the ordinates
+     * directly.
+     *
+     * @param ordinates The ordinates, <code>dimension</code> values per coordinate
+     * @param count The number of coordinates held in ordinates
+     * @param dimension The number of ordinates per coordinate (2 or 3)
+     */
+    public void addCoordinates(double[] ordinates, int count, int dimension) {
+        for (int i = 0; i < count; i++) {
+            int o = i * dimension;
+            if (dimension > 2) {
+                addCoordinate(new com.vividsolutions.jts.geom.Coordinate(
+                        ordinates[o], ordinates[o + 1], ordinates[o + 2]));
+            } else {
+                addCoordinate(new com.vividsolutions.jts.geom.Coordinate(
+                        ordinates[o], ordinates[o + 1]));
+            }
+        }
+    }
+
     /**
      * Tells the handler that it just saw a subhandler.
      *
@@ -16,8 +16,6 @@
  */
 package com.augtech.geoapi.geotools.gml;
 
-import java.util.ArrayList;
-
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -33,8 +31,8 @@ import com.vividsolutions.jts.geom.LineString;
  * @version $Id: SubHandlerLineString.java 30648 2008-06-12 19:22:35Z acuster $
  */
 public class SubHandlerLineString extends SubHandler {
-    /** List of coordinates for LineString. */
-    private ArrayList coordinateList = new ArrayList();
+    /** Coordinates for LineString. */
+    private OrdinateBuffer coordinates = new OrdinateBuffer();
 
     /**
      * Empty constructor.
@@ -48,7 +46,18 @@ public class SubHandlerLineString extends SubHandler {
      * @param coordinate Coordinate to add to LineString.
      */
     public void addCoordinate(Coordinate coordinate) {
-        coordinateList.add(coordinate);
+        coordinates.add(coordinate);
+    }
+
+    /**
+     * Adds a block of coordinates to the LineString.
+     *
+     * @param ordinates The packed ordinates.
+     * @param count The number of coordinates.
+     * @param dimension The number of ordinates per coordinate.
+     */
+    public void addCoordinates(double[] ordinates, int count, int dimension) {
+        coordinates.add(ordinates, count, dimension);
     }
 
     /**
@@ -59,7 +68,7 @@ public class SubHandlerLineString extends SubHandler {
      * @return Ready for creation flag.
      */
     public boolean isComplete(String message) {
-        if (coordinateList.size() > 1) {
+        if (coordinates.size() > 1) {
             return true;
         } else {
             return false;
@@ -74,8 +83,7 @@ public class SubHandlerLineString extends SubHandler {
      * @return JTS LineString geometry.
      */
     public Geometry create(GeometryFactory geometryFactory) {
-        Coordinate[] coords = (Coordinate[]) coordinateList.toArray(new Coordinate[ coordinateList.size()]);
-        LineString lineString = geometryFactory.createLineString(coords);
+        LineString lineString = geometryFactory.createLineString(coordinates.toCoordinateSequence());
         lineString.setUserData( getSRS() );
         lineString.setSRID( getSRID() );
         return lineString;
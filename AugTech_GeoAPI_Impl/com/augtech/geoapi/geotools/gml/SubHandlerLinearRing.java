@@ -16,8 +16,6 @@
  */
 package com.augtech.geoapi.geotools.gml;
 
-import java.util.ArrayList;
-
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -34,8 +32,8 @@ import com.vividsolutions.jts.geom.TopologyException;
  * @version $Id: SubHandlerLinearRing.java 30648 2008-06-12 19:22:35Z acuster $
  */
 public class SubHandlerLinearRing extends SubHandler {
-    /** Internal coordinate list. */
-    private ArrayList coordinateList = new ArrayList();
+    /** Internal coordinate buffer. */
+    private OrdinateBuffer coordinates = new OrdinateBuffer();
 
     /**
      * Creates a new instance of GMLLinearRingHandler.
@@ -49,7 +47,18 @@ public class SubHandlerLinearRing extends SubHandler {
      * @param coordinate The coordinate to add to the LinearRing.
      */
     public void addCoordinate(Coordinate coordinate) {
-        coordinateList.add(coordinate);
+        coordinates.add(coordinate);
+    }
+
+    /**
+     * Adds a block of coordinates to the LinearRing.
+     *
+     * @param ordinates The packed ordinates.
+     * @param count The number of coordinates.
+     * @param dimension The number of ordinates per coordinate.
+     */
+    public void addCoordinates(double[] ordinates, int count, int dimension) {
+        coordinates.add(ordinates, count, dimension);
     }
 
     /**
@@ -61,12 +70,10 @@ public class SubHandlerLinearRing extends SubHandler {
      */
     public boolean isComplete(String message) {
         // makes sure that this LinearRing has more than one coordinate and its first and last are identical
-        if (coordinateList.size() > 1) {
-            Coordinate firstCoordinate = (Coordinate) coordinateList.get(0);
-            Coordinate lastCoordinate = (Coordinate) coordinateList.get(coordinateList
-                    .size() - 1);
-
-            if (lastCoordinate.equals2D(firstCoordinate)) {
+        int size = coordinates.size();
+        if (size > 1) {
+            if (coordinates.getOrdinate(0, 0) == coordinates.getOrdinate(size - 1, 0)
+                    && coordinates.getOrdinate(0, 1) == coordinates.getOrdinate(size - 1, 1)) {
                 return true;
             } else {
                 return false;
@@ -85,8 +92,7 @@ public class SubHandlerLinearRing extends SubHandler {
      */
     public Geometry create(GeometryFactory geometryFactory) {
         try {
-            Coordinate[] coords = (Coordinate[]) coordinateList.toArray(new Coordinate[coordinateList.size()]);
-            LinearRing ring = geometryFactory.createLinearRing(coords);
+            LinearRing ring = geometryFactory.createLinearRing(coordinates.toCoordinateSequence());
             ring.setUserData( getSRS() );
             ring.setSRID( getSRID() );
             return ring;
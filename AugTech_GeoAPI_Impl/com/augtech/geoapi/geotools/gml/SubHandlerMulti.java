@@ -113,6 +113,17 @@ public class SubHandlerMulti extends SubHandler {
         currentHandler.addCoordinate(coordinate);
     }
 
+    /**
+     * Adds a block of coordinates to the current internal (sub) geometry.
+     *
+     * @param ordinates The packed ordinates.
+     * @param count The number of coordinates.
+     * @param dimension The number of ordinates per coordinate.
+     */
+    public void addCoordinates(double[] ordinates, int count, int dimension) {
+        currentHandler.addCoordinates(ordinates, count, dimension);
+    }
+
     /**
      * Determines whether or not it is time to return this geometry.
      *
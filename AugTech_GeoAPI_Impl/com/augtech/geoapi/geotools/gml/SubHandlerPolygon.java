@@ -165,6 +165,17 @@ public class SubHandlerPolygon extends SubHandler {
         currentHandler.addCoordinate(coordinate);
     }
 
+    /**
+     * Adds a block of coordinates to the current LinearRing.
+     *
+     * @param ordinates The packed ordinates.
+     * @param count The number of coordinates.
+     * @param dimension The number of ordinates per coordinate.
+     */
+    public void addCoordinates(double[] ordinates, int count, int dimension) {
+        currentHandler.addCoordinates(ordinates, count, dimension);
+    }
+
     /**
      * Determines whether or not the geometry is ready to be returned.
      *
@@ -0,0 +1,595 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateUtils;
+
+/** An on-disk cache of HTTP GET responses used by {@link WebRequest} once set
+ * through {@link WebRequest#setCache(HttpCache)}.<p>
+ * Each body is stored as a file named from a hash of its URL, any Authorization
+ * header and the request headers named by the response's Vary header, with its
+ * validators (ETag and Last-Modified), content type and expiry time held in a matching
+ * properties file. A response is served from disk without contacting the server
+ * while it is fresh according to its Cache-Control max-age (or s-maxage in a
+ * {@link #setShared(boolean) shared} cache) or Expires header. Responses marked
+ * no-cache are always revalidated. Once stale a response is revalidated with a
+ * conditional GET, and a 304 response is served from disk. Responses marked no-store
+ * or Vary: *, and responses without a validator or freshness lifetime, are not stored.
+ * A shared cache also skips responses marked private, and responses to requests with
+ * an Authorization header unless marked public, s-maxage or must-revalidate.<p>
+ * When the total size of the bodies goes over the limit, the least recently used
+ * entries are deleted. The cache is re-loaded from the directory on construction,
+ * so it persists between sessions.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class HttpCache {
+	private static final String BODY = ".body";
+	private static final String META = ".meta";
+
+	private File directory;
+	private long maxSize;
+	private long size = 0;
+	/** Entries in least recently used order */
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private int hits = 0;
+	private int revalidated = 0;
+	/** The request headers each URL's responses vary on, by the hash of the URL */
+	private Map<String, String[]> varyIndex = new HashMap<String, String[]>();
+	private volatile boolean shared = false;
+
+	/** Create or re-open a cache
+	 *
+	 * @param directory The directory to store responses in. It is created if required.
+	 * @param maxSize The maximum number of bytes of response bodies to keep
+	 */
+	public HttpCache(File directory, long maxSize) {
+		if (maxSize<1) throw new IllegalArgumentException("Cache size must be greater than zero");
+		this.directory = directory;
+		this.maxSize = maxSize;
+		directory.mkdirs();
+		load();
+	}
+	/** Set whether this cache is shared between users (i.e. on a server) rather than
+	 * private to one. A shared cache uses s-maxage over max-age and doesn't store
+	 * private or authorised responses. Default is false.
+	 *
+	 * @param shared
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+	/** Is this cache shared between users?
+	 *
+	 * @return
+	 * @see #setShared(boolean)
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+	/** Get the number of bytes of response bodies held
+	 *
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+	/** Get the number of responses held
+	 *
+	 * @return
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+	/** Get the number of requests answered from disk without contacting the server
+	 *
+	 * @return
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+	/** Get the number of requests answered from disk after a 304 response
+	 *
+	 * @return
+	 */
+	public synchronized int getRevalidated() {
+		return revalidated;
+	}
+	/** Delete all cached responses
+	 *
+	 */
+	public synchronized void clear() {
+		for (Entry e : entries.values()) {
+			delete(e);
+		}
+		entries.clear();
+		varyIndex.clear();
+		size = 0;
+	}
+	/** Issue a GET request through the cache.
+	 *
+	 * @param request The request, which has any conditional headers added to it
+	 * @return The response entity, either from disk or the server
+	 * @throws IOException If the server returns an error or the response could not
+	 * be stored
+	 */
+	HttpEntity execute(HttpGet request) throws IOException {
+		String base = getBaseKey(request);
+		long now = System.currentTimeMillis();
+
+		Entry entry = null;
+		synchronized (this) {
+			String key = getKey(base, varyIndex.get(base), request);
+			entry = entries.get(key);
+			if (entry!=null && !entry.getBody().exists()) {
+				remove(key);
+				entry = null;
+			}
+			if (entry!=null && entry.expires > now) {
+				hits++;
+				return entry.toEntity();
+			}
+		}
+
+		if (entry!=null) {
+			if (entry.etag!=null) request.setHeader("If-None-Match", entry.etag);
+			if (entry.lastModified!=null) request.setHeader("If-Modified-Since", entry.lastModified);
+		}
+
+		HttpResponse response = WebRequest.getHttpClient().execute(request);
+		int status = response.getStatusLine().getStatusCode();
+
+		if (status==304 && entry!=null) {
+			consume( response.getEntity() );
+			synchronized (this) {
+				// Only update the entry if it wasn't evicted or replaced while we waited
+				if (entries.get(entry.key)==entry && entry.getBody().exists()) {
+					entry.expires = getExpires(response, now);
+					Header h = response.getFirstHeader("ETag");
+					if (h!=null) entry.etag = h.getValue();
+					entry.save();
+					revalidated++;
+					return entry.toEntity();
+				}
+			}
+			// The body has gone, so fetch it again without the conditional headers
+			request.removeHeaders("If-None-Match");
+			request.removeHeaders("If-Modified-Since");
+			return execute(request);
+		} else if (status < 200 || status > 299) {
+			consume( response.getEntity() );
+			throw new IOException("Failed : HTTP error code : "
+					+ response.getStatusLine().getReasonPhrase() );
+		}
+
+		HttpEntity entity = response.getEntity();
+		if (entity==null) return null;
+		if (!isStorable(request, response, now)) {
+			// Don't keep serving an old copy of something that can no longer be stored
+			if (entry!=null) {
+				synchronized (this) {
+					if (entries.get(entry.key)==entry) remove(entry.key);
+				}
+			}
+			return entity;
+		}
+
+		String[] vary = getVary(response);
+		String key = getKey(base, vary, request);
+		Entry newEntry = new Entry(key);
+		newEntry.url = request.getURI().toString();
+		newEntry.base = base;
+		newEntry.vary = vary;
+		newEntry.expires = getExpires(response, now);
+		Header h = response.getFirstHeader("ETag");
+		if (h!=null) newEntry.etag = h.getValue();
+		h = response.getFirstHeader("Last-Modified");
+		if (h!=null) newEntry.lastModified = h.getValue();
+		if (entity.getContentType()!=null) newEntry.contentType = entity.getContentType().getValue();
+
+		// Write to a temporary file so a failed download never replaces a good body
+		File temp = File.createTempFile(key, ".tmp", directory);
+		try {
+			newEntry.size = copy(entity.getContent(), temp);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+
+		synchronized (this) {
+			remove(key);
+			if (!temp.renameTo( newEntry.getBody() )) {
+				temp.delete();
+				throw new IOException("Unable to store response for "+newEntry.url);
+			}
+			newEntry.save();
+			entries.put(key, newEntry);
+			varyIndex.put(base, vary);
+			size += newEntry.size;
+			evict(newEntry);
+
+			return newEntry.toEntity();
+		}
+	}
+	/** Can this response be stored?
+	 *
+	 * @param request
+	 * @param response
+	 * @param now The time the request was sent
+	 * @return True if it is not marked no-store (or private in a shared cache), does not
+	 * vary on every header and has a validator or freshness lifetime
+	 */
+	private boolean isStorable(HttpRequest request, HttpResponse response, long now) {
+		boolean storeAuthorised = false;
+		for (Header h : response.getHeaders("Cache-Control")) {
+			for (HeaderElement he : h.getElements()) {
+				String name = he.getName().toLowerCase(Locale.ENGLISH);
+				if (name.equals("no-store")) return false;
+				if (name.equals("private") && shared) return false;
+				if (name.equals("public") || name.equals("s-maxage") || name.equals("must-revalidate")) {
+					storeAuthorised = true;
+				}
+			}
+		}
+		if (shared && request.getFirstHeader("Authorization")!=null && !storeAuthorised) return false;
+
+		String[] vary = getVary(response);
+		for (String v : vary) {
+			if (v.equals("*")) return false;
+		}
+
+		return response.getFirstHeader("ETag")!=null
+				|| response.getFirstHeader("Last-Modified")!=null
+				|| getExpires(response, now) > now;
+	}
+	/** Get the time a response stops being fresh from Cache-Control or Expires. All
+	 * the Cache-Control directives are read before deciding, so no-cache or no-store
+	 * always wins over max-age.
+	 *
+	 * @param response
+	 * @param now The time the request was sent
+	 * @return The time in milliseconds, or zero if it must always be revalidated
+	 */
+	private long getExpires(HttpResponse response, long now) {
+		long maxAge = -1;
+		long sMaxAge = -1;
+		for (Header h : response.getHeaders("Cache-Control")) {
+			for (HeaderElement he : h.getElements()) {
+				String name = he.getName().toLowerCase(Locale.ENGLISH);
+				if (name.equals("no-cache") || name.equals("no-store")) {
+					return 0;
+				} else if (name.equals("max-age")) {
+					maxAge = getSeconds(he);
+				} else if (name.equals("s-maxage")) {
+					sMaxAge = getSeconds(he);
+				}
+			}
+		}
+		if (shared && sMaxAge>-1) return sMaxAge==0 ? 0 : now + sMaxAge * 1000;
+		if (maxAge>-1) return maxAge==0 ? 0 : now + maxAge * 1000;
+
+		Header h = response.getFirstHeader("Expires");
+		if (h!=null) {
+			try {
+				Date expires = DateUtils.parseDate( h.getValue() );
+				return Math.max(0, expires.getTime());
+			} catch (Exception e) {
+				// An invalid date means already expired
+			}
+		}
+		return 0;
+	}
+	/** Get the number of seconds of a Cache-Control directive
+	 *
+	 * @param he
+	 * @return The seconds, or zero if the value is missing or invalid
+	 */
+	private static long getSeconds(HeaderElement he) {
+		if (he.getValue()==null) return 0;
+		try {
+			return Math.max(0, Long.parseLong( he.getValue().trim() ));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	/** Get the (lower case) names of the request headers a response varies on
+	 *
+	 * @param response
+	 * @return The names, which may include "*", or an empty array
+	 */
+	private static String[] getVary(HttpResponse response) {
+		List<String> names = new ArrayList<String>();
+		for (Header h : response.getHeaders("Vary")) {
+			for (HeaderElement he : h.getElements()) {
+				String name = he.getName().trim().toLowerCase(Locale.ENGLISH);
+				if (name.length()>0 && !names.contains(name)) names.add(name);
+			}
+		}
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+	/** Get the hash identifying the URL of a request and who it is for
+	 *
+	 * @param request
+	 * @return
+	 */
+	private static String getBaseKey(HttpGet request) {
+		String url = request.getURI().toString();
+		Header auth = request.getFirstHeader("Authorization");
+		return hash( auth==null ? url : url+"\nAuthorization: "+auth.getValue() );
+	}
+	/** Get the hash identifying a variant of a URL's response
+	 *
+	 * @param base From {@link #getBaseKey(HttpGet)}
+	 * @param vary The request headers the response varies on, or <code>Null</code>
+	 * @param request
+	 * @return
+	 */
+	private static String getKey(String base, String[] vary, HttpRequest request) {
+		if (vary==null || vary.length==0) return base;
+
+		StringBuilder sb = new StringBuilder(base);
+		for (String name : vary) {
+			sb.append('\n').append(name).append(':');
+			for (Header h : request.getHeaders(name)) {
+				sb.append(' ').append(h.getValue());
+			}
+		}
+		return hash( sb.toString() );
+	}
+	/** Read and close any remaining content of an entity so its connection can
+	 * be re-used
+	 *
+	 * @param entity
+	 * @throws IOException
+	 */
+	private static void consume(HttpEntity entity) throws IOException {
+		if (entity==null || !entity.isStreaming()) return;
+		InputStream in = entity.getContent();
+		if (in!=null) in.close();
+	}
+	/** Delete least recently used entries until the cache is within its size
+	 *
+	 * @param keep An entry that must not be deleted
+	 */
+	private void evict(Entry keep) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (size > maxSize && it.hasNext()) {
+			Entry e = it.next();
+			if (e==keep) continue;
+			it.remove();
+			size -= e.size;
+			delete(e);
+		}
+	}
+
+	private void remove(String key) {
+		Entry e = entries.remove(key);
+		if (e!=null) {
+			size -= e.size;
+			delete(e);
+		}
+	}
+
+	private void delete(Entry e) {
+		e.getBody().delete();
+		e.getMeta().delete();
+	}
+	/** Load the entries already in the directory, ordered by when they were stored
+	 * or last revalidated.
+	 */
+	private void load() {
+		File[] files = directory.listFiles();
+		if (files==null) return;
+
+		List<Entry> loaded = new ArrayList<Entry>();
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(".tmp")) {
+				f.delete();
+				continue;
+			}
+			if (!name.endsWith(META)) continue;
+
+			Entry e = new Entry( name.substring(0, name.length()-META.length()) );
+			if (e.load()) {
+				loaded.add(e);
+			} else {
+				delete(e);
+			}
+		}
+
+		Collections.sort(loaded, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				long d = a.getMeta().lastModified() - b.getMeta().lastModified();
+				return d<0 ? -1 : d>0 ? 1 : 0;
+			}
+		});
+		for (Entry e : loaded) {
+			entries.put(e.key, e);
+			if (e.base!=null) varyIndex.put(e.base, e.vary);
+			size += e.size;
+		}
+		evict(null);
+	}
+	/** Copy a stream to a file, closing both
+	 *
+	 * @param in
+	 * @param file
+	 * @return The number of bytes written
+	 * @throws IOException
+	 */
+	private static long copy(InputStream in, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		long total = 0;
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				total += read;
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		return total;
+	}
+	/** Get the hex SHA-1 hash of a URL to use as its file name
+	 *
+	 * @param url
+	 * @return
+	 */
+	static String hash(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest( url.getBytes("UTF-8") );
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append( Character.forDigit((b >> 4) & 0xF, 16) );
+				sb.append( Character.forDigit(b & 0xF, 16) );
+			}
+			return sb.toString();
+		} catch (Exception e) {
+			// SHA-1 and UTF-8 are always available
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** A stored response */
+	private class Entry {
+		String key;
+		String url;
+		/** The hash of the URL and authorization this is a variant of */
+		String base = null;
+		/** The request headers this response varies on */
+		String[] vary = new String[0];
+		String etag = null;
+		String lastModified = null;
+		String contentType = null;
+		long expires = 0;
+		long size = 0;
+
+		Entry(String key) {
+			this.key = key;
+		}
+
+		File getBody() {
+			return new File(directory, key + BODY);
+		}
+
+		File getMeta() {
+			return new File(directory, key + META);
+		}
+
+		/** Open the body. This must be called holding the cache's lock so the
+		 * body can't be deleted or replaced before it is open; once open it can
+		 * be read after the entry is evicted.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		HttpEntity toEntity() throws IOException {
+			File body = getBody();
+			InputStreamEntity entity = new InputStreamEntity(new FileInputStream(body), body.length());
+			entity.setContentType(contentType);
+			return entity;
+		}
+		/** Write the properties file
+		 *
+		 * @throws IOException
+		 */
+		void save() throws IOException {
+			Properties p = new Properties();
+			p.setProperty("url", url);
+			p.setProperty("expires", String.valueOf(expires));
+			p.setProperty("size", String.valueOf(size));
+			if (etag!=null) p.setProperty("etag", etag);
+			if (lastModified!=null) p.setProperty("lastModified", lastModified);
+			if (contentType!=null) p.setProperty("contentType", contentType);
+			if (base!=null) p.setProperty("base", base);
+			if (vary.length>0) {
+				StringBuilder sb = new StringBuilder();
+				for (String v : vary) {
+					if (sb.length()>0) sb.append(',');
+					sb.append(v);
+				}
+				p.setProperty("vary", sb.toString());
+			}
+
+			OutputStream out = new FileOutputStream( getMeta() );
+			try {
+				p.store(out, null);
+			} finally {
+				out.close();
+			}
+		}
+		/** Read the properties file
+		 *
+		 * @return True if the entry and its body are valid
+		 */
+		boolean load() {
+			Properties p = new Properties();
+			try {
+				InputStream in = new FileInputStream( getMeta() );
+				try {
+					p.load(in);
+				} finally {
+					in.close();
+				}
+				url = p.getProperty("url");
+				expires = Long.parseLong( p.getProperty("expires", "0") );
+				size = Long.parseLong( p.getProperty("size", "-1") );
+				etag = p.getProperty("etag");
+				lastModified = p.getProperty("lastModified");
+				contentType = p.getProperty("contentType");
+				base = p.getProperty("base");
+				String v = p.getProperty("vary");
+				vary = v==null || v.length()==0 ? new String[0] : v.split(",");
+			} catch (Exception e) {
+				return false;
+			}
+			return url!=null && getBody().length()==size;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.utils;
+
+import java.util.Arrays;
+
+/** A hash map keyed by primitive longs (such as packed tile keys), so no Long
+ * or entry objects are created per key.<p>
+ * Uses open addressing with linear probing. Null values are not permitted.
+ * This class is not thread-safe.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ * @param <V> The value type
+ */
+public class LongHashMap<V> {
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+	private int threshold;
+
+	/** Create a new, empty map
+	 *
+	 */
+	public LongHashMap() {
+		this(16);
+	}
+	/** Create a new, empty map
+	 *
+	 * @param initialCapacity The number of keys to hold before the map resizes
+	 */
+	public LongHashMap(int initialCapacity) {
+		int cap = 16;
+		while (cap * 3 / 4 < initialCapacity) cap <<= 1;
+		allocate(cap);
+	}
+	/** Get the value for a key
+	 *
+	 * @param key
+	 * @return The value, or <code>Null</code> if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int i = indexOf(key);
+		return i < 0 ? null : (V) values[i];
+	}
+	/** Is the key in the map?
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(long key) {
+		return indexOf(key) >= 0;
+	}
+	/** Set the value for a key
+	 *
+	 * @param key
+	 * @param value The value, which must not be <code>Null</code>
+	 * @return The previous value, or <code>Null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value==null) throw new IllegalArgumentException("Null values are not permitted");
+
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			if (values[i]==null) {
+				keys[i] = key;
+				values[i] = value;
+				if (++size > threshold) allocate(keys.length << 1);
+				return null;
+			}
+			if (keys[i]==key) {
+				V prev = (V) values[i];
+				values[i] = value;
+				return prev;
+			}
+		}
+	}
+	/** Remove a key from the map
+	 *
+	 * @param key
+	 * @return The value that was removed, or <code>Null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int i = indexOf(key);
+		if (i < 0) return null;
+
+		V prev = (V) values[i];
+		values[i] = null;
+		size--;
+
+		// Move any following entries in the same run back in to the gap
+		int mask = keys.length - 1;
+		int gap = i;
+		for (i = (i + 1) & mask; values[i]!=null; i = (i + 1) & mask) {
+			int home = hash(keys[i]) & mask;
+			boolean move = gap <= i ? (home <= gap || home > i) : (home <= gap && home > i);
+			if (move) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				values[i] = null;
+				gap = i;
+			}
+		}
+		return prev;
+	}
+	/** Get the number of keys in the map
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+	/** Is the map empty?
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return size==0;
+	}
+	/** Remove all keys from the map
+	 *
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	/** Get a copy of all the keys in the map, in no particular order
+	 *
+	 * @return
+	 */
+	public long[] keys() {
+		long[] ret = new long[size];
+		int n = 0;
+		for (int i=0; i<values.length; i++) {
+			if (values[i]!=null) ret[n++] = keys[i];
+		}
+		return ret;
+	}
+
+	private int indexOf(long key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; values[i]!=null; i = (i + 1) & mask) {
+			if (keys[i]==key) return i;
+		}
+		return -1;
+	}
+	/** Resize the tables, re-inserting any existing entries
+	 *
+	 * @param capacity A power of two
+	 */
+	private void allocate(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		keys = new long[capacity];
+		values = new Object[capacity];
+		threshold = capacity * 3 / 4;
+		if (oldKeys==null) return;
+
+		int mask = capacity - 1;
+		for (int j=0; j<oldValues.length; j++) {
+			if (oldValues[j]==null) continue;
+			int i = hash(oldKeys[j]) & mask;
+			while (values[i]!=null) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+	/** Spread the bits of the key, as tile keys differ mostly in their low bits */
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
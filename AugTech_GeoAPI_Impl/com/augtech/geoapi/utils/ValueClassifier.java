@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.utils;
+
+import java.util.Date;
+
+/** Decides the type of a text value (from XML content, attributes etc) by looking
+ * at its characters once, rather than attempting to parse it as each type in turn
+ * and catching the failures.<p>
+ * Recognised forms are:
+ * <ul><li>Integer/Long - An optional sign followed by digits
+ * <li>Double - An optional sign, digits with an optional fraction and an optional exponent
+ * <li>Boolean - <code>true</code> or <code>false</code>
+ * <li>Date - An ISO 8601 date <code>yyyy-mm-dd</code>, optionally followed by
+ * <code>Thh:mm[:ss[.s]]</code> and a zone (<code>Z</code> or <code>+hh:mm</code>)
+ * </ul>
+ * Anything else is a String.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public abstract class ValueClassifier {
+	/** A value that is not one of the other types */
+	public static final int STRING = 0;
+	/** A whole number within the range of an int */
+	public static final int INTEGER = 1;
+	/** A whole number within the range of a long, but not an int */
+	public static final int LONG = 2;
+	/** A decimal number, or a whole number too large for a long */
+	public static final int DOUBLE = 3;
+	/** <code>true</code> or <code>false</code> */
+	public static final int BOOLEAN = 4;
+	/** An ISO 8601 date or date-time */
+	public static final int DATE = 5;
+
+	/** Get the type code of a value
+	 *
+	 * @param value The value to classify
+	 * @return One of {@link #STRING}, {@link #INTEGER}, {@link #LONG}, {@link #DOUBLE},
+	 * {@link #BOOLEAN} or {@link #DATE}
+	 */
+	public static int classify(CharSequence value) {
+		int len = value==null ? 0 : value.length();
+		if (len==0) return STRING;
+
+		char c = value.charAt(0);
+		if (c=='t' || c=='f') {
+			return "true".contentEquals(value) || "false".contentEquals(value) ? BOOLEAN : STRING;
+		}
+		if (isDate(value, len)) return DATE;
+
+		return classifyNumber(value, len);
+	}
+	/** Get the Java class to use for a value
+	 *
+	 * @param value The value to classify
+	 * @return Integer, Long, Double, Boolean, Date or String
+	 */
+	public static Class<?> classifyClass(CharSequence value) {
+		switch (classify(value)) {
+		case INTEGER:
+			return Integer.class;
+		case LONG:
+			return Long.class;
+		case DOUBLE:
+			return Double.class;
+		case BOOLEAN:
+			return Boolean.class;
+		case DATE:
+			return Date.class;
+		default:
+			return String.class;
+		}
+	}
+	/** Convert a value to an Integer, Long, Double or Boolean if its
+	 * characters represent one, otherwise return the value unchanged.<p>
+	 * Dates are recognised by {@link #classify(CharSequence)} but are returned as
+	 * their original String, as that is how they are stored in a GeoPackage.
+	 *
+	 * @param value The value to convert
+	 * @return The typed value, or the original String
+	 */
+	public static Object toValue(String value) {
+		switch (classify(value)) {
+		case INTEGER:
+			return Integer.valueOf( (int)parseLong(value) );
+		case LONG:
+			return Long.valueOf( parseLong(value) );
+		case DOUBLE:
+			return Double.valueOf( value );
+		case BOOLEAN:
+			return Boolean.valueOf( value.charAt(0)=='t' );
+		default:
+			return value;
+		}
+	}
+	/** Check the characters of a number and work out the smallest type it fits
+	 *
+	 * @param value
+	 * @param len
+	 * @return
+	 */
+	private static int classifyNumber(CharSequence value, int len) {
+		int i = 0;
+		boolean negative = false;
+		char c = value.charAt(0);
+		if (c=='-' || c=='+') {
+			negative = c=='-';
+			i++;
+		}
+
+		// Integer part, accumulated as a negative number to cover Long.MIN_VALUE
+		int start = i;
+		long acc = 0;
+		boolean overflow = false;
+		for (; i<len; i++) {
+			c = value.charAt(i);
+			if (c<'0' || c>'9') break;
+			if (!overflow) {
+				int d = c - '0';
+				if (acc < (Long.MIN_VALUE + d) / 10) {
+					overflow = true;
+				} else {
+					acc = acc * 10 - d;
+				}
+			}
+		}
+		int intDigits = i - start;
+
+		if (i==len) {
+			if (intDigits==0) return STRING;
+			if (overflow || (!negative && acc==Long.MIN_VALUE)) return DOUBLE;
+			if (negative) return acc >= Integer.MIN_VALUE ? INTEGER : LONG;
+			return -acc <= Integer.MAX_VALUE ? INTEGER : LONG;
+		}
+
+		// Fraction
+		int fracDigits = 0;
+		if (c=='.') {
+			for (i++; i<len; i++) {
+				c = value.charAt(i);
+				if (c<'0' || c>'9') break;
+				fracDigits++;
+			}
+		}
+		if (intDigits + fracDigits==0) return STRING;
+		if (i==len) return DOUBLE;
+
+		// Exponent
+		if (c!='e' && c!='E') return STRING;
+		i++;
+		if (i<len && (value.charAt(i)=='-' || value.charAt(i)=='+')) i++;
+		int expStart = i;
+		for (; i<len; i++) {
+			c = value.charAt(i);
+			if (c<'0' || c>'9') return STRING;
+		}
+
+		return i > expStart ? DOUBLE : STRING;
+	}
+	/** Parse a value already classified as {@link #INTEGER} or {@link #LONG}
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static long parseLong(String value) {
+		int i = 0;
+		boolean negative = value.charAt(0)=='-';
+		if (negative || value.charAt(0)=='+') i++;
+
+		long acc = 0;
+		for (int len = value.length(); i<len; i++) {
+			acc = acc * 10 - (value.charAt(i) - '0');
+		}
+		return negative ? acc : -acc;
+	}
+	/** Is the value an ISO 8601 date or date-time?
+	 *
+	 * @param v
+	 * @param len
+	 * @return
+	 */
+	private static boolean isDate(CharSequence v, int len) {
+		// yyyy-mm-dd
+		if (len<10 || !digits(v, 0, 4) || v.charAt(4)!='-' || !digits(v, 5, 2)
+				|| v.charAt(7)!='-' || !digits(v, 8, 2)) return false;
+		if (!range(v, 5, 1, 12) || !range(v, 8, 1, 31)) return false;
+		if (len==10) return true;
+
+		// Thh:mm[:ss[.s]]
+		int i = 10;
+		char c = v.charAt(i);
+		if (c!='T' && c!=' ') return isZone(v, i, len);
+		if (len<16 || !digits(v, 11, 2) || v.charAt(13)!=':' || !digits(v, 14, 2)) return false;
+		if (!range(v, 11, 0, 24) || !range(v, 14, 0, 59)) return false;
+		i = 16;
+		if (i<len && v.charAt(i)==':') {
+			if (len<19 || !digits(v, 17, 2) || !range(v, 17, 0, 60)) return false;
+			i = 19;
+			if (i<len && v.charAt(i)=='.') {
+				int start = ++i;
+				while (i<len && v.charAt(i)>='0' && v.charAt(i)<='9') i++;
+				if (i==start) return false;
+			}
+		}
+		return i==len || isZone(v, i, len);
+	}
+	/** Is the remainder of the value a time zone (Z or +hh:mm)?
+	 *
+	 * @param v
+	 * @param i
+	 * @param len
+	 * @return
+	 */
+	private static boolean isZone(CharSequence v, int i, int len) {
+		char c = v.charAt(i);
+		if (c=='Z') return i+1==len;
+		if (c!='+' && c!='-') return false;
+		return i+6==len && digits(v, i+1, 2) && v.charAt(i+3)==':' && digits(v, i+4, 2);
+	}
+
+	private static boolean digits(CharSequence v, int start, int count) {
+		for (int i=start; i<start+count; i++) {
+			char c = v.charAt(i);
+			if (c<'0' || c>'9') return false;
+		}
+		return true;
+	}
+
+	private static boolean range(CharSequence v, int start, int min, int max) {
+		int n = (v.charAt(start) - '0') * 10 + (v.charAt(start+1) - '0');
+		return n>=min && n<=max;
+	}
+}
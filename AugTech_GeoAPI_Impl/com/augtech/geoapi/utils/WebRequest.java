@@ -1,19 +1,13 @@
 package com.augtech.geoapi.utils;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
-import javax.net.ssl.HttpsURLConnection;
-
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
@@ -21,9 +15,24 @@ import org.apache.http.HttpException;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.ParseException;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
@@ -31,7 +40,12 @@ import org.apache.http.util.EntityUtils;
 
 /** An Internet TCP/IP request using the DefaultHttpClient and a Get request.
  * The request can be built slowly adding parameters as key-value pairs, and then issued
- * to retrieve an InputStream.
+ * to retrieve an InputStream.<p>
+ * All requests share one thread-safe client with a pool of keep-alive connections,
+ * so repeated requests to the same server (such as tiles or WFS pages) re-use open
+ * connections rather than connecting each time. Streams returned by the
+ * <code>open...ForStream</code> methods must be closed to release their connection
+ * back to the pool.
  * 
  * @author Augmented Technologies Ltd.
  *
@@ -47,6 +61,14 @@ public class WebRequest extends HashMap<String, Object> {
 	protected String SERVER_URL;
 	private String encodedPostAuth = null;
 
+	/** Built with the HttpClient 4.0 API, which is all the Android platform provides */
+	private static HttpClient httpClient = null;
+	private static int maxConnections = 20;
+	private static int maxConnectionsPerRoute = 6;
+	private static int connectTimeout = 20000;
+	private static int socketTimeout = 60000;
+	private static volatile HttpCache cache = null;
+
 	/** Create a new HTTP get request. 
 	 * 
 	 * @param serverUrl The base server url, such as www.awila.co.uk
@@ -90,19 +112,15 @@ public class WebRequest extends HashMap<String, Object> {
 	 */
 	public InputStream openConnection() throws IOException {
 
-		HttpEntity entity = null;
-		try {
-			entity = openGetForResponse().getEntity();
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new IOException( e.getMessage(), e.getCause() );
-		}
-
-		if (entity!=null) {
+		HttpGet getRequest = new HttpGet( getBuiltURL() );
+		addGetHeaders(getRequest);
+		
+		if (cache!=null) {
+			HttpEntity entity = cache.execute(getRequest);
+			if (entity==null) throw new IOException("Entity Null!");
 			return entity.getContent();
-		} else {
-			throw new IOException("Entity Null!");
 		}
+		return openForStream(getRequest);
 		
 	}
 	/** Gets a String from the currently compiled URL.<p>
@@ -117,7 +135,9 @@ public class WebRequest extends HashMap<String, Object> {
 		String ret = "";
 
 		try {
-			HttpEntity entity = openGetForResponse().getEntity();
+			HttpGet getRequest = new HttpGet( getBuiltURL() );
+			addGetHeaders(getRequest);
+			HttpEntity entity = cache!=null ? cache.execute(getRequest) : openForResponse(getRequest).getEntity();
 
 			//ret = FileIO.getStreamToString( entity.getContent() );
 			ret = EntityUtils.toString(entity);
@@ -129,16 +149,11 @@ public class WebRequest extends HashMap<String, Object> {
 		
 		return ret;
 	}
-	/** Open the connection to the currently compiled URL and get a HttpResponse.<p>
-	 * Response is automatically un-zipped if required.
+	/** Add the standard headers to a GET request
 	 * 
-	 * @return A new unzipped response
-	 * @throws Exception
+	 * @param getRequest
 	 */
-	@SuppressWarnings("deprecation")
-	private HttpResponse openGetForResponse() throws Exception  {
-		DefaultHttpClient httpClient = new DefaultHttpClient();
-		HttpGet getRequest = new HttpGet( getBuiltURL() );
+	private void addGetHeaders(HttpGet getRequest) {
 		getRequest.addHeader("Accept-Encoding", "gzip");
 		getRequest.addHeader(HTTP.USER_AGENT, USER_AGENT);
 		
@@ -147,36 +162,137 @@ public class WebRequest extends HashMap<String, Object> {
 			String encoded = "";
 			getRequest.setHeader("Authorization", "Basic " + encoded);
 			}
+	}
+	/** Issue a request on the shared client and get the response stream.
+	 * 
+	 * @param request
+	 * @return The un-zipped content, which must be closed to release the connection
+	 * @throws IOException
+	 */
+	private static InputStream openForStream(HttpUriRequest request) throws IOException {
+		HttpEntity entity = null;
+		try {
+			entity = openForResponse(request).getEntity();
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new IOException( e.getMessage(), e.getCause() );
+		}
 
-		// Add an 'Interceptor' to automatically unzip the content
-		httpClient.addResponseInterceptor(
-				new HttpResponseInterceptor() {
-					public void process(final HttpResponse response, final HttpContext context) throws HttpException, IOException {
-						HttpEntity entity = response.getEntity();
-						if (entity != null) {
-							Header ceheader = entity.getContentEncoding();
-							if (ceheader != null) {
-								HeaderElement[] codecs = ceheader.getElements();
-								for (int i = 0; i < codecs.length; i++) {
-									if (codecs[i].getName().equalsIgnoreCase("gzip")) {
-										response.setEntity( new GzipDecompressingEntity(response.getEntity()) );
-										return;
-									}
-								}
-							}
-						}
-					}
-				});
+		if (entity!=null) {
+			return entity.getContent();
+		} else {
+			throw new IOException("Entity Null!");
+		}
+	}
+	/** Issue a request on the shared client and get a HttpResponse.<p>
+	 * Response is automatically un-zipped if required.
+	 * 
+	 * @return A new unzipped response
+	 * @throws Exception If the response is not a success. The connection is
+	 * released first.
+	 */
+	@SuppressWarnings("deprecation")
+	private static HttpResponse openForResponse(HttpUriRequest request) throws Exception  {
 
-		HttpResponse response = httpClient.execute(getRequest);	
+		HttpResponse response = getHttpClient().execute(request);
 		
-		if (response.getStatusLine().getStatusCode() != 200) {
+		int status = response.getStatusLine().getStatusCode();
+		if (status < 200 || status > 299) {
+			// Read any error page so the connection can be re-used
+			if (response.getEntity()!=null) response.getEntity().consumeContent();
 			throw new Exception("Failed : HTTP error code : "
 			   + response.getStatusLine().getReasonPhrase() );
 		}
 
 		return response;
 	}
+	/** Get the client shared by all requests, creating it if required.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings("deprecation")
+	static synchronized HttpClient getHttpClient() {
+		if (httpClient!=null) return httpClient;
+		
+		HttpParams params = new BasicHttpParams();
+		ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+		HttpConnectionParams.setSoTimeout(params, socketTimeout);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		HttpProtocolParams.setUserAgent(params, USER_AGENT);
+		
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register( new Scheme("http", PlainSocketFactory.getSocketFactory(), 80) );
+		registry.register( new Scheme("https", SSLSocketFactory.getSocketFactory(), 443) );
+		
+		DefaultHttpClient client = new DefaultHttpClient( new ThreadSafeClientConnManager(params, registry), params );
+		
+		// Add an 'Interceptor' to automatically unzip the content
+		client.addResponseInterceptor( new GzipInterceptor() );
+		
+		httpClient = client;
+		return httpClient;
+	}
+	/** Set the size of the connection pool shared by all requests. Any connections
+	 * already open are closed.
+	 * 
+	 * @param total The maximum number of open connections. Default is 20
+	 * @param perRoute The maximum number of open connections to one server. Default is 6
+	 */
+	public static synchronized void setConnectionLimits(int total, int perRoute) {
+		if (total<1 || perRoute<1) throw new IllegalArgumentException("Connection limits must be greater than zero");
+		maxConnections = total;
+		maxConnectionsPerRoute = perRoute;
+		shutdown();
+	}
+	/** Set the timeouts for all requests. Any connections already open are closed.
+	 * 
+	 * @param connect Milliseconds to wait for a connection. Default is 20 seconds
+	 * @param socket Milliseconds to wait for data. Default is 60 seconds
+	 */
+	public static synchronized void setTimeouts(int connect, int socket) {
+		connectTimeout = connect;
+		socketTimeout = socket;
+		shutdown();
+	}
+	/** Set an on-disk cache for all GET requests, or <code>Null</code> to stop caching.
+	 * 
+	 * @param httpCache
+	 */
+	public static synchronized void setCache(HttpCache httpCache) {
+		cache = httpCache;
+	}
+	/** Get the cache used for GET requests
+	 * 
+	 * @return The cache or <code>Null</code> if not set
+	 */
+	public static synchronized HttpCache getCache() {
+		return cache;
+	}
+	/** Close all pooled connections. A new pool will be created by the next request.
+	 * 
+	 */
+	public static synchronized void shutdown() {
+		if (httpClient!=null) {
+			httpClient.getConnectionManager().shutdown();
+			httpClient = null;
+		}
+	}
+	/** Post content to the server URL and get the response stream. As with 
+	 * {@link #openHttpsPostForString(String)} the parameters on this request are 
+	 * sent as request headers.
+	 * 
+	 * @param requestContent The body of the request, or <code>Null</code>
+	 * @param contentType The type of the body, such as text/xml
+	 * @return The un-zipped response, which must be closed to release the connection
+	 * @throws Exception
+	 */
+	public InputStream openPostForStream(String requestContent, String contentType) throws Exception {
+		return openForStream( buildPost(requestContent, contentType) );
+	}
 	/** Get a String via a post request as HTTPS
 	 * 
 	 * @param requestContent
@@ -184,54 +300,41 @@ public class WebRequest extends HashMap<String, Object> {
 	 * @throws Exception
 	 */
 	public String openHttpsPostForString(String requestContent) throws Exception {
-		URL uri = new URL(SERVER_URL);
+		HttpPost post = buildPost(requestContent, null);
+		
+		return EntityUtils.toString( openForResponse(post).getEntity(), "UTF-8" );
 
-		HttpsURLConnection httpConnection = (HttpsURLConnection) uri.openConnection();
+	}
+	/** Build a post request to the server URL, using the parameters as headers
+	 * 
+	 * @param requestContent
+	 * @param contentType
+	 * @return
+	 * @throws Exception
+	 */
+	private HttpPost buildPost(String requestContent, String contentType) throws Exception {
+		HttpPost post = new HttpPost(SERVER_URL);
 
-		httpConnection.setDoInput(true);
-		httpConnection.setDoOutput(true);
-		httpConnection.setUseCaches(false);
-		// add request header
-		httpConnection.setRequestMethod("POST");
 		for (Map.Entry<String, Object> e : entrySet()) {
 			
 			if (e.getKey().toLowerCase().equals("authorization"))
 				throw new Exception("Use setPostAuthorization() instead of a parameter");
 			
-			httpConnection.setRequestProperty( e.getKey(), e.getValue().toString() );
+			post.setHeader( e.getKey(), e.getValue().toString() );
 			
 		}
-		if (!containsKey("User-Agent")) httpConnection.setRequestProperty("User-Agent", USER_AGENT);
-		if (!containsKey("Accept-Language")) httpConnection.setRequestProperty("Accept-Language", "en-US,en;q=0.5");
-		if (encodedPostAuth!=null) httpConnection.setRequestProperty("Authorization", encodedPostAuth);
-		
-
-		// Send post request
-		DataOutputStream wr = new DataOutputStream(	httpConnection.getOutputStream() );
-		if (requestContent!=null && !requestContent.equals("") ) wr.writeBytes(requestContent);
-		wr.flush();
-		wr.close();
-
-		String result = null;
-
-		BufferedReader in = new BufferedReader(new InputStreamReader(
-				httpConnection.getInputStream()));
-		
-		if (in != null) {
-			String inputLine;
-
-			StringBuilder response = new StringBuilder();
-			while ((inputLine = in.readLine()) != null) {
-				response.append(inputLine);
-			}
+		if (!containsKey("User-Agent")) post.setHeader("User-Agent", USER_AGENT);
+		if (!containsKey("Accept-Language")) post.setHeader("Accept-Language", "en-US,en;q=0.5");
+		if (!containsKey("Accept-Encoding")) post.setHeader("Accept-Encoding", "gzip");
+		if (encodedPostAuth!=null) post.setHeader("Authorization", encodedPostAuth);
 		
-			in.close();
-
-			result = response.toString();
+		if (requestContent!=null && !requestContent.equals("") ) {
+			ByteArrayEntity entity = new ByteArrayEntity( requestContent.getBytes("UTF-8") );
+			if (contentType!=null) entity.setContentType(contentType);
+			post.setEntity(entity);
 		}
 		
-		return result;
-
+		return post;
 	}
 
 	/** Set the authorisation to use in {@link #openHttpsPostForString(String)}
@@ -260,12 +363,32 @@ public class WebRequest extends HashMap<String, Object> {
 		this.put("REQUEST", "GetCapabilities");
 		this.put("Version", version);
 	}
+	/** Swaps the entity of a gzip encoded response for one that un-zips it
+	 * 
+	 */
+	static class GzipInterceptor implements HttpResponseInterceptor {
+		public void process(final HttpResponse response, final HttpContext context) throws HttpException, IOException {
+			HttpEntity entity = response.getEntity();
+			if (entity != null) {
+				Header ceheader = entity.getContentEncoding();
+				if (ceheader != null) {
+					HeaderElement[] codecs = ceheader.getElements();
+					for (int i = 0; i < codecs.length; i++) {
+						if (codecs[i].getName().equalsIgnoreCase("gzip")) {
+							response.setEntity( new GzipDecompressingEntity(response.getEntity()) );
+							return;
+						}
+					}
+				}
+			}
+		}
+	}
 	/**
 	 * {@link HttpEntityWrapper} for handling gzip Content Coded responses.
 	 *
 	 * @since 4.1
 	 */
-	class GzipDecompressingEntity extends DecompressingEntity {
+	static class GzipDecompressingEntity extends DecompressingEntity {
 
 	    /**
 	     * Creates a new {@link GzipDecompressingEntity} which will wrap the specified
@@ -316,7 +439,7 @@ public class WebRequest extends HashMap<String, Object> {
 	 *
 	 * @since 4.1
 	 */
-	abstract class DecompressingEntity extends HttpEntityWrapper {
+	static abstract class DecompressingEntity extends HttpEntityWrapper {
 
 	    /**
 	     * Default buffer size.
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.wfs;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.geometry.BoundingBox;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.ParserAdapter;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import com.augtech.geoapi.geopackage.GeoPackage;
+import com.augtech.geoapi.geotools.gml.FeatureTypeRegistry;
+import com.augtech.geoapi.geotools.gml.GMLFeatureFilter;
+import com.augtech.geoapi.geotools.gml.GMLFilterDocument;
+import com.augtech.geoapi.geotools.gml.GMLFilterFeature;
+import com.augtech.geoapi.geotools.gml.GMLFilterGeometry;
+import com.augtech.geoapi.geotools.gml.GpkgFeatureHandler;
+import com.augtech.geoapi.geotools.gml.IFeatureHandler;
+import com.augtech.geoapi.utils.WebRequest;
+
+/** Downloads all the features of one type from a WFS using GetFeature paging
+ * (<code>STARTINDEX</code> with <code>COUNT</code>, or <code>MAXFEATURES</code>
+ * before WFS 2.0).<p>
+ * Several pages are requested at once, each response being parsed straight from
+ * the connection by the GML filter chain. Pages are passed to the {@link IFeatureHandler}
+ * on the calling thread in page order, so features arrive in the same order as a
+ * single request would give them. All pages share one {@link FeatureTypeRegistry}, so
+ * every feature references the same type. A page that fails to download or parse is requested
+ * again, up to the retry limit, before the load is abandoned.<p>
+ * Paging stops at the first page that contains fewer features than the page size.
+ * Servers should be asked for a stable order (i.e. via a <code>SORTBY</code>
+ * parameter) if the data may change during the load.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class WFSFeatureLoader {
+	private static final Logger log = Logger.getAnonymousLogger();
+
+	private String serverUrl;
+	private String typeName;
+	private String version = "2.0.0";
+	private int pageSize = 1000;
+	private int maxInFlight = 4;
+	private int maxRetries = 3;
+	private long retryDelay = 1000;
+	private GMLFeatureFilter filter = null;
+	private Map<String, Object> parameters = new HashMap<String, Object>();
+	private int pagesRead = 0;
+	private FeatureTypeRegistry typeRegistry = null;
+
+	/** Create a new loader for a feature type
+	 *
+	 * @param serverUrl The WFS end-point, such as http://myserver/geoserver/wfs
+	 * @param typeName The qualified name of the feature type to load
+	 */
+	public WFSFeatureLoader(String serverUrl, String typeName) {
+		this.serverUrl = serverUrl;
+		this.typeName = typeName;
+	}
+	/** Set the WFS version to request. Default is 2.0.0
+	 *
+	 * @param version
+	 */
+	public void setVersion(String version) {
+		this.version = version;
+	}
+	/** Set the number of features to request per page. Default is 1000
+	 *
+	 * @param pageSize
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize<1) throw new IllegalArgumentException("Page size must be greater than zero");
+		this.pageSize = pageSize;
+	}
+	/** Set the maximum number of page requests to have open at once. Default is 4
+	 *
+	 * @param maxInFlight
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight<1) throw new IllegalArgumentException("Requests in flight must be greater than zero");
+		this.maxInFlight = maxInFlight;
+	}
+	/** Set how many times a failed page is requested again, and the delay before the
+	 * first retry. The delay increases with each retry of the same page.
+	 * Default is 3 retries, starting at 1 second.
+	 *
+	 * @param maxRetries
+	 * @param retryDelay Milliseconds
+	 */
+	public void setRetries(int maxRetries, long retryDelay) {
+		this.maxRetries = Math.max(0, maxRetries);
+		this.retryDelay = Math.max(0, retryDelay);
+	}
+	/** Set a filter to apply while parsing each page
+	 *
+	 * @param filter The filter, or <code>Null</code> to keep everything returned
+	 */
+	public void setFilter(GMLFeatureFilter filter) {
+		this.filter = filter;
+	}
+	/** Set an additional parameter on every GetFeature request, such as
+	 * <code>SRSNAME</code>, <code>BBOX</code> or <code>SORTBY</code>. The value
+	 * is URL encoded when the request is made.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void setParameter(String key, Object value) {
+		parameters.put(key, value);
+	}
+	/** Get the number of pages read by the last load
+	 *
+	 * @return
+	 */
+	public int getPagesRead() {
+		return pagesRead;
+	}
+	/** Get the feature types from the last load, keyed on their qualified type name.
+	 *
+	 * @return
+	 */
+	public Map<String, SimpleFeatureType> getFeatureTypes() {
+		return typeRegistry==null ? null : typeRegistry.getFeatureTypes();
+	}
+	/** Load all features in to a GeoPackage, creating the feature table if it
+	 * does not already exist. Features are inserted in batches of the page size.
+	 *
+	 * @param geoPackage The GeoPackage to load in to
+	 * @param tableExtents The extents for a new table, or <code>Null</code> if the
+	 * table must already exist.
+	 * @return The number of features inserted
+	 * @throws Exception If a page could not be read after retrying, or features
+	 * could not be inserted
+	 */
+	public int load(GeoPackage geoPackage, BoundingBox tableExtents) throws Exception {
+		GpkgFeatureHandler handler = new GpkgFeatureHandler(geoPackage, pageSize, tableExtents);
+		try {
+			load(handler);
+		} finally {
+			handler.close();
+		}
+		return handler.getFeaturesInserted();
+	}
+	/** Load all features, passing them to the handler in page order
+	 *
+	 * @param handler The handler to receive the features. It receives startDocument
+	 * before the first page and endDocument after the last.
+	 * @return The number of features passed to the handler
+	 * @throws Exception If a page could not be read after retrying
+	 */
+	public int load(IFeatureHandler handler) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+		LinkedList<Future<Page>> pending = new LinkedList<Future<Page>>();
+		int nextPage = 0;
+		int featureCount = 0;
+		boolean lastPage = false;
+		pagesRead = 0;
+		typeRegistry = new FeatureTypeRegistry();
+
+		try {
+			handler.startDocument();
+
+			while (pending.size() < maxInFlight) {
+				pending.add( executor.submit( new PageReader(nextPage++) ) );
+			}
+
+			while (!pending.isEmpty()) {
+				Page page = null;
+				try {
+					page = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+				pagesRead++;
+
+				for (SimpleFeature sf : page.features) {
+					handler.feature(sf);
+				}
+				featureCount += page.features.size();
+
+				if (page.members < pageSize) {
+					lastPage = true;
+					// Anything still in flight is past the end
+					for (Future<Page> f : pending) f.cancel(true);
+					pending.clear();
+				} else if (!lastPage) {
+					pending.add( executor.submit( new PageReader(nextPage++) ) );
+				}
+			}
+
+			handler.endDocument();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return featureCount;
+	}
+	/** Build the GetFeature request for a page
+	 *
+	 * @param index The zero based page number
+	 * @return
+	 */
+	private WebRequest buildRequest(int index) throws UnsupportedEncodingException {
+		WebRequest wr = new WebRequest(serverUrl);
+		for (Map.Entry<String, Object> e : parameters.entrySet()) {
+			wr.put(e.getKey(), encode(e.getValue()));
+		}
+		wr.put("SERVICE", "WFS");
+		wr.put("VERSION", encode(version));
+		wr.put("REQUEST", "GetFeature");
+		wr.put("STARTINDEX", String.valueOf(index * pageSize));
+		if (version.startsWith("1.")) {
+			wr.put("TYPENAME", encode(typeName));
+			wr.put("MAXFEATURES", String.valueOf(pageSize));
+		} else {
+			wr.put("TYPENAMES", encode(typeName));
+			wr.put("COUNT", String.valueOf(pageSize));
+		}
+		return wr;
+	}
+	/** URL encode a request parameter value
+	 *
+	 * @param value
+	 * @return
+	 * @throws UnsupportedEncodingException
+	 */
+	private static String encode(Object value) throws UnsupportedEncodingException {
+		return URLEncoder.encode(String.valueOf(value), "UTF-8");
+	}
+
+	/** The features parsed from one page */
+	private static class Page {
+		List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+		/** The number of feature members in the response, before filtering */
+		int members = 0;
+	}
+
+	/** Downloads and parses one page, retrying on failure */
+	private class PageReader implements Callable<Page> {
+		private int index;
+
+		PageReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Page call() throws Exception {
+			for (int attempt = 0; ; attempt++) {
+				try {
+					return read();
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					if (attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+						throw new Exception("Failed to read page "+index+" of "+typeName+": "+e.getMessage(), e);
+					}
+					log.log(Level.WARNING, "Retrying page "+index+" of "+typeName+": "+e.getMessage());
+					Thread.sleep( retryDelay * (attempt + 1) );
+				}
+			}
+		}
+
+		private Page read() throws Exception {
+			Page page = new Page();
+
+			IFeatureHandler collector = new FeatureCollector(page);
+			GMLFilterFeature featureFilter = new GMLFilterFeature(collector, typeRegistry);
+			featureFilter.setFilter(filter);
+			GMLFilterGeometry geometryFilter = new GMLFilterGeometry(featureFilter);
+			GMLFilterDocument documentFilter = new GMLFilterDocument(geometryFilter);
+			MemberCounter counter = new MemberCounter(page);
+			counter.setContentHandler(documentFilter);
+
+			ParserAdapter adapter = new ParserAdapter(
+					SAXParserFactory.newInstance().newSAXParser().getParser() );
+			adapter.setContentHandler(counter);
+
+			InputStream in = buildRequest(index).openConnection();
+			try {
+				adapter.parse( new InputSource(in) );
+			} finally {
+				in.close();
+			}
+
+			return page;
+		}
+	}
+
+	/** Collects the parsed features for a page */
+	private static class FeatureCollector extends XMLFilterImpl implements IFeatureHandler {
+		private Page page;
+
+		FeatureCollector(Page page) {
+			this.page = page;
+		}
+
+		@Override
+		public void feature(SimpleFeature feature) {
+			page.features.add(feature);
+		}
+	}
+
+	/** Counts the feature members in a response so the end of paging can be found
+	 * even when the filter drops features, and turns an OWS exception report in to
+	 * an error rather than an empty page.
+	 */
+	private static class MemberCounter extends XMLFilterImpl {
+		private Page page;
+		private int depth = 0;
+		private boolean insideMembers = false;
+		private StringBuffer exception = null;
+
+		MemberCounter(Page page) {
+			this.page = page;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts)
+				throws SAXException {
+			depth++;
+			if (depth==1 && localName.equals("ExceptionReport")) {
+				exception = new StringBuffer();
+			} else if (depth==2) {
+				if (localName.equals("featureMembers")) {
+					insideMembers = true;
+				} else if (localName.equals("featureMember") || localName.equals("member")) {
+					page.members++;
+				}
+			} else if (depth==3 && insideMembers) {
+				page.members++;
+			}
+			super.startElement(uri, localName, qName, atts);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (exception!=null) {
+				exception.append(ch, start, length);
+			}
+			super.characters(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			if (depth==2) insideMembers = false;
+			depth--;
+			if (depth==0 && exception!=null) {
+				throw new SAXException( exception.toString().trim() );
+			}
+			super.endElement(uri, localName, qName);
+		}
+	}
+}
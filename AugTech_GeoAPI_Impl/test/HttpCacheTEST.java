@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.util.EntityUtils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/** Tests the {@link HttpCache} against a stand-in server on the local machine
+ * that answers each path with a different set of caching headers.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class HttpCacheTEST {
+	static final String ETAG = "\"v1\"";
+
+	Logger log = Logger.getAnonymousLogger();
+	private HttpServer server = null;
+	/** The number of requests the server has answered, by path */
+	private Map<String, Integer> served = new HashMap<String, Integer>();
+
+	public static void main(String[] args) throws Exception {
+		HttpCacheTEST test = new HttpCacheTEST();
+		boolean passed = test.runCacheTest();
+		test.log.log(Level.INFO, "HttpCache test "+(passed ? "passed" : "FAILED"));
+		if (!passed) System.exit(1);
+	}
+	/** Request each path twice through a private and a shared cache and check how
+	 * many requests reach the server.
+	 *
+	 * @return True if all checks pass
+	 * @throws Exception
+	 */
+	public boolean runCacheTest() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "HttpCacheTEST");
+		startServer();
+		try {
+			HttpCache cache = new HttpCache(dir, 1024*1024);
+			cache.clear();
+			boolean passed = true;
+
+			// Fresh by max-age
+			passed &= checkServed(cache, "/fresh", null, null, 1);
+			// Fresh by Expires
+			passed &= checkServed(cache, "/expires", null, null, 1);
+			// no-cache wins, even after max-age, and is revalidated by ETag
+			passed &= checkServed(cache, "/nocache", null, null, 2);
+			passed &= check(cache.getRevalidated()==1, "Revalidated "+cache.getRevalidated());
+			// A private cache keeps private responses and ignores s-maxage
+			passed &= checkServed(cache, "/private", null, null, 1);
+			passed &= checkServed(cache, "/smaxage", null, null, 2);
+
+			// Different Authorization headers are different entries
+			passed &= checkServed(cache, "/auth", "Authorization", "Basic a", 1);
+			passed &= checkServed(cache, "/auth", "Authorization", "Basic b", 1);
+
+			// Different values of a Vary header are different entries
+			passed &= checkServed(cache, "/vary", "Accept-Language", "en", 1);
+			passed &= checkServed(cache, "/vary", "Accept-Language", "fr", 1);
+			passed &= check("fr".equals(get(cache, "/vary", "Accept-Language", "fr")), "Wrong variant for fr");
+			passed &= check("en".equals(get(cache, "/vary", "Accept-Language", "en")), "Wrong variant for en");
+			passed &= check(count("/vary")==2, "Served /vary "+count("/vary")+" times");
+
+			// A shared cache skips private and authorised responses but uses s-maxage
+			cache.clear();
+			synchronized (this) {
+				served.clear();
+			}
+			cache.setShared(true);
+			passed &= checkServed(cache, "/private", null, null, 2);
+			passed &= checkServed(cache, "/smaxage", null, null, 1);
+			passed &= checkServed(cache, "/auth", "Authorization", "Basic a", 2);
+
+			cache.clear();
+			return passed;
+		} finally {
+			server.stop(0);
+			WebRequest.shutdown();
+		}
+	}
+	/** Request a path twice and check the number of times the server answered it
+	 *
+	 * @param cache
+	 * @param path
+	 * @param header An extra request header, or <code>Null</code>
+	 * @param value
+	 * @param expected The number of requests that should reach the server
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean checkServed(HttpCache cache, String path, String header, String value, int expected)
+			throws IOException {
+		int before = count(path);
+		for (int i=0; i<2; i++) get(cache, path, header, value);
+		int n = count(path) - before;
+		return check(n==expected, "Served "+path+(value==null ? "" : " ("+value+")")+" "+n+" times, expected "+expected);
+	}
+	/** Get the body of a path through the cache
+	 *
+	 * @param cache
+	 * @param path
+	 * @param header
+	 * @param value
+	 * @return
+	 * @throws IOException
+	 */
+	private String get(HttpCache cache, String path, String header, String value) throws IOException {
+		HttpGet request = new HttpGet("http://localhost:"+server.getAddress().getPort()+path);
+		if (header!=null) request.setHeader(header, value);
+		return EntityUtils.toString( cache.execute(request), "UTF-8" );
+	}
+	/** Get the number of requests the server has answered for a path
+	 *
+	 * @param path
+	 * @return
+	 */
+	private synchronized int count(String path) {
+		Integer n = served.get(path);
+		return n==null ? 0 : n;
+	}
+	/** Log a failed check
+	 *
+	 * @param ok
+	 * @param msg
+	 * @return ok
+	 */
+	private boolean check(boolean ok, String msg) {
+		if (!ok) log.log(Level.SEVERE, "Failed: "+msg);
+		return ok;
+	}
+	/** Start the stand-in server on a free port
+	 *
+	 * @throws IOException
+	 */
+	private void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				synchronized (HttpCacheTEST.this) {
+					served.put(path, count(path)+1);
+				}
+
+				Headers req = exchange.getRequestHeaders();
+				Headers resp = exchange.getResponseHeaders();
+				String body = path;
+				resp.set("Content-Type", "text/plain");
+
+				if (path.equals("/fresh")) {
+					resp.set("Cache-Control", "max-age=60");
+				} else if (path.equals("/expires")) {
+					resp.set("Expires", DateUtils.formatDate( new Date(System.currentTimeMillis()+60000) ));
+				} else if (path.equals("/nocache")) {
+					resp.set("Cache-Control", "max-age=60, no-cache");
+					resp.set("ETag", ETAG);
+					if (ETAG.equals(req.getFirst("If-None-Match"))) {
+						exchange.sendResponseHeaders(304, -1);
+						exchange.close();
+						return;
+					}
+				} else if (path.equals("/private")) {
+					resp.set("Cache-Control", "private, max-age=60");
+				} else if (path.equals("/smaxage")) {
+					resp.set("Cache-Control", "max-age=0, s-maxage=60");
+				} else if (path.equals("/auth")) {
+					resp.set("Cache-Control", "max-age=60");
+				} else if (path.equals("/vary")) {
+					resp.set("Cache-Control", "max-age=60");
+					resp.set("Vary", "Accept-Language");
+					body = req.getFirst("Accept-Language");
+				}
+
+				byte[] bytes = body.getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, bytes.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(bytes);
+				out.close();
+			}
+		});
+		server.start();
+	}
+}
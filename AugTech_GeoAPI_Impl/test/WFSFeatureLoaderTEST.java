@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015, Augmented Technologies Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.augtech.geoapi.wfs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import com.augtech.geoapi.geotools.gml.IFeatureHandler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/** Tests the {@link WFSFeatureLoader} against a stub WFS on the local machine
+ * that pages through a fixed set of features.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class WFSFeatureLoaderTEST {
+	static final int TOTAL_FEATURES = 5;
+	static final int PAGE_SIZE = 2;
+	static final String SORT_BY = "name ASC,id";
+
+	Logger log = Logger.getAnonymousLogger();
+	private HttpServer server = null;
+	private List<String> sortByReceived = Collections.synchronizedList(new ArrayList<String>());
+
+	public static void main(String[] args) throws Exception {
+		WFSFeatureLoaderTEST test = new WFSFeatureLoaderTEST();
+		boolean passed = test.runLoadTest();
+		test.log.log(Level.INFO, "WFSFeatureLoader test "+(passed ? "passed" : "FAILED"));
+		if (!passed) System.exit(1);
+	}
+	/** Load all pages from the stub server and check the features, their type
+	 * and the request parameters the server received.
+	 *
+	 * @return True if all checks pass
+	 * @throws Exception
+	 */
+	public boolean runLoadTest() throws Exception {
+		startServer();
+		try {
+			WFSFeatureLoader loader = new WFSFeatureLoader(
+					"http://localhost:"+server.getAddress().getPort()+"/wfs", "t:road");
+			loader.setPageSize(PAGE_SIZE);
+			loader.setMaxInFlight(2);
+			loader.setRetries(0, 0);
+			loader.setParameter("SORTBY", SORT_BY);
+
+			List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+			int count = loader.load(new Collector(features));
+
+			boolean passed = true;
+			passed &= check(count==TOTAL_FEATURES, "Loaded "+count+" features");
+			passed &= check(loader.getPagesRead()==3, "Read "+loader.getPagesRead()+" pages");
+
+			for (int i=0; i<features.size(); i++) {
+				passed &= check(features.get(i).getID().equals("road."+i), "Feature "+i+" is "+features.get(i).getID());
+			}
+
+			// Features from every page share the one (widened) type
+			Map<String, SimpleFeatureType> types = loader.getFeatureTypes();
+			passed &= check(types.size()==1, types.size()+" feature types");
+			SimpleFeatureType type = features.get(0).getType();
+			for (SimpleFeature sf : features) {
+				passed &= check(sf.getType()==type, "Feature "+sf.getID()+" has its own type");
+			}
+			Class<?> binding = type.getType("n")==null ? null : type.getType("n").getBinding();
+			passed &= check(binding==Double.class, "Type of n is "+binding);
+			// Values read before the type was widened are read as the wider type
+			Object n0 = features.get(0).getAttribute("n");
+			passed &= check(n0 instanceof Double, "Value of n on the first feature is "+n0);
+
+			for (String s : sortByReceived) {
+				passed &= check(SORT_BY.equals(s), "Server received SORTBY="+s);
+			}
+
+			return passed;
+		} finally {
+			server.stop(0);
+		}
+	}
+	/** Log a failed check
+	 *
+	 * @param ok
+	 * @param msg
+	 * @return ok
+	 */
+	private boolean check(boolean ok, String msg) {
+		if (!ok) log.log(Level.SEVERE, "Failed: "+msg);
+		return ok;
+	}
+	/** Start the stub WFS on a free port
+	 *
+	 * @throws IOException
+	 */
+	private void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/wfs", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				Map<String, String> params = getParameters(exchange.getRequestURI().getRawQuery());
+				sortByReceived.add(params.get("SORTBY"));
+
+				int start = Integer.parseInt(params.get("STARTINDEX"));
+				int count = Integer.parseInt(params.get("COUNT"));
+				byte[] body = getPage(start, count).getBytes("UTF-8");
+
+				exchange.getResponseHeaders().set("Content-Type", "text/xml");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+	}
+	/** Decode the query parameters of a request
+	 *
+	 * @param query The raw query string
+	 * @return
+	 * @throws IOException
+	 */
+	private static Map<String, String> getParameters(String query) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String p : query.split("&")) {
+			int eq = p.indexOf('=');
+			params.put(p.substring(0, eq), URLDecoder.decode(p.substring(eq+1), "UTF-8"));
+		}
+		return params;
+	}
+	/** Build a page of the GetFeature response. The first page holds integer
+	 * values of 'n' and later pages decimals, so the type has to be widened.
+	 *
+	 * @param start
+	 * @param count
+	 * @return
+	 */
+	private static String getPage(int start, int count) {
+		StringBuffer sb = new StringBuffer();
+		sb.append("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" ");
+		sb.append("xmlns:gml=\"http://www.opengis.net/gml\" xmlns:t=\"http://example.com/t\">");
+		for (int i=start; i<Math.min(start+count, TOTAL_FEATURES); i++) {
+			sb.append("<gml:featureMember><t:road fid=\"road.").append(i).append("\">");
+			sb.append("<t:name>Road ").append(i).append("</t:name>");
+			sb.append("<t:n>").append(start==0 ? String.valueOf(i) : i+".5").append("</t:n>");
+			sb.append("<t:geom><gml:Point><gml:coordinates>").append(i).append(",").append(i);
+			sb.append("</gml:coordinates></gml:Point></t:geom>");
+			sb.append("</t:road></gml:featureMember>");
+		}
+		sb.append("</wfs:FeatureCollection>");
+		return sb.toString();
+	}
+
+	/** Collects the loaded features */
+	private static class Collector extends XMLFilterImpl implements IFeatureHandler {
+		private List<SimpleFeature> features;
+
+		Collector(List<SimpleFeature> features) {
+			this.features = features;
+		}
+		@Override
+		public void feature(SimpleFeature feature) {
+			features.add(feature);
+		}
+	}
+}
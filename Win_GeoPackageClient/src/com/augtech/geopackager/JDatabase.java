@@ -7,6 +7,7 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -116,6 +117,34 @@ public class JDatabase implements com.augtech.geoapi.geopackage.ISQLDatabase {
 		
 		return new JCursor( );
 	}
+	/** {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException If an argument can not be bound to the statement
+	 */
+	@Override
+	public ICursor doRawQuery(String sql, Object[] args) {
+		getDatabase(true);
+		try {
+			
+			PreparedStatement preparedStatement = connection.prepareStatement( sql );
+			if (args!=null) {
+				try {
+					encodeValues(preparedStatement, Arrays.asList(args) );
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Unable to bind query arguments: "+e.getMessage(), e);
+				} catch (IOException e) {
+					throw new IllegalArgumentException("Unable to bind query arguments: "+e.getMessage(), e);
+				}
+			}
+			return new JCursor( preparedStatement.executeQuery() );
+			
+		} catch (SQLException e) {
+			/* If no results were returned then "query does not return ResultSet"
+			 * is thrown, therefore just return a new blank cursor */
+		}
+		
+		return new JCursor( );
+	}
 
 	@Override
 	public void execSQL(String sql) {
@@ -0,0 +1,116 @@
+package com.augtech.geopackager;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.augtech.geoapi.geotools.gml.IPullParser;
+
+/** A StAX (javax.xml.stream) implementation of {@link IPullParser} for
+ * reading GML with {@link com.augtech.geoapi.geotools.gml.GMLFeatureReader}
+ * on the desktop.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class JPullParser implements IPullParser {
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+	static {
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	}
+	private XMLStreamReader reader = null;
+	private InputStream stream = null;
+
+	/** Create a new parser over a stream
+	 *
+	 * @param stream The XML. This is closed when the parser is closed.
+	 * @throws XMLStreamException
+	 */
+	public JPullParser(InputStream stream) throws XMLStreamException {
+		this.stream = stream;
+		synchronized (factory) {
+			this.reader = factory.createXMLStreamReader(stream);
+		}
+	}
+
+	@Override
+	public int next() throws Exception {
+		if (!reader.hasNext()) return END_DOCUMENT;
+
+		switch (reader.next()) {
+		case XMLStreamConstants.START_ELEMENT:
+			return START_ELEMENT;
+		case XMLStreamConstants.END_ELEMENT:
+			return END_ELEMENT;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+		case XMLStreamConstants.SPACE:
+			return CHARACTERS;
+		case XMLStreamConstants.END_DOCUMENT:
+			return END_DOCUMENT;
+		default:
+			return OTHER;
+		}
+	}
+
+	@Override
+	public String getNamespaceURI() {
+		return reader.getNamespaceURI();
+	}
+
+	@Override
+	public String getLocalName() {
+		return reader.getLocalName();
+	}
+
+	@Override
+	public String getPrefix() {
+		return reader.getPrefix();
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return reader.getAttributeCount();
+	}
+
+	@Override
+	public String getAttributeLocalName(int index) {
+		return reader.getAttributeLocalName(index);
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return reader.getAttributeValue(index);
+	}
+
+	@Override
+	public char[] getTextCharacters() {
+		return reader.getTextCharacters();
+	}
+
+	@Override
+	public int getTextStart() {
+		return reader.getTextStart();
+	}
+
+	@Override
+	public int getTextLength() {
+		return reader.getTextLength();
+	}
+
+	@Override
+	public void close() {
+		try {
+			reader.close();
+			stream.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
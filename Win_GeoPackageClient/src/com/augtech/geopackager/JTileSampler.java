@@ -0,0 +1,75 @@
+package com.augtech.geopackager;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import com.augtech.geoapi.geopackage.ITileSampler;
+
+/** A Java2D implementation of {@link ITileSampler} for building tile
+ * pyramids on the desktop.
+ *
+ * @author Augmented Technologies Ltd.
+ *
+ */
+public class JTileSampler implements ITileSampler {
+	private String format = "png";
+
+	/** Create a new sampler that outputs PNG tiles
+	 *
+	 */
+	public JTileSampler() {
+	}
+	/** Create a new sampler
+	 *
+	 * @param format The output image format, either png or jpg
+	 */
+	public JTileSampler(String format) {
+		this.format = format;
+	}
+
+	@Override
+	public byte[] downsample(byte[][] children, int tileWidth, int tileHeight) {
+
+		boolean isJpg = format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg");
+		BufferedImage parent = new BufferedImage(tileWidth, tileHeight,
+				isJpg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = parent.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+		int halfW = tileWidth / 2;
+		int halfH = tileHeight / 2;
+		boolean drawn = false;
+
+		try {
+			for (int i=0; i<4; i++) {
+				if (children[i]==null) continue;
+
+				BufferedImage child = ImageIO.read( new ByteArrayInputStream(children[i]) );
+				if (child==null) continue;
+
+				g.drawImage(child, (i % 2) * halfW, (i / 2) * halfH, halfW, halfH, null);
+				drawn = true;
+			}
+
+			if (!drawn) return null;
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(parent, isJpg ? "jpg" : "png", out);
+			return out.toByteArray();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			g.dispose();
+		}
+
+		return null;
+	}
+
+}